@@ -0,0 +1,550 @@
+package com.kop.app;
+
+import android.content.res.AssetFileDescriptor;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.ColorMatrix;
+import android.graphics.ColorMatrixColorFilter;
+import android.graphics.Paint;
+import android.os.Debug;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opencv.android.OpenCVLoader;
+import org.opencv.android.Utils;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Device benchmarks of the processing paths, on synthetic frames drawn from a fixed seed. Each
+ * test checks that the optimized path gives the same output as the code it replaced, then logs
+ * both timings under the "KopBenchmark" tag:
+ *
+ *   ./gradlew connectedAndroidTest
+ *   adb logcat -s KopBenchmark
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProcessingBenchmark {
+
+    private static final String TAG = "KopBenchmark";
+
+    @BeforeClass
+    public static void loadOpenCv() {
+        assertTrue("OpenCV failed to load", OpenCVLoader.initDebug());
+    }
+
+    /**
+     * The watershed unknown band and the boundary mask, once with the per-pixel get/put loops
+     * Methods 2 and 4 used and once with the compare/setTo masks that replaced them.
+     */
+    @Test
+    public void watershedMarkersAndBoundaries_4000x3000() {
+        Bitmap frame = fixture(4000, 3000, 2);
+        Mat rgba = new Mat();
+        Utils.bitmapToMat(frame, rgba);
+        frame.recycle();
+        Mat gray = new Mat();
+        Imgproc.cvtColor(rgba, gray, Imgproc.COLOR_RGBA2GRAY);
+        Mat bgr = new Mat();
+        Imgproc.cvtColor(rgba, bgr, Imgproc.COLOR_RGBA2BGR);
+        Mat seeds = new Mat();
+        Imgproc.Canny(gray, seeds, 10, 80);
+
+        // The markers as getWatershedMarkers builds them, up to the unknown band.
+        Mat kernel = Imgproc.getStructuringElement(Imgproc.MORPH_RECT, new Size(3, 3));
+        Mat thresh = new Mat();
+        Imgproc.threshold(seeds, thresh, 0, 255, Imgproc.THRESH_BINARY_INV + Imgproc.THRESH_OTSU);
+        Mat opening = new Mat();
+        Imgproc.morphologyEx(thresh, opening, Imgproc.MORPH_OPEN, kernel, new Point(-1, -1), 2);
+        Mat sureBg = new Mat();
+        Imgproc.dilate(opening, sureBg, kernel, new Point(-1, -1), 3);
+        Mat distance = new Mat();
+        Imgproc.distanceTransform(opening, distance, Imgproc.DIST_L2, 5);
+        Mat sureFg = new Mat();
+        Imgproc.threshold(distance, sureFg, 0.7 * Core.minMaxLoc(distance).maxVal, 255, 0);
+        sureFg.convertTo(sureFg, CvType.CV_8U);
+        Mat unknown = new Mat();
+        Core.subtract(sureBg, sureFg, unknown);
+        Mat markers = new Mat();
+        Imgproc.connectedComponents(sureFg, markers);
+        Core.add(markers, new Scalar(1), markers);
+
+        Mat loopMarkers = markers.clone();
+        long start = System.nanoTime();
+        for (int r = 0; r < loopMarkers.rows(); r++) {
+            for (int c = 0; c < loopMarkers.cols(); c++) {
+                if (unknown.get(r, c)[0] == 255) {
+                    loopMarkers.put(r, c, 0);
+                }
+            }
+        }
+        long loopMarkerNanos = System.nanoTime() - start;
+
+        Mat maskMarkers = markers.clone();
+        start = System.nanoTime();
+        Mat unknownMask = new Mat();
+        Core.compare(unknown, new Scalar(255), unknownMask, Core.CMP_EQ);
+        maskMarkers.setTo(new Scalar(0), unknownMask);
+        long maskMarkerNanos = System.nanoTime() - start;
+        assertIdentical("watershed markers", loopMarkers, maskMarkers);
+
+        Imgproc.watershed(bgr, maskMarkers);
+
+        Mat loopBoundaries = new Mat(maskMarkers.size(), CvType.CV_8U, new Scalar(0));
+        start = System.nanoTime();
+        for (int r = 0; r < maskMarkers.rows(); r++) {
+            for (int c = 0; c < maskMarkers.cols(); c++) {
+                if (maskMarkers.get(r, c)[0] == -1) {
+                    loopBoundaries.put(r, c, 255);
+                }
+            }
+        }
+        long loopBoundaryNanos = System.nanoTime() - start;
+
+        Mat maskBoundaries = new Mat();
+        start = System.nanoTime();
+        Core.compare(maskMarkers, new Scalar(-1), maskBoundaries, Core.CMP_EQ);
+        long maskBoundaryNanos = System.nanoTime() - start;
+        assertIdentical("watershed boundaries", loopBoundaries, maskBoundaries);
+
+        Log.i(TAG, String.format(Locale.US,
+                "Watershed 4000x3000: markers per-pixel %d ms, masks %d ms; boundaries per-pixel %d ms, masks %d ms",
+                loopMarkerNanos / 1000000, maskMarkerNanos / 1000000, loopBoundaryNanos / 1000000, maskBoundaryNanos / 1000000));
+
+        release(rgba, gray, bgr, seeds, kernel, thresh, opening, sureBg, distance, sureFg, unknown, markers,
+                loopMarkers, maskMarkers, unknownMask, loopBoundaries, maskBoundaries);
+    }
+
+    /** Method 4 end to end on a 12MP frame, without progress bitmaps. */
+    @Test
+    public void watershedMethods_4000x3000() {
+        Bitmap frame = fixture(4000, 3000, 2);
+        long start = System.nanoTime();
+        DeepScanProcessor.processMethod4(frame, new DeepScanProcessor.ResultOnlyScanListener() {
+            @Override
+            public void onScanComplete(DeepScanProcessor.ProcessingResult result) {
+                result.resultBitmap.recycle();
+            }
+        });
+        long method4Nanos = System.nanoTime() - start;
+        frame.recycle();
+        MatPool.clearCurrentThread();
+        Log.i(TAG, String.format(Locale.US, "Method 4 at 4000x3000: %d ms", method4Nanos / 1000000));
+    }
+
+    /**
+     * Color dodge of a 12MP pencil sketch, once through the CV_32F version it replaced and once
+     * on 8-bit data. Reports the time and the native heap peak of each; the results may differ
+     * by at most 1 from the float version's rounding.
+     */
+    @Test
+    public void colorDodge_4000x3000() {
+        Bitmap frame = fixture(4000, 3000, 10);
+        Mat rgba = new Mat();
+        Utils.bitmapToMat(frame, rgba);
+        frame.recycle();
+        Mat bottom = new Mat();
+        Imgproc.cvtColor(rgba, bottom, Imgproc.COLOR_RGBA2GRAY);
+        rgba.release();
+        Mat top = new Mat();
+        Core.bitwise_not(bottom, top);
+        Imgproc.GaussianBlur(top, top, new Size(21, 21), 0);
+
+        HeapPeak floatPeak = new HeapPeak();
+        long start = System.nanoTime();
+        Mat floatResult = legacyColorDodge(bottom, top);
+        long floatNanos = System.nanoTime() - start;
+        long floatPeakBytes = floatPeak.stop();
+
+        HeapPeak bytePeak = new HeapPeak();
+        start = System.nanoTime();
+        Mat byteResult = DeepScanProcessor.colorDodgeTile(bottom, top);
+        long byteNanos = System.nanoTime() - start;
+        long bytePeakBytes = bytePeak.stop();
+
+        Mat difference = new Mat();
+        Core.absdiff(floatResult, byteResult, difference);
+        double maxDifference = Core.minMaxLoc(difference).maxVal;
+        Log.i(TAG, String.format(Locale.US,
+                "Color dodge 4000x3000: CV_32F %d ms, peak +%d MB; CV_8U %d ms, peak +%d MB; max difference %.0f",
+                floatNanos / 1000000, floatPeakBytes >> 20, byteNanos / 1000000, bytePeakBytes >> 20, maxDifference));
+        assertTrue("8-bit color dodge differs by " + maxDifference, maxDifference <= 1);
+
+        release(bottom, top, floatResult, difference);
+        MatPool.recycle(byteResult);
+        MatPool.clearCurrentThread();
+    }
+
+    /** The CV_32F color dodge from before the 8-bit rewrite, on plain Mats. */
+    private static Mat legacyColorDodge(Mat bottom, Mat top) {
+        Mat topFloat = new Mat();
+        top.convertTo(topFloat, CvType.CV_32F, 1.0 / 255.0);
+        Mat bottomFloat = new Mat();
+        bottom.convertTo(bottomFloat, CvType.CV_32F, 1.0 / 255.0);
+        Mat one = new Mat(topFloat.size(), CvType.CV_32F, new Scalar(1.0));
+        Mat topSub = new Mat();
+        Core.subtract(one, topFloat, topSub);
+        Mat quotient = new Mat();
+        Core.divide(bottomFloat, topSub, quotient, 255.0);
+        Mat result = new Mat();
+        quotient.convertTo(result, CvType.CV_8U);
+        release(topFloat, bottomFloat, one, topSub, quotient);
+        return result;
+    }
+
+    /**
+     * Samples the native heap on a background thread until stopped, and reports how far it rose
+     * above where it started. OpenCV allocates Mats on the native heap.
+     */
+    private static final class HeapPeak {
+        private final long baseline = Debug.getNativeHeapAllocatedSize();
+        private final AtomicLong peak = new AtomicLong(baseline);
+        private volatile boolean running = true;
+        private final Thread sampler = new Thread(() -> {
+            while (running) {
+                long allocated = Debug.getNativeHeapAllocatedSize();
+                if (allocated > peak.get()) {
+                    peak.set(allocated);
+                }
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "HeapPeak");
+
+        HeapPeak() {
+            sampler.start();
+        }
+
+        long stop() {
+            running = false;
+            try {
+                sampler.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return Math.max(0, peak.get() - baseline);
+        }
+    }
+
+    /**
+     * A 21x21 Gaussian blur, once in one piece and then tiled on pools of 1 to 8 threads, at 12MP
+     * and 48MP. Every tiled result must match the untiled one exactly.
+     */
+    @Test
+    public void tileExecutorScaling_12mpAnd48mp() {
+        int[][] sizes = {{4000, 3000}, {8000, 6000}};
+        int ksize = 21;
+        TileExecutor.TileFunction blur = tiles -> {
+            Mat blurred = MatPool.obtainLike(tiles[0]);
+            Imgproc.GaussianBlur(tiles[0], blurred, new Size(ksize, ksize), 0);
+            return blurred;
+        };
+        for (int[] size : sizes) {
+            Bitmap frame = fixture(size[0], size[1], 6);
+            Mat rgba = new Mat();
+            Utils.bitmapToMat(frame, rgba);
+            frame.recycle();
+            Mat gray = new Mat();
+            Imgproc.cvtColor(rgba, gray, Imgproc.COLOR_RGBA2GRAY);
+            rgba.release();
+
+            long start = System.nanoTime();
+            Mat whole = blur.apply(new Mat[]{gray});
+            long wholeNanos = System.nanoTime() - start;
+            StringBuilder report = new StringBuilder(String.format(Locale.US,
+                    "Tiled 21x21 blur at %dx%d: untiled %d ms", size[0], size[1], wholeNanos / 1000000));
+
+            for (int threads = 1; threads <= 8; threads++) {
+                ForkJoinPool pool = TileExecutor.newPool(threads);
+                // One warm-up run, so thread start-up is not timed.
+                MatPool.recycle(TileExecutor.map(pool, ksize / 2 + 1, CvType.CV_8UC1, blur, gray));
+                start = System.nanoTime();
+                Mat tiled = TileExecutor.map(pool, ksize / 2 + 1, CvType.CV_8UC1, blur, gray);
+                long tiledNanos = System.nanoTime() - start;
+                pool.shutdown();
+                assertIdentical(threads + "-thread tiled blur", whole, tiled);
+                MatPool.recycle(tiled);
+                report.append(String.format(Locale.US, ", %d thread%s %d ms (%.2fx)", threads,
+                        threads == 1 ? "" : "s", tiledNanos / 1000000, (double) wholeNanos / tiledNanos));
+            }
+            Log.i(TAG, report.toString());
+            MatPool.recycle(whole);
+            gray.release();
+            MatPool.clearCurrentThread();
+        }
+    }
+
+    /**
+     * CannyEngine must give exactly what Imgproc.Canny gives, for the threshold pairs the methods
+     * use, on frames small enough to run in one piece and large enough to run tiled.
+     */
+    @Test
+    public void cannyEngineMatchesImgprocCanny() {
+        int[][] sizes = {{640, 480}, {1920, 1080}, {2400, 1800}};
+        int[][] thresholds = {{5, 50}, {10, 80}, {30, 90}, {50, 150}, {60, 120}, {120, 60}};
+        long seed = 20;
+        for (int[] size : sizes) {
+            Bitmap frame = fixture(size[0], size[1], seed++);
+            Mat rgba = new Mat();
+            Utils.bitmapToMat(frame, rgba);
+            frame.recycle();
+            Mat gray = new Mat();
+            Imgproc.cvtColor(rgba, gray, Imgproc.COLOR_RGBA2GRAY);
+            rgba.release();
+            Imgproc.GaussianBlur(gray, gray, new Size(5, 5), 0);
+
+            long start = System.nanoTime();
+            Mat suppressed = CannyEngine.suppressedMagnitude(gray);
+            long engineNanos = System.nanoTime() - start;
+            long cannyNanos = 0;
+            Mat expected = new Mat();
+            for (int[] pair : thresholds) {
+                start = System.nanoTime();
+                Mat actual = CannyEngine.hysteresis(suppressed, pair[0], pair[1]);
+                engineNanos += System.nanoTime() - start;
+                start = System.nanoTime();
+                Imgproc.Canny(gray, expected, pair[0], pair[1]);
+                cannyNanos += System.nanoTime() - start;
+                assertIdentical(String.format(Locale.US, "Canny %d/%d at %dx%d", pair[0], pair[1], size[0], size[1]),
+                        expected, actual);
+                MatPool.recycle(actual);
+            }
+            Log.i(TAG, String.format(Locale.US, "Canny at %dx%d, %d threshold pairs: Imgproc.Canny %d ms, CannyEngine %d ms",
+                    size[0], size[1], thresholds.length, cannyNanos / 1000000, engineNanos / 1000000));
+            MatPool.recycle(suppressed);
+            release(gray, expected);
+        }
+        MatPool.clearCurrentThread();
+    }
+
+    /**
+     * Tiled style transfer of 1080p frames at the default long edge, one tile per interpreter
+     * call and then batched. The batched engine's one-time batch size benchmark runs in its
+     * warm-up frame and is not timed.
+     */
+    @Test
+    public void styleTransferBatching_1920x1080() throws IOException {
+        int frames = 4;
+        float[] style = new float[StyleTransferEngine.STYLE_VECTOR_LENGTH];
+        Random random = new Random(30);
+        for (int i = 0; i < style.length; i++) {
+            style[i] = (float) random.nextGaussian() * 0.5f;
+        }
+        Bitmap[] contents = new Bitmap[frames];
+        for (int i = 0; i < frames; i++) {
+            contents[i] = fixture(1920, 1080, 31 + i);
+        }
+
+        long[] nanos = new long[2];
+        Bitmap[] lastOutputs = new Bitmap[2];
+        for (int batched = 0; batched < 2; batched++) {
+            try (StyleTransferEngine engine = new StyleTransferEngine(
+                    () -> loadModel(StyleVectorCache.PREDICTION_MODEL_ASSET), loadModel("magenta_transfer.tflite"))) {
+                engine.setStyle(style);
+                if (batched == 1) {
+                    engine.enableBatching();
+                }
+                engine.stylizeTiled(contents[0], StyleTransferEngine.DEFAULT_LONG_EDGE);
+                long start = System.nanoTime();
+                Bitmap output = null;
+                for (Bitmap content : contents) {
+                    output = engine.stylizeTiled(content, StyleTransferEngine.DEFAULT_LONG_EDGE);
+                }
+                nanos[batched] = System.nanoTime() - start;
+                lastOutputs[batched] = output.copy(Bitmap.Config.ARGB_8888, false);
+            }
+        }
+
+        int maxDifference = 0;
+        int width = lastOutputs[0].getWidth();
+        int height = lastOutputs[0].getHeight();
+        int[] single = new int[width];
+        int[] batch = new int[width];
+        for (int y = 0; y < height; y++) {
+            lastOutputs[0].getPixels(single, 0, width, 0, y, width, 1);
+            lastOutputs[1].getPixels(batch, 0, width, 0, y, width, 1);
+            for (int x = 0; x < width; x++) {
+                for (int shift = 0; shift <= 16; shift += 8) {
+                    int difference = Math.abs(((single[x] >> shift) & 0xFF) - ((batch[x] >> shift) & 0xFF));
+                    maxDifference = Math.max(maxDifference, difference);
+                }
+            }
+        }
+        Log.i(TAG, String.format(Locale.US,
+                "Style transfer, %d frames of 1920x1080 at long edge %d: one tile per call %d ms/frame, batched %d ms/frame (%.2fx); max difference %d",
+                frames, StyleTransferEngine.DEFAULT_LONG_EDGE, nanos[0] / frames / 1000000, nanos[1] / frames / 1000000,
+                (double) nanos[0] / nanos[1], maxDifference));
+        // Batching changes how the interpreter lays out its work, not the model.
+        assertTrue("batched output differs by " + maxDifference, maxDifference <= 2);
+
+        for (Bitmap bitmap : contents) {
+            bitmap.recycle();
+        }
+        lastOutputs[0].recycle();
+        lastOutputs[1].recycle();
+    }
+
+    /**
+     * Method 9's adjustments, once through the ColorMatrixColorFilter canvas draw they replaced
+     * and once through the lookup tables, over a grid of slider settings on random opaque pixels.
+     * Skia's filter rounds in its own pipeline, so the results may differ by at most 2; the
+     * timing is for a 1920x1080 frame.
+     */
+    @Test
+    public void method9Adjustments_matchColorMatrix() {
+        Random random = new Random(12);
+        int size = 256;
+        int[] sourcePixels = new int[size * size];
+        for (int i = 0; i < sourcePixels.length; i++) {
+            sourcePixels[i] = 0xFF000000 | random.nextInt();
+        }
+        Bitmap source = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        source.setPixels(sourcePixels, 0, size, 0, 0, size, size);
+
+        int[] settings = {0, 5, 12, 24, 25, 26, 40, 50};
+        int[] expectedPixels = new int[sourcePixels.length];
+        int[] actualPixels = new int[sourcePixels.length];
+        int maxDifference = 0;
+        for (int brightness : settings) {
+            for (int contrast : settings) {
+                for (int saturation : settings) {
+                    int temperature = settings[random.nextInt(settings.length)];
+                    Bitmap expected = legacyAdjustments(source, brightness, contrast, saturation, temperature);
+                    expected.getPixels(expectedPixels, 0, size, 0, 0, size, size);
+                    expected.recycle();
+                    Bitmap actual = source.copy(Bitmap.Config.ARGB_8888, true);
+                    AdjustmentLut.forSettings(brightness, contrast, saturation, temperature).applyInPlace(actual);
+                    actual.getPixels(actualPixels, 0, size, 0, 0, size, size);
+                    actual.recycle();
+                    for (int i = 0; i < sourcePixels.length; i++) {
+                        assertEquals(expectedPixels[i] >>> 24, actualPixels[i] >>> 24);
+                        for (int shift = 0; shift <= 16; shift += 8) {
+                            int difference = Math.abs(((expectedPixels[i] >> shift) & 0xFF) - ((actualPixels[i] >> shift) & 0xFF));
+                            maxDifference = Math.max(maxDifference, difference);
+                        }
+                    }
+                }
+            }
+        }
+        source.recycle();
+
+        Bitmap frame = fixture(1920, 1080, 13);
+        long start = System.nanoTime();
+        legacyAdjustments(frame, 10, 40, 20, 30).recycle();
+        long matrixNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        AdjustmentLut.forSettings(10, 40, 20, 30).applyInPlace(frame);
+        long lutNanos = System.nanoTime() - start;
+        frame.recycle();
+
+        Log.i(TAG, String.format(Locale.US,
+                "Method 9 adjustments 1920x1080: ColorMatrix %d ms, lookup tables %d ms; max difference %d",
+                matrixNanos / 1000000, lutNanos / 1000000, maxDifference));
+        assertTrue("lookup tables differ from the ColorMatrix by " + maxDifference, maxDifference <= 2);
+    }
+
+    /** applyMethod9Adjustments from before the lookup tables, without recycling its input. */
+    private static Bitmap legacyAdjustments(Bitmap bitmap, int brightness, int contrast, int saturation, int temperature) {
+        float brightnessF = (brightness - 25) * 2.56f;
+        float contrastF = contrast / 25.0f;
+        if (contrastF < 1.0f) {
+            contrastF = 1.0f - (1.0f - contrastF) / 2.0f;
+        }
+        float saturationF = saturation / 25.0f;
+
+        ColorMatrix colorMatrix = new ColorMatrix();
+        colorMatrix.setSaturation(saturationF);
+        colorMatrix.postConcat(new ColorMatrix(new float[] {
+                contrastF, 0, 0, 0, brightnessF,
+                0, contrastF, 0, 0, brightnessF,
+                0, 0, contrastF, 0, brightnessF,
+                0, 0, 0, 1, 0
+        }));
+        if (temperature != 25) {
+            float redShift = (temperature - 25) * 2.5f;
+            colorMatrix.postConcat(new ColorMatrix(new float[] {
+                    1, 0, 0, 0, redShift,
+                    0, 1, 0, 0, 0,
+                    0, 0, 1, 0, -redShift,
+                    0, 0, 0, 1, 0
+            }));
+        }
+
+        Paint paint = new Paint();
+        paint.setColorFilter(new ColorMatrixColorFilter(colorMatrix));
+        Bitmap result = Bitmap.createBitmap(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+        new Canvas(result).drawBitmap(bitmap, 0, 0, paint);
+        return result;
+    }
+
+    private static ByteBuffer loadModel(String assetName) throws IOException {
+        AssetFileDescriptor descriptor = InstrumentationRegistry.getInstrumentation().getTargetContext().getAssets().openFd(assetName);
+        try (FileInputStream input = new FileInputStream(descriptor.getFileDescriptor())) {
+            return input.getChannel().map(FileChannel.MapMode.READ_ONLY, descriptor.getStartOffset(), descriptor.getDeclaredLength());
+        }
+    }
+
+    /**
+     * A frame with soft gradients and overlapping filled shapes, so segmentation, edges and blurs
+     * all have something to work on. The same seed always draws the same frame.
+     */
+    static Bitmap fixture(int width, int height, long seed) {
+        Random random = new Random(seed);
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        canvas.drawColor(Color.rgb(200, 190, 170));
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        int shapes = 40 + (int) ((long) width * height / 400000);
+        for (int i = 0; i < shapes; i++) {
+            paint.setColor(Color.rgb(random.nextInt(256), random.nextInt(256), random.nextInt(256)));
+            float x = random.nextFloat() * width;
+            float y = random.nextFloat() * height;
+            float size = (0.02f + random.nextFloat() * 0.15f) * Math.min(width, height);
+            if (random.nextBoolean()) {
+                canvas.drawCircle(x, y, size, paint);
+            } else {
+                canvas.drawRect(x - size, y - size / 2, x + size, y + size / 2, paint);
+            }
+        }
+        return bitmap;
+    }
+
+    static void assertIdentical(String what, Mat expected, Mat actual) {
+        Mat difference = new Mat();
+        Core.compare(expected, actual, difference, Core.CMP_NE);
+        assertEquals(what + " differ in some pixels", 0, Core.countNonZero(difference));
+        difference.release();
+    }
+
+    static void release(Mat... mats) {
+        for (Mat mat : mats) {
+            mat.release();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.kop.app;
+
+import android.graphics.Bitmap;
+
+/**
+ * The brightness, contrast, saturation and temperature adjustments of Method 9, compiled into
+ * lookup tables. The adjustments form one affine color transform, the same one the ColorMatrix of
+ * the slider settings describes, and every output channel splits into a term of its own input
+ * channel plus a luminance term shared by all three channels. Each term is a 256-entry table in
+ * 8-bit fixed point, so adjusting a pixel is six lookups and three adds, done in place.
+ *
+ * Tables are cached for the last settings, since a batch or a slider drag reuses them.
+ */
+public final class AdjustmentLut {
+
+    // Luminance weights of android.graphics.ColorMatrix.setSaturation.
+    private static final float LUMA_R = 0.213f;
+    private static final float LUMA_G = 0.715f;
+    private static final float LUMA_B = 0.072f;
+    private static final int FRACTION_BITS = 8;
+    private static final int ROUNDING = 1 << (FRACTION_BITS - 1);
+    // Pixels read and written per bulk transfer.
+    private static final int STRIP_PIXELS = 1 << 18;
+
+    private static AdjustmentLut cached;
+
+    private final int brightness;
+    private final int contrast;
+    private final int saturation;
+    private final int temperature;
+    private final boolean identity;
+    private final int[] red = new int[256];
+    private final int[] green = new int[256];
+    private final int[] blue = new int[256];
+    private final int[] lumaRed = new int[256];
+    private final int[] lumaGreen = new int[256];
+    private final int[] lumaBlue = new int[256];
+
+    /**
+     * @return The tables for these slider values (0-50, centered on 25).
+     */
+    public static synchronized AdjustmentLut forSettings(int brightness, int contrast, int saturation, int temperature) {
+        if (cached == null || cached.brightness != brightness || cached.contrast != contrast
+                || cached.saturation != saturation || cached.temperature != temperature) {
+            cached = new AdjustmentLut(brightness, contrast, saturation, temperature);
+        }
+        return cached;
+    }
+
+    private AdjustmentLut(int brightness, int contrast, int saturation, int temperature) {
+        this.brightness = brightness;
+        this.contrast = contrast;
+        this.saturation = saturation;
+        this.temperature = temperature;
+
+        // Brightness: -64 to 64.
+        float brightnessF = (brightness - 25) * 2.56f;
+        // Contrast: 0.5 to 2.0, decreasing more slowly below the center.
+        float contrastF = contrast / 25.0f;
+        if (contrastF < 1.0f) {
+            contrastF = 1.0f - (1.0f - contrastF) / 2.0f;
+        }
+        // Saturation: 0.0 to 2.0.
+        float saturationF = saturation / 25.0f;
+        // Temperature adds red and removes blue when warmer, and the reverse when cooler.
+        float redShift = (temperature - 25) * 2.5f;
+        float blueShift = -redShift;
+
+        identity = brightnessF == 0 && contrastF == 1 && saturationF == 1 && temperature == 25;
+
+        // out = contrast * (saturation * in + (1 - saturation) * luma) + brightness + shift
+        float channelScale = contrastF * saturationF;
+        float lumaScale = contrastF * (1 - saturationF);
+        for (int v = 0; v < 256; v++) {
+            red[v] = toFixed(channelScale * v + brightnessF + redShift);
+            green[v] = toFixed(channelScale * v + brightnessF);
+            blue[v] = toFixed(channelScale * v + brightnessF + blueShift);
+            lumaRed[v] = toFixed(lumaScale * LUMA_R * v);
+            lumaGreen[v] = toFixed(lumaScale * LUMA_G * v);
+            lumaBlue[v] = toFixed(lumaScale * LUMA_B * v);
+        }
+    }
+
+    /** True when the settings leave every pixel unchanged. */
+    public boolean isIdentity() {
+        return identity;
+    }
+
+    /**
+     * Adjusts every pixel of a mutable bitmap in place. Alpha is kept.
+     */
+    public void applyInPlace(Bitmap bitmap) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int stripRows = Math.max(1, Math.min(height, STRIP_PIXELS / Math.max(1, width)));
+        int[] strip = new int[stripRows * width];
+        for (int top = 0; top < height; top += stripRows) {
+            int rows = Math.min(stripRows, height - top);
+            bitmap.getPixels(strip, 0, width, 0, top, width, rows);
+            apply(strip, rows * width);
+            bitmap.setPixels(strip, 0, width, 0, top, width, rows);
+        }
+    }
+
+    /** Adjusts the first count ARGB pixels of the array in place. Alpha is kept. */
+    void apply(int[] pixels, int count) {
+        for (int i = 0; i < count; i++) {
+            int pixel = pixels[i];
+            int r = (pixel >> 16) & 0xFF;
+            int g = (pixel >> 8) & 0xFF;
+            int b = pixel & 0xFF;
+            int luma = lumaRed[r] + lumaGreen[g] + lumaBlue[b] + ROUNDING;
+            pixels[i] = (pixel & 0xFF000000)
+                    | (clamp((red[r] + luma) >> FRACTION_BITS) << 16)
+                    | (clamp((green[g] + luma) >> FRACTION_BITS) << 8)
+                    | clamp((blue[b] + luma) >> FRACTION_BITS);
+        }
+    }
+
+    private static int toFixed(float value) {
+        return Math.round(value * (1 << FRACTION_BITS));
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+}
@@ -0,0 +1,329 @@
+package com.kop.app;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The checkpoint of a batch, kept in its project directory so an interrupted batch can resume.
+ * A header names the input, the job (method and settings) and the frame count; it is written
+ * atomically, by writing a temporary file and renaming it. A journal then records each frame once
+ * the writer has written its output in this run and committed it, one appended and synced line
+ * per frame: its index, the signature of its raw frame and the size of its output. Outputs are
+ * synced and renamed into place before they are journaled, so an entry never vouches for data
+ * that has not reached the disk.
+ *
+ * A frame counts as complete when its journal entry matches its raw frame and its output is still
+ * that size. A project belongs to one batch: a batch with another input, job or frame count must
+ * go to a project of its own, so the outputs of the earlier batch are never mixed or lost.
+ *
+ * A video project also records how its raw frames were extracted, so a resumed project keeps
+ * them instead of extracting the video again. Raw frames are identified by name, size and
+ * modification time, so a frame written by another extraction never matches a journal entry.
+ */
+public final class BatchManifest implements AutoCloseable {
+
+    private static final String TAG = "BatchManifest";
+
+    private static final String HEADER_FILE = "batch_manifest.txt";
+    private static final String JOURNAL_FILE = "batch_journal.txt";
+    private static final String EXTRACTION_FILE = "raw_frames_extraction.txt";
+    private static final int VERSION = 2;
+    private static final String SEPARATOR = "|";
+    // ImageProcessor writes each output under this suffix and renames it into place.
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final String[] frameSignatures;
+    private final File[] outputs;
+    private final boolean[] completed;
+    private int completedCount = 0;
+    private FileOutputStream journalStream;
+    private Writer journal;
+
+    /** Identifies an input file by path, size and modification time. */
+    public static String inputSignature(File input) {
+        return input.getAbsolutePath() + SEPARATOR + input.length() + SEPARATOR + input.lastModified();
+    }
+
+    /** Identifies a raw frame by name, size and modification time; re-extraction changes the last. */
+    public static String frameSignature(File rawFrame) {
+        return rawFrame.getName() + ":" + rawFrame.length() + ":" + rawFrame.lastModified();
+    }
+
+    /**
+     * Records that the project's raw frames were extracted from this input at this rate. Call
+     * once extraction has finished, so an extraction that was cut off is never kept.
+     */
+    public static void recordExtraction(File projectDir, String inputSignature, int fps, int frameCount) {
+        writeValuesAtomically(new File(projectDir, EXTRACTION_FILE),
+                "version=" + VERSION + "\n"
+                        + "input=" + inputSignature + "\n"
+                        + String.format(Locale.US, "fps=%d\nframes=%d\n", fps, frameCount));
+    }
+
+    /** Forgets the project's extraction; call before extracting its raw frames again. */
+    public static void clearExtraction(File projectDir) {
+        new File(projectDir, EXTRACTION_FILE).delete();
+    }
+
+    /**
+     * @return The rate at which the project's raw frames were extracted from this input, or -1 if
+     * they were not, or the extraction was cut off.
+     */
+    public static int extractedFps(File projectDir, String inputSignature) {
+        Map<String, String> extraction = readValues(new File(projectDir, EXTRACTION_FILE));
+        if (extraction == null || !inputSignature.equals(extraction.get("input"))) {
+            return -1;
+        }
+        return parseInt(extraction.get("fps"), -1);
+    }
+
+    /**
+     * @return true if the project's raw frames were extracted from this input at this rate, and
+     * it still holds all of them.
+     */
+    public static boolean hasExtraction(File projectDir, String inputSignature, int fps, int frameCount) {
+        Map<String, String> extraction = readValues(new File(projectDir, EXTRACTION_FILE));
+        return extraction != null && inputSignature.equals(extraction.get("input"))
+                && parseInt(extraction.get("fps"), -1) == fps
+                && parseInt(extraction.get("frames"), -1) == frameCount && frameCount > 0;
+    }
+
+    /**
+     * Looks for the newest project directory under parentDir, named with the given prefix, whose
+     * last batch was for this input and did not finish.
+     * @return The project directory, or null if there is none.
+     */
+    public static File findUnfinishedProject(File parentDir, String namePrefix, String inputSignature) {
+        File[] candidates = parentDir.listFiles();
+        if (candidates == null) {
+            return null;
+        }
+        File newest = null;
+        for (File candidate : candidates) {
+            if (!candidate.isDirectory() || !candidate.getName().startsWith(namePrefix)) continue;
+            Map<String, String> header = readHeader(candidate);
+            if (header == null || !inputSignature.equals(header.get("input"))) continue;
+            int frames = parseInt(header.get("frames"), -1);
+            if (frames < 0 || readJournal(candidate).size() >= frames) continue;
+            // Project names end in a sortable timestamp.
+            if (newest == null || candidate.getName().compareTo(newest.getName()) > 0) {
+                newest = candidate;
+            }
+        }
+        return newest;
+    }
+
+    /**
+     * @return true if the project already holds a batch with another input, job or frame count,
+     * and so cannot take this one.
+     */
+    public static boolean holdsOtherBatch(File projectDir, String inputSignature, String jobSignature, int frameCount) {
+        Map<String, String> header = readHeader(projectDir);
+        return header != null && !(inputSignature.equals(header.get("input"))
+                && jobSignature.equals(header.get("job"))
+                && parseInt(header.get("frames"), -1) == frameCount);
+    }
+
+    /**
+     * Opens the manifest of a project for a batch, creating it in a project that has none.
+     * @param rawFrames The batch's raw frames, in order.
+     * @param outputs The output file of each frame, in the same order.
+     * @throws IllegalStateException If the project holds another batch; see holdsOtherBatch.
+     */
+    public static BatchManifest open(File projectDir, String inputSignature, String jobSignature,
+                                     List<File> rawFrames, File[] outputs) {
+        if (holdsOtherBatch(projectDir, inputSignature, jobSignature, rawFrames.size())) {
+            throw new IllegalStateException(projectDir + " holds the outputs of another batch");
+        }
+        return new BatchManifest(projectDir, inputSignature, jobSignature, rawFrames, outputs);
+    }
+
+    private BatchManifest(File projectDir, String inputSignature, String jobSignature, List<File> rawFrames, File[] outputs) {
+        int frameCount = rawFrames.size();
+        this.frameSignatures = new String[frameCount];
+        this.outputs = outputs;
+        this.completed = new boolean[frameCount];
+        for (int i = 0; i < frameCount; i++) {
+            frameSignatures[i] = frameSignature(rawFrames.get(i));
+        }
+
+        File journalFile = new File(projectDir, JOURNAL_FILE);
+        if (readHeader(projectDir) == null) {
+            writeHeader(projectDir, inputSignature, jobSignature, frameCount);
+        }
+        // Frames that are not complete are processed again and their outputs overwritten.
+        for (Map.Entry<Integer, String[]> entry : readJournal(projectDir).entrySet()) {
+            int index = entry.getKey();
+            String[] fields = entry.getValue();
+            if (index < frameCount && fields[1].equals(frameSignatures[index])
+                    && outputs[index].isFile() && outputs[index].length() == parseLong(fields[2], -1)) {
+                completed[index] = true;
+                completedCount++;
+            }
+        }
+        // A run killed between writing an output and renaming it leaves the temporary file
+        // behind; the frame is processed again, so the leftover is of no use.
+        int leftovers = 0;
+        for (int i = 0; i < frameCount; i++) {
+            if (!completed[i] && new File(outputs[i].getPath() + TEMP_SUFFIX).delete()) {
+                leftovers++;
+            }
+        }
+        if (leftovers > 0) {
+            Log.d(TAG, "Deleted " + leftovers + " partly written outputs in " + projectDir);
+        }
+
+        try {
+            journalStream = new FileOutputStream(journalFile, true);
+            journal = new BufferedWriter(new OutputStreamWriter(journalStream, "UTF-8"));
+        } catch (IOException e) {
+            Log.w(TAG, "Could not open batch journal " + journalFile + "; this batch cannot be resumed.", e);
+        }
+        Log.d(TAG, completedCount + " of " + frameCount + " frames already complete in " + projectDir);
+    }
+
+    public boolean isCompleted(int frameIndex) {
+        return completed[frameIndex];
+    }
+
+    public int getCompletedCount() {
+        return completedCount;
+    }
+
+    /**
+     * Journals a frame whose output the writer has just written, synced and committed in this
+     * run. Only the writer's commit listener may call this: a file that merely exists may be left
+     * over from an earlier run. Frames that were already complete are not journaled again.
+     */
+    public synchronized void recordCommitted(int frameIndex) {
+        if (journal == null || completed[frameIndex] || !outputs[frameIndex].isFile()) {
+            return;
+        }
+        try {
+            journal.write(frameIndex + SEPARATOR + frameSignatures[frameIndex] + SEPARATOR + outputs[frameIndex].length() + "\n");
+            // Synced per frame, so the entry survives the process being killed or the device
+            // losing power.
+            journal.flush();
+            journalStream.getFD().sync();
+        } catch (IOException e) {
+            Log.w(TAG, "Could not journal frame " + frameIndex, e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Could not close batch journal", e);
+            }
+            journal = null;
+            journalStream = null;
+        }
+    }
+
+    private static void writeHeader(File projectDir, String inputSignature, String jobSignature, int frameCount) {
+        writeValuesAtomically(new File(projectDir, HEADER_FILE),
+                "version=" + VERSION + "\n"
+                        + "input=" + inputSignature + "\n"
+                        + "job=" + jobSignature + "\n"
+                        + String.format(Locale.US, "frames=%d\n", frameCount));
+    }
+
+    private static void writeValuesAtomically(File file, String values) {
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (FileOutputStream stream = new FileOutputStream(temp);
+             Writer out = new BufferedWriter(new OutputStreamWriter(stream, "UTF-8"))) {
+            out.write(values);
+            // Synced before the rename, so a crash cannot leave a renamed but empty file.
+            out.flush();
+            stream.getFD().sync();
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write batch manifest " + file, e);
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            Log.w(TAG, "Could not store batch manifest " + file);
+            temp.delete();
+        }
+    }
+
+    /** @return The header's keys and values, or null if it is missing or of another version. */
+    private static Map<String, String> readHeader(File projectDir) {
+        return readValues(new File(projectDir, HEADER_FILE));
+    }
+
+    /** @return The file's keys and values, or null if it is missing or of another version. */
+    private static Map<String, String> readValues(File header) {
+        if (!header.isFile()) {
+            return null;
+        }
+        Map<String, String> values = new HashMap<>();
+        try (BufferedReader in = new BufferedReader(new FileReader(header))) {
+            for (String line; (line = in.readLine()) != null; ) {
+                int equals = line.indexOf('=');
+                if (equals > 0) {
+                    values.put(line.substring(0, equals), line.substring(equals + 1));
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read batch manifest " + header, e);
+            return null;
+        }
+        return parseInt(values.get("version"), -1) == VERSION ? values : null;
+    }
+
+    /**
+     * @return The journal's entries by frame index, later entries winning. A line cut off by a
+     * crash does not parse and is skipped.
+     */
+    private static Map<Integer, String[]> readJournal(File projectDir) {
+        Map<Integer, String[]> entries = new HashMap<>();
+        File journalFile = new File(projectDir, JOURNAL_FILE);
+        if (!journalFile.isFile()) {
+            return entries;
+        }
+        try (BufferedReader in = new BufferedReader(new FileReader(journalFile))) {
+            for (String line; (line = in.readLine()) != null; ) {
+                String[] fields = line.split("\\" + SEPARATOR);
+                int index = fields.length == 3 ? parseInt(fields[0], -1) : -1;
+                if (index >= 0 && parseLong(fields[2], -1) >= 0) {
+                    entries.put(index, fields);
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read batch journal " + journalFile, e);
+        }
+        return entries;
+    }
+
+    private static int parseInt(String value, int fallback) {
+        try {
+            return value == null ? fallback : Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    private static long parseLong(String value, long fallback) {
+        try {
+            return value == null ? fallback : Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+}
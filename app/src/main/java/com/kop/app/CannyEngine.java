@@ -0,0 +1,176 @@
+package com.kop.app;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Canny edge detection split into its threshold-independent and threshold-dependent halves.
+ * Sobel gradients and non-maximum suppression depend only on the input, so they are computed once
+ * and can be cached; hysteresis is then a cheap pass per threshold pair. The output matches
+ * Imgproc.Canny with apertureSize 3 and the L1 gradient norm, which ProcessingBenchmark checks.
+ * Only worth it when several threshold pairs share one suppression; otherwise use Imgproc.Canny.
+ */
+public final class CannyEngine {
+
+    // tan(22.5 degrees) in Q15, the fixed-point constant OpenCV's Canny classifies directions with.
+    private static final int TG22 = 13573;
+    // Pixels read and written per bulk transfer during hysteresis.
+    private static final int STRIP_PIXELS = 1 << 18;
+
+    private CannyEngine() {}
+
+    /**
+     * Computes the gradient magnitude of an 8-bit image and suppresses every pixel that is not a
+     * local maximum along its gradient direction.
+     * @return A pooled CV_16S Mat owned by the caller, holding the magnitude of the surviving
+     * pixels and 0 everywhere else.
+     */
+    public static Mat suppressedMagnitude(Mat gray) {
+        // Sobel reaches one pixel and suppression compares against one more.
+        return TileExecutor.map(2, CvType.CV_16S, tiles -> suppressTile(tiles[0]), gray);
+    }
+
+    /**
+     * Applies hysteresis to a suppressed magnitude map: a pixel above the low threshold is an
+     * edge if it is 8-connected, through such pixels, to one above the high threshold.
+     * @return A pooled CV_8UC1 edge map (0 or 255) owned by the caller.
+     */
+    public static Mat hysteresis(Mat suppressed, int threshold1, int threshold2) {
+        int low = Math.max(0, Math.min(threshold1, threshold2));
+        int high = Math.max(threshold1, threshold2);
+        int rows = suppressed.rows();
+        int cols = suppressed.cols();
+
+        Mat candidates = MatPool.obtain(rows, cols, CvType.CV_8UC1);
+        Core.compare(suppressed, new Scalar(low), candidates, Core.CMP_GT);
+        Mat strong = MatPool.obtain(rows, cols, CvType.CV_8UC1);
+        Core.compare(suppressed, new Scalar(high), strong, Core.CMP_GT);
+        Mat labels = MatPool.obtain(rows, cols, CvType.CV_32S);
+        int labelCount = Imgproc.connectedComponents(candidates, labels, 8, CvType.CV_32S);
+
+        // A component is kept when any of its pixels is strong. Label 0 is the background.
+        boolean[] keep = new boolean[labelCount];
+        int stripRows = Math.max(1, Math.min(rows, STRIP_PIXELS / Math.max(1, cols)));
+        int[] labelStrip = new int[stripRows * cols];
+        byte[] maskStrip = new byte[stripRows * cols];
+        for (int top = 0; top < rows; top += stripRows) {
+            int pixelCount = Math.min(stripRows, rows - top) * cols;
+            labels.get(top, 0, labelStrip);
+            strong.get(top, 0, maskStrip);
+            for (int i = 0; i < pixelCount; i++) {
+                if (maskStrip[i] != 0) {
+                    keep[labelStrip[i]] = true;
+                }
+            }
+        }
+        keep[0] = false;
+
+        Mat edges = candidates;
+        for (int top = 0; top < rows; top += stripRows) {
+            int pixelCount = Math.min(stripRows, rows - top) * cols;
+            labels.get(top, 0, labelStrip);
+            for (int i = 0; i < pixelCount; i++) {
+                maskStrip[i] = keep[labelStrip[i]] ? (byte) 255 : 0;
+            }
+            edges.put(top, 0, maskStrip);
+        }
+
+        MatPool.recycle(strong, labels);
+        return edges;
+    }
+
+    private static Mat suppressTile(Mat gray) {
+        int rows = gray.rows();
+        int cols = gray.cols();
+        Mat dx = MatPool.obtain(rows, cols, CvType.CV_16S);
+        Mat dy = MatPool.obtain(rows, cols, CvType.CV_16S);
+        Imgproc.Sobel(gray, dx, CvType.CV_16S, 1, 0, 3, 1, 0, Core.BORDER_REPLICATE);
+        Imgproc.Sobel(gray, dy, CvType.CV_16S, 0, 1, 3, 1, 0, Core.BORDER_REPLICATE);
+
+        // The magnitude lives inside a zero border, so every neighbour below is a plain view.
+        Mat padded = MatPool.obtain(rows + 2, cols + 2, CvType.CV_16S);
+        padded.setTo(new Scalar(0));
+        Mat magnitude = padded.submat(1, rows + 1, 1, cols + 1);
+        Mat absDx = MatPool.obtainLike(dx);
+        Mat absDy = MatPool.obtainLike(dy);
+        Core.absdiff(dx, new Scalar(0), absDx);
+        Core.absdiff(dy, new Scalar(0), absDy);
+        Core.add(absDx, absDy, magnitude);
+
+        // Direction classes, using OpenCV's exact integer tests:
+        // horizontal if |dy| << 15 < |dx| * TG22, vertical if it exceeds |dx| * TG22 + (|dx| << 16).
+        Mat scaledDy = MatPool.obtain(rows, cols, CvType.CV_32S);
+        Mat threshold = MatPool.obtain(rows, cols, CvType.CV_32S);
+        Mat scaledDx = MatPool.obtain(rows, cols, CvType.CV_32S);
+        absDy.convertTo(scaledDy, CvType.CV_32S, 1 << 15);
+        absDx.convertTo(threshold, CvType.CV_32S, TG22);
+        Mat horizontal = MatPool.obtain(rows, cols, CvType.CV_8UC1);
+        Core.compare(scaledDy, threshold, horizontal, Core.CMP_LT);
+        absDx.convertTo(scaledDx, CvType.CV_32S, 1 << 16);
+        Core.add(threshold, scaledDx, threshold);
+        Mat vertical = MatPool.obtain(rows, cols, CvType.CV_8UC1);
+        Core.compare(scaledDy, threshold, vertical, Core.CMP_GT);
+        MatPool.recycle(scaledDy, threshold, scaledDx, absDx, absDy);
+
+        Mat left = padded.submat(1, rows + 1, 0, cols);
+        Mat right = padded.submat(1, rows + 1, 2, cols + 2);
+        Mat up = padded.submat(0, rows, 1, cols + 1);
+        Mat down = padded.submat(2, rows + 2, 1, cols + 1);
+        Mat upLeft = padded.submat(0, rows, 0, cols);
+        Mat upRight = padded.submat(0, rows, 2, cols + 2);
+        Mat downLeft = padded.submat(2, rows + 2, 0, cols);
+        Mat downRight = padded.submat(2, rows + 2, 2, cols + 2);
+
+        Mat keep = MatPool.obtain(rows, cols, CvType.CV_8UC1);
+        Mat a = MatPool.obtain(rows, cols, CvType.CV_8UC1);
+        Mat b = MatPool.obtain(rows, cols, CvType.CV_8UC1);
+
+        // Ties are broken towards one side, as in OpenCV, so plateaus stay one pixel wide.
+        Core.compare(magnitude, left, a, Core.CMP_GT);
+        Core.compare(magnitude, right, b, Core.CMP_GE);
+        Core.bitwise_and(a, b, a);
+        Core.bitwise_and(a, horizontal, keep);
+
+        Core.compare(magnitude, up, a, Core.CMP_GT);
+        Core.compare(magnitude, down, b, Core.CMP_GE);
+        Core.bitwise_and(a, b, a);
+        Core.bitwise_and(a, vertical, a);
+        Core.bitwise_or(keep, a, keep);
+
+        // Diagonals: up-left/down-right when dx and dy share a sign, up-right/down-left otherwise.
+        Mat diagonal = horizontal;
+        Core.bitwise_or(horizontal, vertical, diagonal);
+        Core.bitwise_not(diagonal, diagonal);
+        Mat opposite = vertical;
+        Core.compare(dx, new Scalar(0), a, Core.CMP_LT);
+        Core.compare(dy, new Scalar(0), b, Core.CMP_LT);
+        Core.bitwise_xor(a, b, opposite);
+
+        Mat c = MatPool.obtain(rows, cols, CvType.CV_8UC1);
+        Core.compare(magnitude, upRight, b, Core.CMP_GT);
+        Core.compare(magnitude, downLeft, c, Core.CMP_GT);
+        Core.bitwise_and(b, c, b);
+        Core.bitwise_and(b, opposite, b);
+        Core.compare(magnitude, upLeft, a, Core.CMP_GT);
+        Core.compare(magnitude, downRight, c, Core.CMP_GT);
+        Core.bitwise_and(a, c, a);
+        Core.bitwise_not(opposite, opposite);
+        Core.bitwise_and(a, opposite, a);
+        Core.bitwise_or(a, b, a);
+        Core.bitwise_and(a, diagonal, a);
+        Core.bitwise_or(keep, a, keep);
+
+        Mat suppressed = MatPool.obtain(rows, cols, CvType.CV_16S);
+        suppressed.setTo(new Scalar(0));
+        magnitude.copyTo(suppressed, keep);
+
+        for (Mat view : new Mat[]{magnitude, left, right, up, down, upLeft, upRight, downLeft, downRight}) {
+            view.release();
+        }
+        MatPool.recycle(dx, dy, padded, horizontal, vertical, keep, a, b, c);
+        return suppressed;
+    }
+}
@@ -2,59 +2,49 @@ package com.kop.app;
 
 import android.content.Context; 
 import android.graphics.Bitmap;
-import android.graphics.Canvas;
-import android.graphics.ColorMatrix;
-import android.graphics.ColorMatrixColorFilter;
-import android.graphics.Paint;
 import android.util.Log;
 
 import com.google.mediapipe.framework.image.BitmapImageBuilder;
 import com.google.mediapipe.framework.image.ByteBufferExtractor;
 import com.google.mediapipe.framework.image.MPImage;
-import com.google.mediapipe.tasks.core.BaseOptions;
-import com.google.mediapipe.tasks.vision.core.RunningMode;
 import com.google.mediapipe.tasks.vision.imagesegmenter.ImageSegmenter;
-import com.google.mediapipe.tasks.vision.imagesegmenter.ImageSegmenter.ImageSegmenterOptions;
 import com.google.mediapipe.tasks.vision.imagesegmenter.ImageSegmenterResult;
 
 import org.opencv.android.Utils;
 import org.opencv.core.Core;
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
-import org.opencv.core.MatOfPoint;
 import org.opencv.core.Point;
+import org.opencv.core.Rect;
 import org.opencv.core.Scalar;
 import org.opencv.core.Size;
 import org.opencv.imgproc.Imgproc;
 import org.opencv.photo.Photo;
 
-import org.tensorflow.lite.DataType;
-import org.tensorflow.lite.Interpreter;
-import org.tensorflow.lite.support.common.ops.NormalizeOp;
-import org.tensorflow.lite.support.image.TensorImage;
-import org.tensorflow.lite.support.image.ops.ResizeOp;
-import org.tensorflow.lite.support.tensorbuffer.TensorBuffer;
-
 import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Locale;
 import java.util.Random;
 
 public class DeepScanProcessor {
 
     private static final String TAG = "DeepScanProcessor";
-    private static final String MODEL_FILE = "selfie_segmenter.tflite";
+    // Pixels colorized per bulk transfer in createColoredFoundation.
+    private static final int FOUNDATION_STRIP_PIXELS = 1 << 18;
+    // Border kept around a subject mask when filtering only its bounding box. Covers the reach of
+    // the denoise (search window 21, template 7), blur and Canny steps.
+    private static final int SUBJECT_ROI_MARGIN = 32;
 
     // --- Common Inner Classes for All Methods ---
 
     public static class ProcessingResult {
         public final Bitmap resultBitmap;
-        public final int objectsFound;
         // --- START OF NEW FIELD FOR TASK 1 (Toast Notification) ---
         public final String problemDetected; // e.g., "Low Detail"
         public final String fixApplied;      // e.g., "Guided Scan"
         // --- END OF NEW FIELD ---
+        private int objectsFound;
+        private ObjectCounter objectCounter;
 
 
         ProcessingResult(Bitmap bitmap, int count) {
@@ -64,6 +54,11 @@ public class DeepScanProcessor {
             this.fixApplied = "N/A";      // Default value
         }
 
+        ProcessingResult(Bitmap bitmap, ObjectCounter counter) {
+            this(bitmap, 0);
+            this.objectCounter = counter;
+        }
+
         // --- START OF NEW CONSTRUCTOR FOR TASK 1 (Toast Notification) ---
         ProcessingResult(Bitmap bitmap, int count, String problem, String fix) {
             this.resultBitmap = bitmap;
@@ -72,6 +67,29 @@ public class DeepScanProcessor {
             this.fixApplied = fix;
         }
         // --- END OF NEW CONSTRUCTOR ---
+
+        /**
+         * Counting is deferred to the first call, so batch runs that never show the count never
+         * pay for it. Counts taken from resultBitmap must be asked for before it is recycled, and
+         * counts taken from a method's own Mats only during onScanComplete.
+         */
+        public synchronized int getObjectsFound() {
+            if (objectCounter != null) {
+                objectsFound = objectCounter.count();
+                objectCounter = null;
+            }
+            return objectsFound;
+        }
+
+        /** Drops a counter that was never asked, before the Mats it reads are recycled. */
+        synchronized void discardObjectCounter() {
+            objectCounter = null;
+        }
+    }
+
+    /** Computes the object count of a ProcessingResult on demand. */
+    interface ObjectCounter {
+        int count();
     }
 
     public interface AiScanListener {
@@ -81,6 +99,30 @@ public class DeepScanProcessor {
     public interface ScanListener {
         void onScanProgress(int pass, int totalPasses, String status, Bitmap intermediateResult);
         void onScanComplete(ProcessingResult finalResult);
+
+        /**
+         * Intermediate bitmaps are only rendered for listeners that return true here. Everyone
+         * else still gets the pass/status callbacks, with a null intermediateResult. The bitmaps
+         * are display-sized and come from PreviewBitmapRing: they must not be recycled, and go back
+         * to it with PreviewBitmapRing.release once they are no longer shown.
+         */
+        default boolean wantsIntermediateResults() {
+            return true;
+        }
+    }
+
+    /**
+     * Base listener for callers that only care about the final result, such as batch processing.
+     * It opts out of intermediate results, so no progress bitmaps are ever built for it.
+     */
+    public abstract static class ResultOnlyScanListener implements ScanListener {
+        @Override
+        public void onScanProgress(int pass, int totalPasses, String status, Bitmap intermediateResult) {}
+
+        @Override
+        public boolean wantsIntermediateResults() {
+            return false;
+        }
     }
 
     public interface ScanListenerWithKsize {
@@ -93,411 +135,340 @@ public class DeepScanProcessor {
         void onFoundationReady(Bitmap foundationBitmap);
         void onLinesReady(Bitmap linesBitmap);
         void onScanComplete(ProcessingResult finalResult);
+
+        /**
+         * The colored foundation and the lines preview are display-only. Listeners that return
+         * false skip the whole watershed pass and never receive onFoundationReady or onLinesReady;
+         * the lines reach them only as the final result.
+         */
+        default boolean wantsIntermediateResults() {
+            return true;
+        }
+    }
+
+    /**
+     * How the large pencil-sketch blurs are computed. PYRAMID answers any kernel size from the
+     * frame's cached Gaussian pyramid at near-constant cost, which suits slider previews; saved
+     * and batch output keep the exact Gaussian.
+     */
+    public enum BlurBackend {
+        EXACT_GAUSSIAN,
+        PYRAMID
+    }
+
+    private static final ThreadLocal<BlurBackend> blurBackend = new ThreadLocal<BlurBackend>() {
+        @Override
+        protected BlurBackend initialValue() {
+            return BlurBackend.EXACT_GAUSSIAN;
+        }
+    };
+
+    /**
+     * Selects the blur backend for scans started on the calling thread.
+     */
+    public static void setBlurBackend(BlurBackend backend) {
+        blurBackend.set(backend == null ? BlurBackend.EXACT_GAUSSIAN : backend);
+    }
+
+    private static final ThreadLocal<Boolean> stageCaching = new ThreadLocal<Boolean>() {
+        @Override
+        protected Boolean initialValue() {
+            return false;
+        }
+    };
+
+    /**
+     * Lets scans started on the calling thread keep their intermediate stages in StageCache.
+     * Only the interactive previews opt in, since they rerun the same source as sliders move; a
+     * batch sees each frame once, so caching would only copy every stage and contend on the cache.
+     */
+    public static void setStageCaching(boolean enabled) {
+        stageCaching.set(enabled);
+    }
+
+    private static final ThreadLocal<VideoSegmentationSession> videoSegmentation = new ThreadLocal<>();
+
+    /**
+     * Routes segmentation for scans on the calling thread through a VIDEO-mode session, or back
+     * to the pooled IMAGE-mode segmenters when null.
+     */
+    public static void setVideoSegmentation(VideoSegmentationSession session) {
+        videoSegmentation.set(session);
+    }
+
+    /**
+     * Segments a frame through a VIDEO-mode session into the mask cache, ahead of its scan.
+     * Called in frame order, this keeps the session's temporal context while the scans run on
+     * other threads and find their masks cached.
+     */
+    public static void presegment(Context context, Bitmap bitmap, VideoSegmentationSession session) throws Exception {
+        VideoSegmentationSession previous = videoSegmentation.get();
+        videoSegmentation.set(session);
+        try {
+            segmentConfidenceMask(context, bitmap).release();
+        } finally {
+            videoSegmentation.set(previous);
+        }
     }
 
     // --- Method 01 (AI Composite) ---
     public static void processMethod01(Context context, Bitmap originalBitmap, AiScanListener listener) {
-        ImageSegmenter imageSegmenter = null;
         try {
-            ImageSegmenterOptions.Builder optionsBuilder =
-                ImageSegmenterOptions.builder()
-                    .setBaseOptions(BaseOptions.builder().setModelAssetPath(MODEL_FILE).build())
-                    .setRunningMode(RunningMode.IMAGE)
-                    .setOutputConfidenceMasks(true);
-            ImageSegmenterOptions options = optionsBuilder.build();
-            imageSegmenter = ImageSegmenter.createFromOptions(context, options);
-            MPImage mpImage = new BitmapImageBuilder(originalBitmap).build();
-            ImageSegmenterResult segmenterResult = imageSegmenter.segment(mpImage);
-
-            if (segmenterResult != null && segmenterResult.confidenceMasks().isPresent()) {
-                try (MPImage mask = segmenterResult.confidenceMasks().get().get(0)) {
-                    ByteBuffer byteBuffer = ByteBufferExtractor.extract(mask);
-                    FloatBuffer confidenceMaskBuffer = byteBuffer.asFloatBuffer();
-                    confidenceMaskBuffer.rewind();
-                    Mat maskMat = new Mat(mask.getHeight(), mask.getWidth(), CvType.CV_32F);
-                    float[] floatArray = new float[confidenceMaskBuffer.remaining()];
-                    confidenceMaskBuffer.get(floatArray);
-                    maskMat.put(0, 0, floatArray);
-                    Mat mask8u = new Mat();
-                    maskMat.convertTo(mask8u, CvType.CV_8U, 255.0);
-                    Mat thresholdMat = new Mat();
-                    Imgproc.threshold(mask8u, thresholdMat, 128, 255, Imgproc.THRESH_BINARY);
-
-                    Mat originalMat = new Mat();
-                    Utils.bitmapToMat(originalBitmap, originalMat);
-                    Mat resizedMask = new Mat();
-                    Imgproc.resize(thresholdMat, resizedMask, originalMat.size());
-                    Mat isolatedSubjectMat = new Mat();
-                    Core.bitwise_and(originalMat, originalMat, isolatedSubjectMat, resizedMask);
-
-                    Mat grayIsolated = new Mat();
-                    Imgproc.cvtColor(isolatedSubjectMat, grayIsolated, Imgproc.COLOR_RGBA2GRAY);
-                    Imgproc.GaussianBlur(grayIsolated, grayIsolated, new Size(3, 3), 0);
-                    Mat detailLines = new Mat();
-                    Imgproc.Canny(grayIsolated, detailLines, 50, 150);
-
-                    List<MatOfPoint> contours = new ArrayList<>();
-                    Mat hierarchy = new Mat();
-                    Mat contoursMask = resizedMask.clone();
-                    Imgproc.findContours(contoursMask, contours, hierarchy, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
-                    contoursMask.release();
-
-                    Mat personLineArt = new Mat(originalBitmap.getHeight(), originalBitmap.getWidth(), CvType.CV_8UC4, new Scalar(255, 255, 255, 255));
-                    // --- FIX: The problematic contour line has been removed. ---
-                    personLineArt.setTo(new Scalar(0, 0, 0, 255), detailLines);
-
-                    Mat finalComposite = new Mat();
-                    Utils.bitmapToMat(originalBitmap, finalComposite);
-                    if (finalComposite.channels() == 3) {
-                        Imgproc.cvtColor(finalComposite, finalComposite, Imgproc.COLOR_RGB2RGBA);
-                    }
-
-                    personLineArt.copyTo(finalComposite, resizedMask);
-
-                    Bitmap finalBitmap = Bitmap.createBitmap(finalComposite.cols(), finalComposite.rows(), Bitmap.Config.ARGB_8888);
-                    Utils.matToBitmap(finalComposite, finalBitmap);
-                    ProcessingResult result = new ProcessingResult(finalBitmap, contours.size());
-                    listener.onAiScanComplete(result);
-
-                    maskMat.release();
-                    mask8u.release();
-                    thresholdMat.release();
-                    originalMat.release();
-                    resizedMask.release();
-                    isolatedSubjectMat.release();
-                    grayIsolated.release();
-                    detailLines.release();
-                    hierarchy.release();
-                    personLineArt.release();
-                    finalComposite.release();
-                    for (MatOfPoint contour : contours) {
-                        contour.release();
-                    }
-                }
-            } else {
-                throw new Exception("MediaPipe segmentation returned a null or empty result.");
+            Mat mask8u = segmentConfidenceMask(context, originalBitmap);
+            Mat thresholdMat = new Mat();
+            Imgproc.threshold(mask8u, thresholdMat, 128, 255, Imgproc.THRESH_BINARY);
+
+            Mat originalMat = new Mat();
+            Utils.bitmapToMat(originalBitmap, originalMat);
+            Mat resizedMask = new Mat();
+            Imgproc.resize(thresholdMat, resizedMask, originalMat.size());
+            Mat detailLines = getSubjectLines(originalMat, resizedMask, getSubjectRoi(resizedMask, SUBJECT_ROI_MARGIN), false);
+
+
+            Mat personLineArt = new Mat(originalBitmap.getHeight(), originalBitmap.getWidth(), CvType.CV_8UC4, new Scalar(255, 255, 255, 255));
+            // --- FIX: The problematic contour line has been removed. ---
+            personLineArt.setTo(new Scalar(0, 0, 0, 255), detailLines);
+
+            Mat finalComposite = new Mat();
+            Utils.bitmapToMat(originalBitmap, finalComposite);
+            if (finalComposite.channels() == 3) {
+                Imgproc.cvtColor(finalComposite, finalComposite, Imgproc.COLOR_RGB2RGBA);
             }
+
+            personLineArt.copyTo(finalComposite, resizedMask);
+
+            Bitmap finalBitmap = Bitmap.createBitmap(finalComposite.cols(), finalComposite.rows(), Bitmap.Config.ARGB_8888);
+            Utils.matToBitmap(finalComposite, finalBitmap);
+            // Counted on the model-sized mask, only if asked; upscaling it adds pixels, not objects.
+            ProcessingResult result = new ProcessingResult(finalBitmap, () -> countObjects(thresholdMat));
+            listener.onAiScanComplete(result);
+            result.discardObjectCounter();
+
+            mask8u.release();
+            thresholdMat.release();
+            originalMat.release();
+            resizedMask.release();
+            detailLines.release();
+            personLineArt.release();
+            finalComposite.release();
         } catch (Exception e) {
             Log.e(TAG, "MediaPipe AI segmentation has CRITICALLY FAILED. See exception below.", e);
             listener.onAiScanComplete(new ProcessingResult(null, 0));
-        } finally {
-            if (imageSegmenter != null) {
-                imageSegmenter.close();
-            }
         }
     }
 
     // --- Method 0 (AI Smart Outline) ---
     public static void processMethod0(Context context, Bitmap originalBitmap, AiScanListener listener) {
-        ImageSegmenter imageSegmenter = null;
         try {
-            ImageSegmenterOptions.Builder optionsBuilder =
-                ImageSegmenterOptions.builder()
-                    .setBaseOptions(BaseOptions.builder().setModelAssetPath(MODEL_FILE).build())
-                    .setRunningMode(RunningMode.IMAGE)
-                    .setOutputConfidenceMasks(true);
-
-            ImageSegmenterOptions options = optionsBuilder.build();
-            imageSegmenter = ImageSegmenter.createFromOptions(context, options);
-
-            MPImage mpImage = new BitmapImageBuilder(originalBitmap).build();
-
-            ImageSegmenterResult segmenterResult = imageSegmenter.segment(mpImage);
-
-            if (segmenterResult != null && segmenterResult.confidenceMasks().isPresent()) {
-                try (MPImage mask = segmenterResult.confidenceMasks().get().get(0)) {
-
-                    ByteBuffer byteBuffer = ByteBufferExtractor.extract(mask);
-                    FloatBuffer confidenceMaskBuffer = byteBuffer.asFloatBuffer();
-                    confidenceMaskBuffer.rewind();
-                    Mat maskMat = new Mat(mask.getHeight(), mask.getWidth(), CvType.CV_32F);
-                    float[] floatArray = new float[confidenceMaskBuffer.remaining()];
-                    confidenceMaskBuffer.get(floatArray);
-                    maskMat.put(0, 0, floatArray);
-                    Mat mask8u = new Mat();
-                    maskMat.convertTo(mask8u, CvType.CV_8U, 255.0);
-                    Mat thresholdMat = new Mat();
-                    Imgproc.threshold(mask8u, thresholdMat, 128, 255, Imgproc.THRESH_BINARY);
-
-                    Mat originalMat = new Mat();
-                    Utils.bitmapToMat(originalBitmap, originalMat);
-                    Mat resizedMask = new Mat();
-                    Imgproc.resize(thresholdMat, resizedMask, originalMat.size());
-                    Mat isolatedSubjectMat = new Mat();
-                    Core.bitwise_and(originalMat, originalMat, isolatedSubjectMat, resizedMask);
-
-                    Photo.fastNlMeansDenoisingColored(isolatedSubjectMat, isolatedSubjectMat, 3, 3, 7, 21);
-
-                    Mat grayIsolated = new Mat();
-                    Imgproc.cvtColor(isolatedSubjectMat, grayIsolated, Imgproc.COLOR_RGBA2GRAY);
-                    Imgproc.GaussianBlur(grayIsolated, grayIsolated, new Size(3, 3), 0);
-                    Mat detailLines = new Mat();
-                    Imgproc.Canny(grayIsolated, detailLines, 50, 150);
-
-                    List<MatOfPoint> contours = new ArrayList<>();
-                    Mat hierarchy = new Mat();
-                    Mat contoursMask = resizedMask.clone();
-                    Imgproc.findContours(contoursMask, contours, hierarchy, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
-                    contoursMask.release();
-
-                    Mat finalDrawing = new Mat(originalBitmap.getHeight(), originalBitmap.getWidth(), CvType.CV_8UC4, new Scalar(255, 255, 255, 255));
-                    // --- FIX: The problematic contour line has been removed. ---
-                    finalDrawing.setTo(new Scalar(0, 0, 0, 255), detailLines);
-
-                    Bitmap finalBitmap = Bitmap.createBitmap(finalDrawing.cols(), finalDrawing.rows(), Bitmap.Config.ARGB_8888);
-                    Utils.matToBitmap(finalDrawing, finalBitmap);
-
-                    ProcessingResult result = new ProcessingResult(finalBitmap, contours.size());
-                    listener.onAiScanComplete(result);
-
-                    maskMat.release();
-                    mask8u.release();
-                    thresholdMat.release();
-                    hierarchy.release();
-                    finalDrawing.release();
-                    originalMat.release();
-                    resizedMask.release();
-                    isolatedSubjectMat.release();
-                    grayIsolated.release();
-                    detailLines.release();
-                    for (MatOfPoint contour : contours) {
-                        contour.release();
-                    }
-                }
-            } else {
-                throw new Exception("MediaPipe segmentation returned a null or empty result.");
-            }
+            Mat mask8u = segmentConfidenceMask(context, originalBitmap);
+            Mat thresholdMat = new Mat();
+            Imgproc.threshold(mask8u, thresholdMat, 128, 255, Imgproc.THRESH_BINARY);
+
+            Mat originalMat = new Mat();
+            Utils.bitmapToMat(originalBitmap, originalMat);
+            Mat resizedMask = new Mat();
+            Imgproc.resize(thresholdMat, resizedMask, originalMat.size());
+            Mat detailLines = getSubjectLines(originalMat, resizedMask, getSubjectRoi(resizedMask, SUBJECT_ROI_MARGIN), true);
+
+
+            Mat finalDrawing = new Mat(originalBitmap.getHeight(), originalBitmap.getWidth(), CvType.CV_8UC4, new Scalar(255, 255, 255, 255));
+            // --- FIX: The problematic contour line has been removed. ---
+            finalDrawing.setTo(new Scalar(0, 0, 0, 255), detailLines);
+
+            Bitmap finalBitmap = Bitmap.createBitmap(finalDrawing.cols(), finalDrawing.rows(), Bitmap.Config.ARGB_8888);
+            Utils.matToBitmap(finalDrawing, finalBitmap);
+
+            // Counted on the model-sized mask, only if asked; upscaling it adds pixels, not objects.
+            ProcessingResult result = new ProcessingResult(finalBitmap, () -> countObjects(thresholdMat));
+            listener.onAiScanComplete(result);
+            result.discardObjectCounter();
+
+            mask8u.release();
+            thresholdMat.release();
+            finalDrawing.release();
+            originalMat.release();
+            resizedMask.release();
+            detailLines.release();
         } catch (Exception e) {
             Log.e(TAG, "MediaPipe AI segmentation has CRITICALLY FAILED. See exception below.", e);
             ProcessingResult failureResult = new ProcessingResult(null, 0);
             listener.onAiScanComplete(failureResult);
-        } finally {
-            if (imageSegmenter != null) {
-                imageSegmenter.close();
-            }
         }
     }
 
     // --- Method 1 (Live Analysis) ---
     public static void processMethod1(Bitmap originalBitmap, LiveScanListener listener) {
-        Mat originalMat = new Mat();
-        Utils.bitmapToMat(originalBitmap, originalMat);
-        Mat grayMat = new Mat();
-        Imgproc.cvtColor(originalMat, grayMat, Imgproc.COLOR_RGBA2GRAY);
+        FrameStages stages = new FrameStages(originalBitmap);
 
         listener.onScanProgress(1, 3, "Pass 1/3: Finding Object Foundations...");
-        try { Thread.sleep(4000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
-        Mat bgrMat = new Mat();
-        Imgproc.cvtColor(originalMat, bgrMat, Imgproc.COLOR_RGBA2BGR);
-        Mat cannyForSeeds = getCannyEdges(grayMat, 10, 80);
-        Mat markers = getWatershedMarkers(cannyForSeeds, bgrMat);
-        Bitmap foundationBitmap = createColoredFoundation(markers, originalMat.size());
-        listener.onFoundationReady(foundationBitmap);
+        if (listener.wantsIntermediateResults()) {
+            Mat originalMat = obtainRgbaMat(originalBitmap);
+            Mat bgrMat = MatPool.obtain(originalMat.rows(), originalMat.cols(), CvType.CV_8UC3);
+            Imgproc.cvtColor(originalMat, bgrMat, Imgproc.COLOR_RGBA2BGR);
+            Mat cannyForSeeds = stages.cannyOfGray(10, 80);
+            Mat markers = getWatershedMarkers(cannyForSeeds, bgrMat);
+            Bitmap foundationBitmap = createColoredFoundation(markers, originalMat.size());
+            listener.onFoundationReady(foundationBitmap);
+            MatPool.recycle(originalMat, bgrMat, cannyForSeeds, markers);
+        }
 
         listener.onScanProgress(2, 3, "Pass 2/3: Tracing Final Lines...");
-        try { Thread.sleep(4000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
-        Mat finalLines = getMethod8Lines(grayMat);
-        Bitmap linesBitmap = createBitmapFromMask(finalLines, originalMat.size());
-        listener.onLinesReady(linesBitmap);
+        Mat finalLines = getMethod8Lines(stages);
+        Bitmap linesBitmap = createBitmapFromMask(finalLines, stages.size());
+        if (listener.wantsIntermediateResults()) {
+            listener.onLinesReady(linesBitmap);
+        }
 
         listener.onScanProgress(3, 3, "Pass 3/3: Finalizing Artwork...");
-        try { Thread.sleep(2000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
-        int objectCount = countContours(finalLines);
-        ProcessingResult result = new ProcessingResult(linesBitmap, objectCount);
+        ProcessingResult result = new ProcessingResult(linesBitmap, () -> countObjectsInLineArt(linesBitmap));
         listener.onScanComplete(result);
 
-        originalMat.release();
-        grayMat.release();
-        bgrMat.release();
-        cannyForSeeds.release();
-        markers.release();
-        finalLines.release();
+        MatPool.recycle(finalLines);
     }
 
     // --- FIX START: The original 5-pass analyzer methods are RESTORED here ---
 
     public static void processMethod4(Bitmap originalBitmap, ScanListener listener) {
-        Mat originalMat = new Mat();
-        Utils.bitmapToMat(originalBitmap, originalMat);
-        Mat grayMat = new Mat();
-        Imgproc.cvtColor(originalMat, grayMat, Imgproc.COLOR_RGBA2GRAY);
+        FrameStages stages = new FrameStages(originalBitmap);
+        Mat originalMat = obtainRgbaMat(originalBitmap);
 
-        listener.onScanProgress(1, 4, "Pass 1/4: Segmenting Objects...", createBitmapFromMask(new Mat(), originalMat.size()));
-        try { Thread.sleep(2500); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
-        Mat bgrMat = new Mat();
+        reportProgress(listener, 1, 4, "Pass 1/4: Segmenting Objects...", null, originalMat.size());
+        Mat bgrMat = MatPool.obtain(originalMat.rows(), originalMat.cols(), CvType.CV_8UC3);
         Imgproc.cvtColor(originalMat, bgrMat, Imgproc.COLOR_RGBA2BGR);
-        Mat cannyForSeeds = getCannyEdges(grayMat, 10, 80);
+        Mat cannyForSeeds = stages.cannyOfGray(10, 80);
         Mat markers = getWatershedMarkers(cannyForSeeds, bgrMat);
 
-        Mat boundaries = new Mat(markers.size(), CvType.CV_8U, new Scalar(0));
-        for (int r = 0; r < markers.rows(); r++) {
-            for (int c = 0; c < markers.cols(); c++) {
-                if (markers.get(r, c)[0] == -1) {
-                    boundaries.put(r, c, 255);
-                }
-            }
-        }
-        listener.onScanProgress(2, 4, "Pass 2/4: Extracting Boundaries...", createBitmapFromMask(boundaries, originalMat.size()));
-        try { Thread.sleep(2500); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        // Watershed marks region boundaries with -1; one compare turns them into a 0/255 mask.
+        Mat boundaries = MatPool.obtain(markers.rows(), markers.cols(), CvType.CV_8U);
+        Core.compare(markers, new Scalar(-1), boundaries, Core.CMP_EQ);
+        reportProgress(listener, 2, 4, "Pass 2/4: Extracting Boundaries...", boundaries, originalMat.size());
 
-        Mat detailLines = getCannyEdges(grayMat, 30, 90);
-        listener.onScanProgress(3, 4, "Pass 3/4: Finding Internal Details...", createBitmapFromMask(boundaries, originalMat.size()));
-        try { Thread.sleep(2500); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        Mat detailLines = stages.cannyOfGray(30, 90);
+        reportProgress(listener, 3, 4, "Pass 3/4: Finding Internal Details...", boundaries, originalMat.size());
 
         Core.bitwise_or(boundaries, detailLines, boundaries);
-        listener.onScanProgress(4, 4, "Pass 4/4: Combining Lines...", createBitmapFromMask(boundaries, originalMat.size()));
-        try { Thread.sleep(2500); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        reportProgress(listener, 4, 4, "Pass 4/4: Combining Lines...", boundaries, originalMat.size());
 
         Mat finalLines = finalizeLines(boundaries);
         finalizeAndComplete(finalLines, listener);
-        originalMat.release(); grayMat.release(); bgrMat.release(); cannyForSeeds.release(); markers.release(); boundaries.release(); detailLines.release();
+        MatPool.recycle(originalMat, bgrMat, cannyForSeeds, markers, boundaries, detailLines);
     }
 
     public static void processMethod5(Bitmap originalBitmap, ScanListener listener) {
-        Mat originalMat = new Mat();
-        Utils.bitmapToMat(originalBitmap, originalMat);
-        Mat grayMat = new Mat();
-        Imgproc.cvtColor(originalMat, grayMat, Imgproc.COLOR_RGBA2GRAY);
-
-        listener.onScanProgress(1, 4, "Pass 1/4: Creating Soft Shading...", createBitmapFromMask(new Mat(), originalMat.size()));
-        try { Thread.sleep(2500); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
-        Mat inverted = new Mat();
-        Core.bitwise_not(grayMat, inverted);
-        Mat blurred = new Mat();
-        Imgproc.GaussianBlur(inverted, blurred, new Size(21, 21), 0);
-        Mat sketch = colorDodge(grayMat, blurred);
+        FrameStages stages = new FrameStages(originalBitmap);
+        Mat grayMat = stages.gray();
+        Size size = stages.size();
 
-        listener.onScanProgress(2, 4, "Pass 2/4: Finding Sharp Edges...", createBitmapFromMask(sketch, originalMat.size()));
-        try { Thread.sleep(2500); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
-        Mat sharpLines = getMethod8Lines(grayMat);
+        reportProgress(listener, 1, 4, "Pass 1/4: Creating Soft Shading...", null, size);
+        Mat blurred = stages.invertedGaussian(21);
+        Mat sketch = colorDodge(grayMat, blurred);
 
-        int objectCount = countContours(sharpLines.clone());
+        reportProgress(listener, 2, 4, "Pass 2/4: Finding Sharp Edges...", sketch, size);
+        Mat sharpLines = getMethod8Lines(stages);
 
-        listener.onScanProgress(3, 4, "Pass 3/4: Combining Shading & Lines...", createBitmapFromMask(sketch, originalMat.size()));
-        try { Thread.sleep(2500); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
-        Mat invertedLines = new Mat();
+        reportProgress(listener, 3, 4, "Pass 3/4: Combining Shading & Lines...", sketch, size);
+        Mat invertedLines = MatPool.obtainLike(sharpLines);
         Core.bitwise_not(sharpLines, invertedLines);
         Core.bitwise_and(sketch, sketch, sketch, invertedLines);
 
-        listener.onScanProgress(4, 4, "Pass 4/4: Finalizing Artwork...", createBitmapFromMask(sketch, originalMat.size()));
-        try { Thread.sleep(2500); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        reportProgress(listener, 4, 4, "Pass 4/4: Finalizing Artwork...", sketch, size);
 
-        Mat finalSketch = new Mat();
+        Mat finalSketch = MatPool.obtain(sketch.rows(), sketch.cols(), CvType.CV_8UC4);
         Imgproc.cvtColor(sketch, finalSketch, Imgproc.COLOR_GRAY2BGRA);
 
         Bitmap finalBitmap = Bitmap.createBitmap(finalSketch.cols(), finalSketch.rows(), Bitmap.Config.ARGB_8888);
         Utils.matToBitmap(finalSketch, finalBitmap);
 
-        ProcessingResult finalResult = new ProcessingResult(finalBitmap, objectCount);
+        // The lines are not part of the result bitmap, so they are counted directly, and only
+        // while the listener handles the result; they are recycled right after.
+        ProcessingResult finalResult = new ProcessingResult(finalBitmap, () -> countObjects(sharpLines));
         listener.onScanComplete(finalResult);
+        finalResult.discardObjectCounter();
 
-        originalMat.release(); grayMat.release(); inverted.release(); blurred.release(); sketch.release(); sharpLines.release(); invertedLines.release(); finalSketch.release();
+        MatPool.recycle(grayMat, blurred, sketch, sharpLines, invertedLines, finalSketch);
     }
 
     public static void processMethod6(Bitmap originalBitmap, ScanListener listener) {
-        Mat originalMat = new Mat();
-        Utils.bitmapToMat(originalBitmap, originalMat);
-        Mat grayMat = new Mat();
-        Imgproc.cvtColor(originalMat, grayMat, Imgproc.COLOR_RGBA2GRAY);
-        listener.onScanProgress(1, 5, "Pass 1/5: Simplifying Structure...", createBitmapFromMask(new Mat(originalMat.size(), CvType.CV_8UC1, new Scalar(0)), originalMat.size()));
-        try { Thread.sleep(2000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
-        Mat simplifiedMat = getSimplifiedImage(grayMat);
-        Mat structuralLines = getCannyEdges(simplifiedMat, 5, 50);
-        listener.onScanProgress(2, 5, "Pass 2/5: Finding Structural Lines...", createBitmapFromMask(structuralLines, originalMat.size()));
-        try { Thread.sleep(2000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
-        Mat detailLines = getCannyEdges(grayMat, 60, 120);
-        listener.onScanProgress(3, 5, "Pass 3/5: Finding Fine Details...", createBitmapFromMask(structuralLines, originalMat.size()));
-        try { Thread.sleep(2000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
-        Mat maskedDetails = new Mat();
-        Mat structureMask = new Mat();
-        Imgproc.dilate(structuralLines, structureMask, Imgproc.getStructuringElement(Imgproc.MORPH_RECT, new Size(10, 10)));
+        FrameStages stages = new FrameStages(originalBitmap);
+        Size size = stages.size();
+        reportProgress(listener, 1, 5, "Pass 1/5: Simplifying Structure...", null, size);
+        Mat structuralLines = stages.cannyOfSimplified(5, 50);
+        reportProgress(listener, 2, 5, "Pass 2/5: Finding Structural Lines...", structuralLines, size);
+        Mat detailLines = stages.cannyOfGray(60, 120);
+        reportProgress(listener, 3, 5, "Pass 3/5: Finding Fine Details...", structuralLines, size);
+        Mat maskedDetails = MatPool.obtainLike(detailLines);
+        maskedDetails.setTo(new Scalar(0));
+        Mat structureMask = MatPool.obtainLike(structuralLines);
+        Imgproc.dilate(structuralLines, structureMask, MatPool.rectKernel(10, 10));
         detailLines.copyTo(maskedDetails, structureMask);
         Core.bitwise_or(structuralLines, maskedDetails, structuralLines);
-        listener.onScanProgress(4, 5, "Pass 4/5: Combining Lines...", createBitmapFromMask(structuralLines, originalMat.size()));
-        try { Thread.sleep(2000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        reportProgress(listener, 4, 5, "Pass 4/5: Combining Lines...", structuralLines, size);
         Mat finalLines = finalizeLines(structuralLines);
-        listener.onScanProgress(5, 5, "Pass 5/5: Finalizing Artwork...", createBitmapFromMask(finalLines, originalMat.size()));
-        try { Thread.sleep(2000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        reportProgress(listener, 5, 5, "Pass 5/5: Finalizing Artwork...", finalLines, size);
         finalizeAndComplete(finalLines, listener);
-        originalMat.release(); grayMat.release(); simplifiedMat.release(); structuralLines.release(); detailLines.release(); maskedDetails.release(); structureMask.release();
+        MatPool.recycle(structuralLines, detailLines, maskedDetails, structureMask);
     }
 
     public static void processMethod7(Bitmap originalBitmap, ScanListener listener) {
-        Mat originalMat = new Mat();
-        Utils.bitmapToMat(originalBitmap, originalMat);
-        Mat grayMat = new Mat();
-        Imgproc.cvtColor(originalMat, grayMat, Imgproc.COLOR_RGBA2GRAY);
-        listener.onScanProgress(1, 5, "Pass 1/5: Abstracting Image...", createBitmapFromMask(new Mat(originalMat.size(), CvType.CV_8UC1, new Scalar(0)), originalMat.size()));
-        try { Thread.sleep(2000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
-        Mat simplifiedMat = getSimplifiedImage(grayMat);
-        listener.onScanProgress(2, 5, "Pass 2/5: Finding Major Edges...", createBitmapFromMask(new Mat(originalMat.size(), CvType.CV_8UC1, new Scalar(0)), originalMat.size()));
-        try { Thread.sleep(2000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
-        Mat majorEdges = getCannyEdges(simplifiedMat, 5, 50);
-        listener.onScanProgress(3, 5, "Pass 3/5: Finding Detail Edges...", createBitmapFromMask(majorEdges, originalMat.size()));
-        try { Thread.sleep(2000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
-        Mat detailEdges = getCannyEdges(simplifiedMat, 60, 120);
+        FrameStages stages = new FrameStages(originalBitmap);
+        Size size = stages.size();
+        reportProgress(listener, 1, 5, "Pass 1/5: Abstracting Image...", null, size);
+        reportProgress(listener, 2, 5, "Pass 2/5: Finding Major Edges...", null, size);
+        Mat majorEdges = stages.cannyOfSimplified(5, 50);
+        reportProgress(listener, 3, 5, "Pass 3/5: Finding Detail Edges...", majorEdges, size);
+        Mat detailEdges = stages.cannyOfSimplified(60, 120);
         Core.bitwise_or(majorEdges, detailEdges, majorEdges);
-        listener.onScanProgress(4, 5, "Pass 4/5: Combining Edges...", createBitmapFromMask(majorEdges, originalMat.size()));
-        try { Thread.sleep(2000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        reportProgress(listener, 4, 5, "Pass 4/5: Combining Edges...", majorEdges, size);
         Mat finalLines = finalizeLines(majorEdges);
-        listener.onScanProgress(5, 5, "Pass 5/5: Finalizing Artwork...", createBitmapFromMask(finalLines, originalMat.size()));
-        try { Thread.sleep(2000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        reportProgress(listener, 5, 5, "Pass 5/5: Finalizing Artwork...", finalLines, size);
         finalizeAndComplete(finalLines, listener);
-        originalMat.release(); grayMat.release(); simplifiedMat.release(); majorEdges.release(); detailEdges.release();
+        MatPool.recycle(majorEdges, detailEdges);
     }
 
     public static void processMethod8(Bitmap originalBitmap, ScanListener listener) {
-        Mat originalMat = new Mat();
-        Utils.bitmapToMat(originalBitmap, originalMat);
-        Mat grayMat = new Mat();
-        Imgproc.cvtColor(originalMat, grayMat, Imgproc.COLOR_RGBA2GRAY);
-        listener.onScanProgress(1, 5, "Pass 1/5: Smoothing Surfaces...", createBitmapFromMask(new Mat(originalMat.size(), CvType.CV_8UC1, new Scalar(0)), originalMat.size()));
-        try { Thread.sleep(2000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
-        Mat blurredMat = new Mat();
-        Imgproc.GaussianBlur(grayMat, blurredMat, new Size(5, 5), 0);
-        listener.onScanProgress(2, 5, "Pass 2/5: Finding Major Edges...", createBitmapFromMask(new Mat(originalMat.size(), CvType.CV_8UC1, new Scalar(0)), originalMat.size()));
-        try { Thread.sleep(2000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
-        Mat majorEdges = getCannyEdges(blurredMat, 5, 50);
-        listener.onScanProgress(3, 5, "Pass 3/5: Finding Detail Edges...", createBitmapFromMask(majorEdges, originalMat.size()));
-        try { Thread.sleep(2000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
-        Mat detailEdges = getCannyEdges(blurredMat, 60, 120);
+        FrameStages stages = new FrameStages(originalBitmap);
+        Size size = stages.size();
+        reportProgress(listener, 1, 5, "Pass 1/5: Smoothing Surfaces...", null, size);
+        reportProgress(listener, 2, 5, "Pass 2/5: Finding Major Edges...", null, size);
+        Mat majorEdges = stages.cannyOfGaussian(5, 5, 50);
+        reportProgress(listener, 3, 5, "Pass 3/5: Finding Detail Edges...", majorEdges, size);
+        Mat detailEdges = stages.cannyOfGaussian(5, 60, 120);
         Core.bitwise_or(majorEdges, detailEdges, majorEdges);
-        listener.onScanProgress(4, 5, "Pass 4/5: Combining Edges...", createBitmapFromMask(majorEdges, originalMat.size()));
-        try { Thread.sleep(2000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        reportProgress(listener, 4, 5, "Pass 4/5: Combining Edges...", majorEdges, size);
         Mat finalLines = finalizeLines(majorEdges);
-        listener.onScanProgress(5, 5, "Pass 5/5: Finalizing Artwork...", createBitmapFromMask(finalLines, originalMat.size()));
-        try { Thread.sleep(2000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        reportProgress(listener, 5, 5, "Pass 5/5: Finalizing Artwork...", finalLines, size);
         finalizeAndComplete(finalLines, listener);
-        originalMat.release(); grayMat.release(); blurredMat.release(); majorEdges.release(); detailEdges.release();
+        MatPool.recycle(majorEdges, detailEdges);
     }
 
     public static void processMethod9(Bitmap originalBitmap, ScanListener listener) {
-        Mat originalMat = new Mat();
-        Utils.bitmapToMat(originalBitmap, originalMat);
-        Mat grayMat = new Mat();
-        Imgproc.cvtColor(originalMat, grayMat, Imgproc.COLOR_RGBA2GRAY);
-        listener.onScanProgress(1, 5, "Pass 1/5: Simplifying Surfaces...", createBitmapFromMask(new Mat(originalMat.size(), CvType.CV_8UC1, new Scalar(0)), originalMat.size()));
-        try { Thread.sleep(2000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
-        Mat simplifiedMat = new Mat();
-        Imgproc.bilateralFilter(grayMat, simplifiedMat, 15, 80, 80);
-        Mat accumulatedLines = new Mat(originalMat.size(), CvType.CV_8UC1, new Scalar(0));
-        listener.onScanProgress(2, 5, "Pass 2/5: Tracing Large Shapes...", createBitmapFromMask(accumulatedLines, originalMat.size()));
-        try { Thread.sleep(2000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
-        Mat largeShapes = new Mat();
-        Imgproc.adaptiveThreshold(simplifiedMat, largeShapes, 255, Imgproc.ADAPTIVE_THRESH_MEAN_C, Imgproc.THRESH_BINARY_INV, 25, 2);
+        processMethod9(originalBitmap, 1f, listener);
+    }
+
+    /**
+     * Method 9 with its filter sizes scaled by kernelScale, so a downscaled preview proxy
+     * produces the same look as the full-resolution frame.
+     */
+    public static void processMethod9(Bitmap originalBitmap, float kernelScale, ScanListener listener) {
+        int bilateralD = scaleKernel(15, kernelScale);
+        int largeBlockSize = scaleBlockSize(25, kernelScale);
+        int detailBlockSize = scaleBlockSize(11, kernelScale);
+        FrameStages stages = new FrameStages(originalBitmap);
+        Size size = stages.size();
+        reportProgress(listener, 1, 5, "Pass 1/5: Simplifying Surfaces...", null, size);
+        Mat accumulatedLines = MatPool.obtain(size, CvType.CV_8UC1);
+        accumulatedLines.setTo(new Scalar(0));
+        reportProgress(listener, 2, 5, "Pass 2/5: Tracing Large Shapes...", accumulatedLines, size);
+        Mat largeShapes = stages.adaptiveThresholdOfBilateral(bilateralD, largeBlockSize);
         Core.bitwise_or(accumulatedLines, largeShapes, accumulatedLines);
-        listener.onScanProgress(3, 5, "Pass 3/5: Tracing Fine Details...", createBitmapFromMask(accumulatedLines, originalMat.size()));
-        try { Thread.sleep(2000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
-        Mat detailShapes = new Mat();
-        Imgproc.adaptiveThreshold(simplifiedMat, detailShapes, 255, Imgproc.ADAPTIVE_THRESH_MEAN_C, Imgproc.THRESH_BINARY_INV, 11, 2);
+        reportProgress(listener, 3, 5, "Pass 3/5: Tracing Fine Details...", accumulatedLines, size);
+        Mat detailShapes = stages.adaptiveThresholdOfBilateral(bilateralD, detailBlockSize);
         Core.bitwise_or(accumulatedLines, detailShapes, accumulatedLines);
         Mat finalLines = finalizeLines(accumulatedLines);
-        listener.onScanProgress(4, 5, "Pass 4/5: Cleaning Lines...", createBitmapFromMask(finalLines, originalMat.size()));
-        try { Thread.sleep(2000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
-        listener.onScanProgress(5, 5, "Pass 5/5: Finalizing Artwork...", createBitmapFromMask(finalLines, originalMat.size()));
-        try { Thread.sleep(2000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        reportProgress(listener, 4, 5, "Pass 4/5: Cleaning Lines...", finalLines, size);
+        reportProgress(listener, 5, 5, "Pass 5/5: Finalizing Artwork...", finalLines, size);
         finalizeAndComplete(finalLines, listener);
-        originalMat.release(); grayMat.release(); simplifiedMat.release(); accumulatedLines.release(); largeShapes.release(); detailShapes.release();
+        MatPool.recycle(accumulatedLines, largeShapes, detailShapes);
     }
 
     public static void processMethod10(Bitmap originalBitmap, ScanListener listener) {
@@ -507,200 +478,102 @@ public class DeepScanProcessor {
     // --- FIX END ---
 
     public static void processMethod11(Bitmap originalBitmap, int ksize, ScanListenerWithKsize listener) {
-        Mat originalMat = new Mat();
-        Utils.bitmapToMat(originalBitmap, originalMat);
-        Mat grayMat = new Mat();
-        Imgproc.cvtColor(originalMat, grayMat, Imgproc.COLOR_RGBA2GRAY);
-
-        Mat invertedGray = new Mat();
-        Core.bitwise_not(grayMat, invertedGray);
-
-        int kernelSize = (ksize * 2) + 1;
-        Mat blurred = new Mat();
-        Imgproc.GaussianBlur(invertedGray, blurred, new Size(kernelSize, kernelSize), 0);
-
-        Mat invertedBlurred = new Mat();
-        Core.bitwise_not(blurred, invertedBlurred);
-
-        Mat pencilSketch = new Mat();
-        Core.divide(grayMat, invertedBlurred, pencilSketch, 256.0);
+        FrameStages stages = new FrameStages(originalBitmap);
+        Mat pencilSketch = createAdvancedPencilSketchMat(stages, ksize);
 
         Bitmap finalBitmap = Bitmap.createBitmap(pencilSketch.cols(), pencilSketch.rows(), Bitmap.Config.ARGB_8888);
-        Mat finalRgba = new Mat();
+        Mat finalRgba = MatPool.obtain(pencilSketch.rows(), pencilSketch.cols(), CvType.CV_8UC4);
         Imgproc.cvtColor(pencilSketch, finalRgba, Imgproc.COLOR_GRAY2RGBA);
         Utils.matToBitmap(finalRgba, finalBitmap);
 
         ProcessingResult result = new ProcessingResult(finalBitmap, 1);
         listener.onScanComplete(result);
 
-        originalMat.release();
-        grayMat.release();
-        invertedGray.release();
-        blurred.release();
-        invertedBlurred.release();
-        pencilSketch.release();
-        finalRgba.release();
+        MatPool.recycle(pencilSketch, finalRgba);
     }
 
     public static void processMethod12(Context context, Bitmap originalBitmap, int ksize, AiScanListener listener) {
-        ImageSegmenter imageSegmenter = null;
         try {
-            ImageSegmenterOptions.Builder optionsBuilder =
-                ImageSegmenterOptions.builder()
-                    .setBaseOptions(BaseOptions.builder().setModelAssetPath(MODEL_FILE).build())
-                    .setRunningMode(RunningMode.IMAGE)
-                    .setOutputConfidenceMasks(true);
-            ImageSegmenterOptions options = optionsBuilder.build();
-            imageSegmenter = ImageSegmenter.createFromOptions(context, options);
-            MPImage mpImage = new BitmapImageBuilder(originalBitmap).build();
-            ImageSegmenterResult segmenterResult = imageSegmenter.segment(mpImage);
-
-            if (segmenterResult != null && segmenterResult.confidenceMasks().isPresent()) {
-                try (MPImage mask = segmenterResult.confidenceMasks().get().get(0)) {
-                    ByteBuffer byteBuffer = ByteBufferExtractor.extract(mask);
-                    FloatBuffer confidenceMaskBuffer = byteBuffer.asFloatBuffer();
-                    confidenceMaskBuffer.rewind();
-                    Mat maskMat = new Mat(mask.getHeight(), mask.getWidth(), CvType.CV_32F);
-                    float[] floatArray = new float[confidenceMaskBuffer.remaining()];
-                    confidenceMaskBuffer.get(floatArray);
-                    maskMat.put(0, 0, floatArray);
-                    Mat mask8u = new Mat();
-                    maskMat.convertTo(mask8u, CvType.CV_8U, 255.0);
-                    Mat personMask = new Mat();
-                    Imgproc.threshold(mask8u, personMask, 128, 255, Imgproc.THRESH_BINARY);
-
-                    Mat originalMat = new Mat();
-                    Utils.bitmapToMat(originalBitmap, originalMat);
-                    if (originalMat.channels() == 3) {
-                        Imgproc.cvtColor(originalMat, originalMat, Imgproc.COLOR_RGB2RGBA);
-                    }
-                    Mat grayMat = new Mat();
-                    Imgproc.cvtColor(originalMat, grayMat, Imgproc.COLOR_RGBA2GRAY);
-
-                    Mat pencilSketchMat = createAdvancedPencilSketchMat(grayMat, ksize);
-                    Mat pencilSketchRgba = new Mat();
-                    Imgproc.cvtColor(pencilSketchMat, pencilSketchRgba, Imgproc.COLOR_GRAY2RGBA);
-
-                    Mat resizedMask = new Mat();
-                    Imgproc.resize(personMask, resizedMask, originalMat.size());
-
-                    pencilSketchRgba.copyTo(originalMat, resizedMask);
-
-                    Bitmap finalBitmap = Bitmap.createBitmap(originalMat.cols(), originalMat.rows(), Bitmap.Config.ARGB_8888);
-                    Utils.matToBitmap(originalMat, finalBitmap);
-                    ProcessingResult result = new ProcessingResult(finalBitmap, 1);
-                    listener.onAiScanComplete(result);
-
-                    maskMat.release();
-                    mask8u.release();
-                    personMask.release();
-                    originalMat.release();
-                    grayMat.release();
-                    pencilSketchMat.release();
-                    pencilSketchRgba.release();
-                    resizedMask.release();
-                }
-            } else {
-                throw new Exception("MediaPipe segmentation returned a null or empty result.");
+            Mat mask8u = segmentConfidenceMask(context, originalBitmap);
+            Mat personMask = new Mat();
+            Imgproc.threshold(mask8u, personMask, 128, 255, Imgproc.THRESH_BINARY);
+
+            Mat originalMat = new Mat();
+            Utils.bitmapToMat(originalBitmap, originalMat);
+            if (originalMat.channels() == 3) {
+                Imgproc.cvtColor(originalMat, originalMat, Imgproc.COLOR_RGB2RGBA);
+            }
+            Mat resizedMask = new Mat();
+            Imgproc.resize(personMask, resizedMask, originalMat.size());
+
+            // Only the subject is replaced, so the sketch is computed for its bounding box alone.
+            Rect roi = getSubjectRoi(resizedMask, pencilSketchMargin(ksize));
+            if (roi != null) {
+                Mat pencilSketchMat = createAdvancedPencilSketchMat(new FrameStages(originalBitmap), ksize, roi);
+                Mat pencilSketchRgba = new Mat();
+                Imgproc.cvtColor(pencilSketchMat, pencilSketchRgba, Imgproc.COLOR_GRAY2RGBA);
+                copyToRoi(pencilSketchRgba, originalMat, resizedMask, roi);
+                MatPool.recycle(pencilSketchMat);
+                pencilSketchRgba.release();
             }
+
+            Bitmap finalBitmap = Bitmap.createBitmap(originalMat.cols(), originalMat.rows(), Bitmap.Config.ARGB_8888);
+            Utils.matToBitmap(originalMat, finalBitmap);
+            ProcessingResult result = new ProcessingResult(finalBitmap, 1);
+            listener.onAiScanComplete(result);
+
+            mask8u.release();
+            personMask.release();
+            originalMat.release();
+            resizedMask.release();
         } catch (Exception e) {
             Log.e(TAG, "AI Method 11 (processMethod12) failed.", e);
             listener.onAiScanComplete(new ProcessingResult(null, 0));
-        } finally {
-            if (imageSegmenter != null) {
-                imageSegmenter.close();
-            }
         }
     }
 
     public static void processMethod13(Context context, Bitmap originalBitmap, int ksize, AiScanListener listener) {
-        ImageSegmenter imageSegmenter = null;
         try {
-            ImageSegmenterOptions.Builder optionsBuilder =
-                ImageSegmenterOptions.builder()
-                    .setBaseOptions(BaseOptions.builder().setModelAssetPath(MODEL_FILE).build())
-                    .setRunningMode(RunningMode.IMAGE)
-                    .setOutputConfidenceMasks(true);
-            ImageSegmenterOptions options = optionsBuilder.build();
-            imageSegmenter = ImageSegmenter.createFromOptions(context, options);
-            MPImage mpImage = new BitmapImageBuilder(originalBitmap).build();
-            ImageSegmenterResult segmenterResult = imageSegmenter.segment(mpImage);
-
-            if (segmenterResult != null && segmenterResult.confidenceMasks().isPresent()) {
-                try (MPImage mask = segmenterResult.confidenceMasks().get().get(0)) {
-                    ByteBuffer byteBuffer = ByteBufferExtractor.extract(mask);
-                    FloatBuffer confidenceMaskBuffer = byteBuffer.asFloatBuffer();
-                    confidenceMaskBuffer.rewind();
-                    Mat maskMat = new Mat(mask.getHeight(), mask.getWidth(), CvType.CV_32F);
-                    float[] floatArray = new float[confidenceMaskBuffer.remaining()];
-                    confidenceMaskBuffer.get(floatArray);
-                    maskMat.put(0, 0, floatArray);
-                    Mat mask8u = new Mat();
-                    maskMat.convertTo(mask8u, CvType.CV_8U, 255.0);
-                    Mat personMask = new Mat();
-                    Imgproc.threshold(mask8u, personMask, 128, 255, Imgproc.THRESH_BINARY);
-
-                    Mat originalMat = new Mat();
-                    Utils.bitmapToMat(originalBitmap, originalMat);
-                    Mat resizedMaskForBase = new Mat();
-                    Imgproc.resize(personMask, resizedMaskForBase, originalMat.size());
-                    Mat isolatedSubjectMat = new Mat();
-                    Core.bitwise_and(originalMat, originalMat, isolatedSubjectMat, resizedMaskForBase);
-                    Photo.fastNlMeansDenoisingColored(isolatedSubjectMat, isolatedSubjectMat, 3, 3, 7, 21);
-                    Mat grayIsolated = new Mat();
-                    Imgproc.cvtColor(isolatedSubjectMat, grayIsolated, Imgproc.COLOR_RGBA2GRAY);
-                    Imgproc.GaussianBlur(grayIsolated, grayIsolated, new Size(3, 3), 0);
-                    Mat detailLines = new Mat();
-                    Imgproc.Canny(grayIsolated, detailLines, 50, 150);
-                    List<MatOfPoint> contours = new ArrayList<>();
-                    Mat hierarchy = new Mat();
-                    Mat contoursMask = resizedMaskForBase.clone();
-                    Imgproc.findContours(contoursMask, contours, hierarchy, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
-                    Mat lineArtBase = new Mat(originalBitmap.getHeight(), originalBitmap.getWidth(), CvType.CV_8UC4, new Scalar(255, 255, 255, 255));
-                    // --- FIX: The problematic contour line has been removed. ---
-                    lineArtBase.setTo(new Scalar(0, 0, 0, 255), detailLines);
-
-                    Mat grayForSketch = new Mat();
-                    Imgproc.cvtColor(originalMat, grayForSketch, Imgproc.COLOR_RGBA2GRAY);
-                    Mat pencilSketchMat = createAdvancedPencilSketchMat(grayForSketch, ksize);
-                    Mat pencilSketchRgba = new Mat();
-                    Imgproc.cvtColor(pencilSketchMat, pencilSketchRgba, Imgproc.COLOR_GRAY2RGBA);
-
-                    pencilSketchRgba.copyTo(lineArtBase, resizedMaskForBase);
-
-                    Bitmap finalBitmap = Bitmap.createBitmap(lineArtBase.cols(), lineArtBase.rows(), Bitmap.Config.ARGB_8888);
-                    Utils.matToBitmap(lineArtBase, finalBitmap);
-                    ProcessingResult result = new ProcessingResult(finalBitmap, contours.size());
-                    listener.onAiScanComplete(result);
-
-                    maskMat.release();
-                    mask8u.release();
-                    personMask.release();
-                    originalMat.release();
-                    resizedMaskForBase.release();
-                    isolatedSubjectMat.release();
-                    grayIsolated.release();
-                    detailLines.release();
-                    hierarchy.release();
-                    contoursMask.release();
-                    for (MatOfPoint contour : contours) {
-                        contour.release();
-                    }
-                    lineArtBase.release();
-                    grayForSketch.release();
-                    pencilSketchMat.release();
-                    pencilSketchRgba.release();
-                }
-            } else {
-                throw new Exception("MediaPipe segmentation returned a null or empty result.");
+            Mat mask8u = segmentConfidenceMask(context, originalBitmap);
+            Mat personMask = new Mat();
+            Imgproc.threshold(mask8u, personMask, 128, 255, Imgproc.THRESH_BINARY);
+
+            Mat originalMat = new Mat();
+            Utils.bitmapToMat(originalBitmap, originalMat);
+            Mat resizedMaskForBase = new Mat();
+            Imgproc.resize(personMask, resizedMaskForBase, originalMat.size());
+            // One box serves both layers; the sketch margin is the larger of the two.
+            Rect roi = getSubjectRoi(resizedMaskForBase, pencilSketchMargin(ksize));
+            Mat detailLines = getSubjectLines(originalMat, resizedMaskForBase, roi, true);
+            Mat lineArtBase = new Mat(originalBitmap.getHeight(), originalBitmap.getWidth(), CvType.CV_8UC4, new Scalar(255, 255, 255, 255));
+            // --- FIX: The problematic contour line has been removed. ---
+            lineArtBase.setTo(new Scalar(0, 0, 0, 255), detailLines);
+
+            if (roi != null) {
+                Mat pencilSketchMat = createAdvancedPencilSketchMat(new FrameStages(originalBitmap), ksize, roi);
+                Mat pencilSketchRgba = new Mat();
+                Imgproc.cvtColor(pencilSketchMat, pencilSketchRgba, Imgproc.COLOR_GRAY2RGBA);
+                copyToRoi(pencilSketchRgba, lineArtBase, resizedMaskForBase, roi);
+                MatPool.recycle(pencilSketchMat);
+                pencilSketchRgba.release();
             }
+
+            Bitmap finalBitmap = Bitmap.createBitmap(lineArtBase.cols(), lineArtBase.rows(), Bitmap.Config.ARGB_8888);
+            Utils.matToBitmap(lineArtBase, finalBitmap);
+            // Counted on the model-sized mask, only if asked; upscaling it adds pixels, not objects.
+            ProcessingResult result = new ProcessingResult(finalBitmap, () -> countObjects(personMask));
+            listener.onAiScanComplete(result);
+            result.discardObjectCounter();
+
+            mask8u.release();
+            personMask.release();
+            originalMat.release();
+            resizedMaskForBase.release();
+            detailLines.release();
+            lineArtBase.release();
         } catch (Exception e) {
             Log.e(TAG, "AI Method 12 (processMethod13) failed.", e);
             listener.onAiScanComplete(new ProcessingResult(null, 0));
-        } finally {
-            if (imageSegmenter != null) {
-                imageSegmenter.close();
-            }
         }
     }
 
@@ -718,7 +591,6 @@ public class DeepScanProcessor {
         }
 
         Mat originalMat = new Mat();
-        Mat grayMat = new Mat();
         Mat pencilSketchMat = null;
         Mat pencilSketchRgba = new Mat();
         Mat aiGuideMask = new Mat();
@@ -731,20 +603,22 @@ public class DeepScanProcessor {
             if (originalMat.channels() == 3) {
                 Imgproc.cvtColor(originalMat, originalMat, Imgproc.COLOR_RGB2RGBA);
             }
-            // Create a grayscale version for sketch generation.
-            Imgproc.cvtColor(originalMat, grayMat, Imgproc.COLOR_RGBA2GRAY);
 
-            // 2. Create the Sketch Layer: Generate a full-image pencil sketch.
-            pencilSketchMat = createAdvancedPencilSketchMat(grayMat, ksize);
-            Imgproc.cvtColor(pencilSketchMat, pencilSketchRgba, Imgproc.COLOR_GRAY2RGBA);
-
-            // 3. Prepare the AI Mask: Convert the AI mask bitmap to a resized grayscale Mat.
+            // 2. Prepare the AI Mask: Convert the AI mask bitmap to a resized grayscale Mat.
             Utils.bitmapToMat(aiMaskBitmap, aiGuideMask);
             Imgproc.cvtColor(aiGuideMask, aiGuideMaskGray, Imgproc.COLOR_BGRA2GRAY);
             Imgproc.resize(aiGuideMaskGray, resizedAiMask, originalMat.size(), 0, 0, Imgproc.INTER_NEAREST);
 
-            // 4. Composite the Final Image: Use the AI mask to "paste" the sketch onto the original image.
-            pencilSketchRgba.copyTo(originalMat, resizedAiMask);
+            // 3. Create the Sketch Layer: only the masked objects are replaced, so the sketch is
+            // generated for their bounding box alone.
+            Rect roi = getSubjectRoi(resizedAiMask, pencilSketchMargin(ksize));
+            if (roi != null) {
+                pencilSketchMat = createAdvancedPencilSketchMat(new FrameStages(originalBitmap), ksize, roi);
+                Imgproc.cvtColor(pencilSketchMat, pencilSketchRgba, Imgproc.COLOR_GRAY2RGBA);
+
+                // 4. Composite the Final Image: Use the AI mask to "paste" the sketch onto the original image.
+                copyToRoi(pencilSketchRgba, originalMat, resizedAiMask, roi);
+            }
 
             // 5. Finalize: Convert the composited Mat back to a Bitmap.
             Bitmap finalBitmap = Bitmap.createBitmap(originalMat.cols(), originalMat.rows(), Bitmap.Config.ARGB_8888);
@@ -759,9 +633,8 @@ public class DeepScanProcessor {
         } finally {
             // 6. Memory Cleanup: Release all intermediate Mat objects.
             originalMat.release();
-            grayMat.release();
             if (pencilSketchMat != null) {
-                pencilSketchMat.release();
+                MatPool.recycle(pencilSketchMat);
             }
             pencilSketchRgba.release();
             aiGuideMask.release();
@@ -782,15 +655,12 @@ public class DeepScanProcessor {
         }
 
         Mat originalMat = new Mat();
-        Mat grayForSketch = new Mat();
         Mat pencilSketchMat = null;
         Mat finalResultMat = new Mat();
         Mat aiGuideMask = new Mat();
         Mat aiGuideMaskGray = new Mat();
         Mat resizedAiMask = new Mat();
-        Mat isolatedSubjectMat = new Mat();
-        Mat grayIsolated = new Mat();
-        Mat detailLines = new Mat();
+        Mat detailLines = null;
 
         try {
             // 1. Setup: Convert original bitmap to Mat.
@@ -800,8 +670,7 @@ public class DeepScanProcessor {
             }
 
             // 2. Create the Background Layer: Generate a full-image sketch and set it as the canvas.
-            Imgproc.cvtColor(originalMat, grayForSketch, Imgproc.COLOR_RGBA2GRAY);
-            pencilSketchMat = createAdvancedPencilSketchMat(grayForSketch, ksize);
+            pencilSketchMat = createAdvancedPencilSketchMat(new FrameStages(originalBitmap), ksize);
             Imgproc.cvtColor(pencilSketchMat, finalResultMat, Imgproc.COLOR_GRAY2RGBA);
 
             // 3. Prepare the AI Mask: Convert and resize the AI mask.
@@ -810,13 +679,9 @@ public class DeepScanProcessor {
             Imgproc.resize(aiGuideMaskGray, resizedAiMask, originalMat.size(), 0, 0, Imgproc.INTER_NEAREST);
 
             // 4. Create the Foreground (Line Art) Layer:
-            // Isolate the person from the original color image using the AI mask.
-            Core.bitwise_and(originalMat, originalMat, isolatedSubjectMat, resizedAiMask);
-            // Generate line art from only the isolated person.
-            Photo.fastNlMeansDenoisingColored(isolatedSubjectMat, isolatedSubjectMat, 3, 3, 7, 21);
-            Imgproc.cvtColor(isolatedSubjectMat, grayIsolated, Imgproc.COLOR_RGBA2GRAY);
-            Imgproc.GaussianBlur(grayIsolated, grayIsolated, new Size(3, 3), 0);
-            Imgproc.Canny(grayIsolated, detailLines, 50, 150);
+            // Isolate the person using the AI mask and generate line art from it alone,
+            // filtering only the mask's bounding box.
+            detailLines = getSubjectLines(originalMat, resizedAiMask, getSubjectRoi(resizedAiMask, SUBJECT_ROI_MARGIN), true);
 
             // 5. Composite the Final Image: Stamp the line art onto the sketch background.
             finalResultMat.setTo(new Scalar(0, 0, 0, 255), detailLines);
@@ -833,17 +698,16 @@ public class DeepScanProcessor {
         } finally {
             // 7. Memory Cleanup: Release all intermediate Mats.
             originalMat.release();
-            grayForSketch.release();
             if (pencilSketchMat != null) {
-                pencilSketchMat.release();
+                MatPool.recycle(pencilSketchMat);
             }
             finalResultMat.release();
             aiGuideMask.release();
             aiGuideMaskGray.release();
             resizedAiMask.release();
-            isolatedSubjectMat.release();
-            grayIsolated.release();
-            detailLines.release();
+            if (detailLines != null) {
+                detailLines.release();
+            }
         }
     }
 
@@ -852,11 +716,16 @@ public class DeepScanProcessor {
 
     // --- FINE-TUNING METHOD (Live Preview) ---
     public static void processWithFineTuning(Bitmap originalBitmap, int method, int depth, int sharpness, ScanListener listener) {
-        Mat originalMat = new Mat();
-        Utils.bitmapToMat(originalBitmap, originalMat);
-        Mat grayMat = new Mat();
-        Imgproc.cvtColor(originalMat, grayMat, Imgproc.COLOR_RGBA2GRAY);
-        Mat finalLines = new Mat();
+        processWithFineTuning(originalBitmap, method, depth, sharpness, 1f, listener);
+    }
+
+    /**
+     * Fine tuning with every kernel-sized parameter multiplied by kernelScale. Previews run on a
+     * downscaled proxy and pass the proxy-to-source ratio here so they match the full render.
+     */
+    public static void processWithFineTuning(Bitmap originalBitmap, int method, int depth, int sharpness, float kernelScale, ScanListener listener) {
+        FrameStages stages = new FrameStages(originalBitmap);
+        Mat finalLines;
 
         switch (method) {
             case 2:
@@ -864,145 +733,103 @@ public class DeepScanProcessor {
             case 5:
             case 6:
             case 8:
-                finalLines = getStagedCleanStructureLines(grayMat, depth, sharpness);
+                finalLines = getStagedCleanStructureLines(stages, depth, sharpness, kernelScale);
                 break;
             case 3:
-                finalLines = getStagedPencilSketch(grayMat, depth, sharpness);
+                finalLines = getStagedPencilSketch(stages, depth, sharpness, kernelScale);
                 break;
             case 7:
-                finalLines = getStagedDetailedTextureLines(grayMat, depth, sharpness);
+                finalLines = getStagedDetailedTextureLines(stages, depth, sharpness, kernelScale);
                 break;
             default:
-                finalLines = getStagedCleanStructureLines(grayMat, depth, sharpness);
+                finalLines = getStagedCleanStructureLines(stages, depth, sharpness, kernelScale);
                 break;
         }
 
         finalizeAndComplete(finalLines, listener);
-        originalMat.release();
-        grayMat.release();
     }
 
-    private static Mat getStagedCleanStructureLines(Mat grayMat, int depth, int sharpness) {
-        int blurKernelSize = mapSharpnessToOdd(sharpness, 11, 3);
+    private static Mat getStagedCleanStructureLines(FrameStages stages, int depth, int sharpness, float kernelScale) {
+        int blurKernelSize = scaleOddKernel(mapSharpnessToOdd(sharpness, 11, 3), kernelScale);
         int cannyLow = mapSharpnessToInt(sharpness, 60, 10);
-        int cleanKernelSize = mapSharpnessToInt(sharpness, 4, 2);
-        int boldKernelSize = mapSharpnessToInt(sharpness, 4, 1);
+        int cleanKernelSize = scaleKernel(mapSharpnessToInt(sharpness, 4, 2), kernelScale);
+        int boldKernelSize = scaleKernel(mapSharpnessToInt(sharpness, 4, 1), kernelScale);
 
-        Mat blurredMat = new Mat();
-        Imgproc.GaussianBlur(grayMat, blurredMat, new Size(blurKernelSize, blurKernelSize), 0);
-
-        Mat foundation = getCannyEdges(blurredMat, cannyLow, cannyLow * 2);
+        Mat foundation = stages.cannyOfGaussian(blurKernelSize, cannyLow, cannyLow * 2);
         if (depth == 0) {
-            blurredMat.release();
-            return foundation;
-        }
-
-        Mat detail = getCannyEdges(blurredMat, cannyLow * 2, cannyLow * 3);
-        Core.bitwise_or(foundation, detail, foundation);
-        if (depth == 1) {
-            blurredMat.release();
-            detail.release();
             return foundation;
         }
 
-        Mat cleaned = new Mat();
-        Mat cleanKernel = Imgproc.getStructuringElement(Imgproc.MORPH_RECT, new Size(cleanKernelSize, cleanKernelSize));
-        Imgproc.morphologyEx(foundation, cleaned, Imgproc.MORPH_CLOSE, cleanKernel);
-        if (depth == 2) {
-            blurredMat.release();
-            detail.release();
-            foundation.release();
-            cleanKernel.release();
-            return cleaned;
-        }
-
-        Mat finalized = new Mat();
-        Mat boldKernel = Imgproc.getStructuringElement(Imgproc.MORPH_RECT, new Size(boldKernelSize, boldKernelSize));
-        Imgproc.dilate(cleaned, finalized, boldKernel);
-
-        blurredMat.release();
-        detail.release();
-        foundation.release();
-        cleaned.release();
-        cleanKernel.release();
-        boldKernel.release();
-        return finalized;
+        Mat detail = stages.cannyOfGaussian(blurKernelSize, cannyLow * 2, cannyLow * 3);
+        Mat refined = refineStagedLines(foundation, detail, depth, Imgproc.MORPH_CLOSE, cleanKernelSize, boldKernelSize);
+        MatPool.recycle(foundation, detail);
+        return refined;
     }
 
-    private static Mat getStagedDetailedTextureLines(Mat grayMat, int depth, int sharpness) {
-        int bilateralD = mapSharpnessToInt(sharpness, 20, 5);
-        int largeBlockSize = mapSharpnessToOdd(sharpness, 45, 15);
-        int detailBlockSize = mapSharpnessToOdd(sharpness, 25, 7);
-        int cleanKernelSize = mapSharpnessToInt(sharpness, 3, 1);
-        int boldKernelSize = mapSharpnessToInt(sharpness, 3, 1);
+    private static Mat getStagedDetailedTextureLines(FrameStages stages, int depth, int sharpness, float kernelScale) {
+        int bilateralD = scaleKernel(mapSharpnessToInt(sharpness, 20, 5), kernelScale);
+        int largeBlockSize = scaleBlockSize(mapSharpnessToOdd(sharpness, 45, 15), kernelScale);
+        int detailBlockSize = scaleBlockSize(mapSharpnessToOdd(sharpness, 25, 7), kernelScale);
+        int cleanKernelSize = scaleKernel(mapSharpnessToInt(sharpness, 3, 1), kernelScale);
+        int boldKernelSize = scaleKernel(mapSharpnessToInt(sharpness, 3, 1), kernelScale);
 
-        Mat simplifiedMat = new Mat();
-        Imgproc.bilateralFilter(grayMat, simplifiedMat, bilateralD, 80, 80);
-
-        Mat foundation = new Mat();
-        Imgproc.adaptiveThreshold(simplifiedMat, foundation, 255, Imgproc.ADAPTIVE_THRESH_MEAN_C, Imgproc.THRESH_BINARY_INV, largeBlockSize, 2);
+        Mat foundation = stages.adaptiveThresholdOfBilateral(bilateralD, largeBlockSize);
         if (depth == 0) {
-            simplifiedMat.release();
             return foundation;
         }
 
-        Mat detail = new Mat();
-        Imgproc.adaptiveThreshold(simplifiedMat, detail, 255, Imgproc.ADAPTIVE_THRESH_MEAN_C, Imgproc.THRESH_BINARY_INV, detailBlockSize, 2);
-        Core.bitwise_or(foundation, detail, foundation);
-        if (depth == 1) {
-            simplifiedMat.release();
-            detail.release();
-            return foundation;
-        }
+        Mat detail = stages.adaptiveThresholdOfBilateral(bilateralD, detailBlockSize);
+        Mat refined = refineStagedLines(foundation, detail, depth, Imgproc.MORPH_OPEN, cleanKernelSize, boldKernelSize);
+        MatPool.recycle(foundation, detail);
+        return refined;
+    }
 
-        Mat cleaned = new Mat();
-        Mat cleanKernel = Imgproc.getStructuringElement(Imgproc.MORPH_RECT, new Size(cleanKernelSize, cleanKernelSize));
-        Imgproc.morphologyEx(foundation, cleaned, Imgproc.MORPH_OPEN, cleanKernel);
-        if (depth == 2) {
-            simplifiedMat.release();
-            detail.release();
-            foundation.release();
-            cleanKernel.release();
-            return cleaned;
-        }
+    /**
+     * Depth 1 and up of the staged line functions: merge the detail lines into the foundation,
+     * then clean (depth 2) and bolden (depth 3) them. Runs tiled on large frames; the halo covers
+     * both morphology kernels.
+     */
+    private static Mat refineStagedLines(Mat foundation, Mat detail, int depth, int cleanOp, int cleanKernelSize, int boldKernelSize) {
+        int halo = cleanKernelSize + boldKernelSize;
+        return TileExecutor.map(halo, CvType.CV_8UC1, tiles -> {
+            Mat merged = MatPool.obtainLike(tiles[0]);
+            Core.bitwise_or(tiles[0], tiles[1], merged);
+            if (depth == 1) {
+                return merged;
+            }
 
-        Mat finalized = new Mat();
-        Mat boldKernel = Imgproc.getStructuringElement(Imgproc.MORPH_RECT, new Size(boldKernelSize, boldKernelSize));
-        Imgproc.dilate(cleaned, finalized, boldKernel);
+            Mat cleaned = MatPool.obtainLike(merged);
+            Imgproc.morphologyEx(merged, cleaned, cleanOp, MatPool.rectKernel(cleanKernelSize, cleanKernelSize));
+            if (depth == 2) {
+                MatPool.recycle(merged);
+                return cleaned;
+            }
 
-        simplifiedMat.release();
-        detail.release();
-        foundation.release();
-        cleaned.release();
-        cleanKernel.release();
-        boldKernel.release();
-        return finalized;
+            Mat finalized = MatPool.obtainLike(cleaned);
+            Imgproc.dilate(cleaned, finalized, MatPool.rectKernel(boldKernelSize, boldKernelSize));
+            MatPool.recycle(merged, cleaned);
+            return finalized;
+        }, foundation, detail);
     }
 
-    private static Mat getStagedPencilSketch(Mat grayMat, int depth, int sharpness) {
-        int blurKernelSize = mapSharpnessToOdd(sharpness, 41, 5);
+    private static Mat getStagedPencilSketch(FrameStages stages, int depth, int sharpness, float kernelScale) {
+        int blurKernelSize = scaleOddKernel(mapSharpnessToOdd(sharpness, 41, 5), kernelScale);
 
-        Mat inverted = new Mat();
-        Core.bitwise_not(grayMat, inverted);
-        Mat blurred = new Mat();
-        Imgproc.GaussianBlur(inverted, blurred, new Size(blurKernelSize, blurKernelSize), 0);
+        Mat grayMat = stages.gray();
+        Mat blurred = stages.invertedGaussian(blurKernelSize);
         Mat sketch = colorDodge(grayMat, blurred);
         if (depth == 0 || depth == 1) {
-            inverted.release();
-            blurred.release();
+            MatPool.recycle(grayMat, blurred);
             return sketch;
         }
 
-        Mat sharpLines = getMethod8Lines(grayMat);
-        Mat invertedLines = new Mat();
+        Mat sharpLines = getMethod8Lines(stages);
+        Mat invertedLines = MatPool.obtainLike(sharpLines);
         Core.bitwise_not(sharpLines, invertedLines);
         Core.bitwise_and(sketch, invertedLines, sketch);
         Core.bitwise_or(sketch, sharpLines, sketch);
 
-        inverted.release();
-        blurred.release();
-        sharpLines.release();
-        invertedLines.release();
+        MatPool.recycle(grayMat, blurred, sharpLines, invertedLines);
         return sketch;
     }
 
@@ -1016,98 +843,241 @@ public class DeepScanProcessor {
         return (result % 2 == 0) ? result + 1 : result;
     }
 
+    private static int scaleKernel(int size, float kernelScale) {
+        return Math.max(1, Math.round(size * kernelScale));
+    }
+
+    private static int scaleOddKernel(int size, float kernelScale) {
+        int result = scaleKernel(size, kernelScale);
+        return (result % 2 == 0) ? result + 1 : result;
+    }
+
+    // Adaptive threshold needs an odd block of at least 3 pixels.
+    private static int scaleBlockSize(int size, float kernelScale) {
+        return Math.max(3, scaleOddKernel(size, kernelScale));
+    }
+
+    /**
+     * Scales the pencil-sketch ksize slider value (the blur radius) for a frame that has been
+     * resized by kernelScale.
+     */
+    public static int scaleKsize(int ksize, float kernelScale) {
+        return Math.max(0, Math.round(ksize * kernelScale));
+    }
+
+    /**
+     * Compares the PYRAMID blur backend against the exact Gaussian on a frame, for the given
+     * pencil-sketch ksize slider values.
+     * @return One line per value with the pyramid level used, the mean and maximum absolute
+     * error in gray levels and the time each backend took.
+     */
+    public static String getBlurAccuracyReport(Bitmap bitmap, int... ksizeValues) {
+        FrameStages stages = new FrameStages(bitmap);
+        Mat grayMat = stages.gray();
+        Mat exact = MatPool.obtainLike(grayMat);
+        Mat difference = MatPool.obtainLike(grayMat);
+        StringBuilder report = new StringBuilder("Pyramid blur vs exact Gaussian (")
+                .append(bitmap.getWidth()).append('x').append(bitmap.getHeight()).append(')');
+
+        for (int ksize : ksizeValues) {
+            int kernelSize = Math.max(1, ksize * 2 + 1);
+            int level = PyramidBlur.levelFor(kernelSize, grayMat.rows(), grayMat.cols());
+            report.append("\n  ksize ").append(ksize).append(": ");
+            if (level == 0) {
+                report.append("exact (kernel too small for the pyramid)");
+                continue;
+            }
+
+            long start = System.nanoTime();
+            Imgproc.GaussianBlur(grayMat, exact, new Size(kernelSize, kernelSize), 0);
+            long exactNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            Mat levelMat = stages.pyramid(level);
+            Mat approximate = PyramidBlur.blurFromLevel(levelMat, level, kernelSize, stages.size());
+            long pyramidNanos = System.nanoTime() - start;
+
+            Core.absdiff(exact, approximate, difference);
+            double meanError = Core.mean(difference).val[0];
+            double maxError = Core.minMaxLoc(difference).maxVal;
+            report.append(String.format(Locale.US,
+                    "level %d, mean error %.2f, max error %.0f, exact %.1f ms, pyramid %.1f ms",
+                    level, meanError, maxError, exactNanos / 1e6, pyramidNanos / 1e6));
+            MatPool.recycle(levelMat, approximate);
+        }
+
+        MatPool.recycle(grayMat, exact, difference);
+        return report.toString();
+    }
+
     private static Mat colorDodge(Mat bottom, Mat top) {
-        Mat topFloat = new Mat();
-        top.convertTo(topFloat, CvType.CV_32F, 1.0/255.0);
-        Mat bottomFloat = new Mat();
-        bottom.convertTo(bottomFloat, CvType.CV_32F, 1.0/255.0);
-        Mat one = new Mat(topFloat.size(), topFloat.type(), new Scalar(1.0));
-        Mat topSub = new Mat();
-        Core.subtract(one, topFloat, topSub);
-        Mat result = new Mat();
-        Core.divide(bottomFloat, topSub, result, 255.0);
-        result.convertTo(result, CvType.CV_8U);
-        topFloat.release();
-        bottomFloat.release();
-        one.release();
-        topSub.release();
+        // Purely per-pixel, so the tiles need no halo.
+        return TileExecutor.map(0, CvType.CV_8U, tiles -> colorDodgeTile(tiles[0], tiles[1]), bottom, top);
+    }
+
+    static Mat colorDodgeTile(Mat bottom, Mat top) {
+        // bottom * 255 / (255 - top), computed directly on 8-bit data with rounding and saturation.
+        // The divisor is clamped to 1 so a white top still saturates to 255 as the float version did,
+        // instead of hitting OpenCV's integer "x / 0 = 0" rule.
+        Mat result = MatPool.obtain(top.rows(), top.cols(), CvType.CV_8U);
+        Core.bitwise_not(top, result);
+        Core.max(result, new Scalar(1), result);
+        Core.divide(bottom, result, result, 255.0);
         return result;
     }
 
-    private static Mat createAdvancedPencilSketchMat(Mat grayMat, int ksize) {
+    private static Mat createAdvancedPencilSketchMat(FrameStages stages, int ksize) {
+        Size size = stages.size();
+        return createAdvancedPencilSketchMat(stages, ksize, new Rect(0, 0, (int) size.width, (int) size.height));
+    }
+
+    /**
+     * The pencil sketch of roi only. It matches the full-frame sketch wherever the roi extends at
+     * least pencilSketchMargin(ksize) beyond the pixels that are used.
+     */
+    private static Mat createAdvancedPencilSketchMat(FrameStages stages, int ksize, Rect roi) {
         int kernelSize = (ksize * 2) + 1;
         if (kernelSize < 1) kernelSize = 1; // Safety check
-        Mat invertedGray = new Mat();
-        Core.bitwise_not(grayMat, invertedGray);
-        Mat blurred = new Mat();
-        Imgproc.GaussianBlur(invertedGray, blurred, new Size(kernelSize, kernelSize), 0);
-        Mat invertedBlurred = new Mat();
-        Core.bitwise_not(blurred, invertedBlurred);
-        Mat pencilSketch = new Mat();
-        Core.divide(grayMat, invertedBlurred, pencilSketch, 256.0);
-        invertedGray.release();
-        blurred.release();
-        invertedBlurred.release();
+        Mat grayMat = stages.gray();
+        Mat grayRoi = grayMat.submat(roi);
+        Mat invertedBlurred = stages.invertedGaussian(kernelSize, roi);
+        Core.bitwise_not(invertedBlurred, invertedBlurred);
+        Mat pencilSketch = MatPool.obtainLike(invertedBlurred);
+        Core.divide(grayRoi, invertedBlurred, pencilSketch, 256.0);
+        grayRoi.release();
+        MatPool.recycle(grayMat, invertedBlurred);
         return pencilSketch;
     }
 
-    private static Mat getSimplifiedImage(Mat grayMat) {
-        Mat downscaled = new Mat();
-        Imgproc.pyrDown(grayMat, downscaled);
-        Mat blurred = new Mat();
+    private static int pencilSketchMargin(int ksize) {
+        return Math.max(SUBJECT_ROI_MARGIN, Math.max(0, ksize) + 1);
+    }
+
+    private static Mat gaussianTiled(Mat src, int ksize) {
+        return TileExecutor.map(ksize / 2 + 1, CvType.CV_8UC1, tiles -> {
+            Mat tileBlurred = MatPool.obtainLike(tiles[0]);
+            Imgproc.GaussianBlur(tiles[0], tileBlurred, new Size(ksize, ksize), 0);
+            return tileBlurred;
+        }, src);
+    }
+
+    /**
+     * @return The bounding rectangle of the mask's non-zero pixels grown by margin and clipped to
+     * the frame, or null if the mask is empty.
+     */
+    private static Rect getSubjectRoi(Mat mask, int margin) {
+        Rect bounds = Imgproc.boundingRect(mask);
+        if (bounds.width <= 0 || bounds.height <= 0) {
+            return null;
+        }
+        int left = Math.max(0, bounds.x - margin);
+        int top = Math.max(0, bounds.y - margin);
+        int right = Math.min(mask.cols(), bounds.x + bounds.width + margin);
+        int bottom = Math.min(mask.rows(), bounds.y + bounds.height + margin);
+        return new Rect(left, top, right - left, bottom - top);
+    }
+
+    /**
+     * Canny line art of the masked subject alone, optionally denoised first. Everything outside
+     * the mask is black before any filter runs, so only the roi can produce edges and the
+     * filters run on it alone.
+     * @return A full-frame edge map owned by the caller; empty when roi is null.
+     */
+    private static Mat getSubjectLines(Mat originalMat, Mat mask, Rect roi, boolean denoise) {
+        Mat lines = Mat.zeros(originalMat.size(), CvType.CV_8UC1);
+        if (roi == null) {
+            return lines;
+        }
+        Mat originalRoi = originalMat.submat(roi);
+        Mat maskRoi = mask.submat(roi);
+        Mat linesRoi = lines.submat(roi);
+        Mat isolatedSubjectMat = new Mat();
+        Core.bitwise_and(originalRoi, originalRoi, isolatedSubjectMat, maskRoi);
+        if (denoise) {
+            Photo.fastNlMeansDenoisingColored(isolatedSubjectMat, isolatedSubjectMat, 3, 3, 7, 21);
+        }
+        Mat grayIsolated = new Mat();
+        Imgproc.cvtColor(isolatedSubjectMat, grayIsolated, Imgproc.COLOR_RGBA2GRAY);
+        Imgproc.GaussianBlur(grayIsolated, grayIsolated, new Size(3, 3), 0);
+        Imgproc.Canny(grayIsolated, linesRoi, 50, 150);
+
+        originalRoi.release();
+        maskRoi.release();
+        linesRoi.release();
+        isolatedSubjectMat.release();
+        grayIsolated.release();
+        return lines;
+    }
+
+    /** Copies an roi-sized layer into dst wherever the full-frame mask is set. */
+    private static void copyToRoi(Mat layer, Mat dst, Mat mask, Rect roi) {
+        Mat dstRoi = dst.submat(roi);
+        Mat maskRoi = mask.submat(roi);
+        layer.copyTo(dstRoi, maskRoi);
+        dstRoi.release();
+        maskRoi.release();
+    }
+
+    private static Mat getSimplifiedImage(Mat downscaled) {
+        Mat blurred = MatPool.obtainLike(downscaled);
         Imgproc.medianBlur(downscaled, blurred, 7);
-        Mat upscaled = new Mat();
+        Mat upscaled = MatPool.obtain(blurred.rows() * 2, blurred.cols() * 2, downscaled.type());
         Imgproc.pyrUp(blurred, upscaled);
-        downscaled.release();
-        blurred.release();
+        MatPool.recycle(blurred);
         return upscaled;
     }
 
-    private static Mat getCannyEdges(Mat inputMat, double threshold1, double threshold2) {
-        Mat edges = new Mat();
-        Imgproc.Canny(inputMat, edges, threshold1, threshold2);
-        return edges;
+    private static Mat finalizeLines(Mat inputLines) {
+        // A 2x2 close followed by a 2x2 dilate reaches at most a few pixels.
+        return TileExecutor.map(4, inputLines.type(), tiles -> finalizeLinesTile(tiles[0]), inputLines);
     }
 
-    private static Mat finalizeLines(Mat inputLines) {
-        Mat cleanedLines = new Mat();
-        Mat kernel = Imgproc.getStructuringElement(Imgproc.MORPH_RECT, new Size(2, 2));
+    private static Mat finalizeLinesTile(Mat inputLines) {
+        Mat kernel = MatPool.rectKernel(2, 2);
+        Mat cleanedLines = MatPool.obtainLike(inputLines);
         Imgproc.morphologyEx(inputLines, cleanedLines, Imgproc.MORPH_CLOSE, kernel);
-        Mat finalLines = new Mat();
+        Mat finalLines = MatPool.obtainLike(inputLines);
         Imgproc.dilate(cleanedLines, finalLines, kernel);
-        kernel.release();
-        cleanedLines.release();
+        MatPool.recycle(cleanedLines);
         return finalLines;
     }
 
-    private static Mat getMethod8Lines(Mat grayMat) {
-        Mat blurred = new Mat();
-        Imgproc.GaussianBlur(grayMat, blurred, new Size(5, 5), 0);
-        Mat major = getCannyEdges(blurred, 5, 50);
-        Mat detail = getCannyEdges(blurred, 60, 120);
-        Core.bitwise_or(major, detail, major);
-        Mat finalLines = finalizeLines(major);
-        blurred.release();
-        detail.release();
-        return finalLines;
+    private static Mat getMethod8Lines(FrameStages stages) {
+        return stages.memo("method8Lines", () -> {
+            Mat major = stages.cannyOfGaussian(5, 5, 50);
+            Mat detail = stages.cannyOfGaussian(5, 60, 120);
+            Core.bitwise_or(major, detail, major);
+            Mat finalLines = finalizeLines(major);
+            MatPool.recycle(detail, major);
+            return finalLines;
+        });
+    }
+
+    /**
+     * @return The number of 8-connected non-zero regions. Unlike findContours this needs no copy
+     * of the input, which it does not modify.
+     */
+    private static int countObjects(Mat mask) {
+        Mat labels = MatPool.obtain(mask.rows(), mask.cols(), CvType.CV_32S);
+        int count = Imgproc.connectedComponents(mask, labels, 8, CvType.CV_32S) - 1;
+        MatPool.recycle(labels);
+        return Math.max(0, count);
     }
 
-    private static int countContours(Mat mat) {
-        Mat matCopy = mat.clone();
-        List<MatOfPoint> contours = new ArrayList<>();
-        Mat hierarchy = new Mat();
-        Imgproc.findContours(matCopy, contours, hierarchy, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
-        int total = contours.size();
-        for (MatOfPoint p : contours) {
-            p.release();
+    /** Counts the line regions of a black-on-white result, or 0 if it has already been recycled. */
+    private static int countObjectsInLineArt(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return 0;
         }
-        hierarchy.release();
-        matCopy.release();
-        return total;
+        Mat rgbaMat = obtainRgbaMat(bitmap);
+        Mat lines = obtainGrayMat(rgbaMat);
+        Imgproc.threshold(lines, lines, 127, 255, Imgproc.THRESH_BINARY_INV);
+        int count = countObjects(lines);
+        MatPool.recycle(rgbaMat, lines);
+        return count;
     }
 
     private static void finalizeAndComplete(Mat finalLines, ScanListener listener) {
-        int totalObjects = countContours(finalLines);
         Bitmap finalBitmap;
         if (finalLines.channels() == 1) {
             finalBitmap = createBitmapFromMask(finalLines, finalLines.size());
@@ -1115,220 +1085,408 @@ public class DeepScanProcessor {
             finalBitmap = Bitmap.createBitmap(finalLines.cols(), finalLines.rows(), Bitmap.Config.ARGB_8888);
             Utils.matToBitmap(finalLines, finalBitmap);
         }
-        ProcessingResult finalResult = new ProcessingResult(finalBitmap, totalObjects);
+        Bitmap resultBitmap = finalBitmap;
+        ProcessingResult finalResult = new ProcessingResult(resultBitmap, () -> countObjectsInLineArt(resultBitmap));
         listener.onScanComplete(finalResult);
-        finalLines.release();
+        MatPool.recycle(finalLines);
+    }
+
+    private static void reportProgress(ScanListener listener, int pass, int totalPasses, String status, Mat mask, Size size) {
+        Bitmap intermediateResult = listener.wantsIntermediateResults() ? createProgressPreview(mask, size) : null;
+        listener.onScanProgress(pass, totalPasses, status, intermediateResult);
+    }
+
+    /**
+     * Renders a mask like createBitmapFromMask, but at display size into a recycled bitmap.
+     * Lines thinner than the downscale come out gray rather than disappearing.
+     */
+    private static Bitmap createProgressPreview(Mat mask, Size size) {
+        double scale = PreviewBitmapRing.scaleFor((int) size.width, (int) size.height);
+        int width = Math.max(1, (int) Math.round(size.width * scale));
+        int height = Math.max(1, (int) Math.round(size.height * scale));
+
+        Mat preview = MatPool.obtain(height, width, CvType.CV_8UC1);
+        if (mask == null || mask.empty()) {
+            preview.setTo(new Scalar(255));
+        } else {
+            Mat coverage = MatPool.obtain(mask.rows(), mask.cols(), CvType.CV_8UC1);
+            Core.compare(mask, new Scalar(0), coverage, Core.CMP_NE);
+            if (scale < 1.0) {
+                Imgproc.resize(coverage, preview, new Size(width, height), 0, 0, Imgproc.INTER_AREA);
+            } else {
+                coverage.copyTo(preview);
+            }
+            Core.bitwise_not(preview, preview);
+            MatPool.recycle(coverage);
+        }
+
+        Mat previewRgba = MatPool.obtain(height, width, CvType.CV_8UC4);
+        Imgproc.cvtColor(preview, previewRgba, Imgproc.COLOR_GRAY2RGBA);
+        Bitmap bitmap = PreviewBitmapRing.obtain(width, height);
+        Utils.matToBitmap(previewRgba, bitmap);
+        MatPool.recycle(preview, previewRgba);
+        return bitmap;
     }
 
     private static Bitmap createBitmapFromMask(Mat mask, Size originalSize) {
-        Mat finalMat = new Mat(originalSize, CvType.CV_8UC4, new Scalar(255, 255, 255, 255));
+        Mat finalMat = MatPool.obtain(originalSize, CvType.CV_8UC4);
+        finalMat.setTo(new Scalar(255, 255, 255, 255));
         Scalar blackColor = new Scalar(0, 0, 0, 255);
         if (mask != null && !mask.empty()) {
            finalMat.setTo(blackColor, mask);
         }
         Bitmap bitmap = Bitmap.createBitmap((int)originalSize.width, (int)originalSize.height, Bitmap.Config.ARGB_8888);
         Utils.matToBitmap(finalMat, bitmap);
-        finalMat.release();
+        MatPool.recycle(finalMat);
         return bitmap;
     }
 
     private static Mat getWatershedMarkers(Mat grayMat, Mat bgrMat) {
-        Mat thresh = new Mat();
+        int rows = grayMat.rows();
+        int cols = grayMat.cols();
+        Mat kernel = MatPool.rectKernel(3, 3);
+        Mat thresh = MatPool.obtain(rows, cols, CvType.CV_8U);
         Imgproc.threshold(grayMat, thresh, 0, 255, Imgproc.THRESH_BINARY_INV + Imgproc.THRESH_OTSU);
-        Mat kernel = Imgproc.getStructuringElement(Imgproc.MORPH_RECT, new Size(3,3));
-        Mat opening = new Mat();
+        Mat opening = MatPool.obtain(rows, cols, CvType.CV_8U);
         Imgproc.morphologyEx(thresh, opening, Imgproc.MORPH_OPEN, kernel, new Point(-1,-1), 2);
-        Mat sureBg = new Mat();
+        Mat sureBg = MatPool.obtain(rows, cols, CvType.CV_8U);
         Imgproc.dilate(opening, sureBg, kernel, new Point(-1,-1), 3);
-        Mat distTransform = new Mat();
+        Mat distTransform = MatPool.obtain(rows, cols, CvType.CV_32F);
         Imgproc.distanceTransform(opening, distTransform, Imgproc.DIST_L2, 5);
-        Mat sureFg = new Mat();
+        Mat sureFg = MatPool.obtain(rows, cols, CvType.CV_32F);
         Imgproc.threshold(distTransform, sureFg, 0.7 * Core.minMaxLoc(distTransform).maxVal, 255, 0);
-        Mat sureFg8u = new Mat();
+        Mat sureFg8u = MatPool.obtain(rows, cols, CvType.CV_8U);
         sureFg.convertTo(sureFg8u, CvType.CV_8U);
-        Mat unknown = new Mat();
+        Mat unknown = MatPool.obtain(rows, cols, CvType.CV_8U);
         Core.subtract(sureBg, sureFg8u, unknown);
-        Mat markers = new Mat();
+        Mat markers = MatPool.obtain(rows, cols, CvType.CV_32S);
         Imgproc.connectedComponents(sureFg8u, markers);
         Core.add(markers, new Scalar(1), markers);
-        for(int r=0; r<markers.rows(); r++) {
-            for(int c=0; c<markers.cols(); c++) {
-                if (unknown.get(r,c)[0] == 255) {
-                    markers.put(r,c,0);
-                }
-            }
-        }
+        // The unknown band becomes marker 0 so that watershed decides where it belongs.
+        Mat unknownMask = MatPool.obtain(rows, cols, CvType.CV_8U);
+        Core.compare(unknown, new Scalar(255), unknownMask, Core.CMP_EQ);
+        markers.setTo(new Scalar(0), unknownMask);
         Imgproc.watershed(bgrMat, markers);
-        thresh.release();
-        kernel.release();
-        opening.release();
-        sureBg.release();
-        distTransform.release();
-        sureFg.release();
-        sureFg8u.release();
-        unknown.release();
+        MatPool.recycle(thresh, opening, sureBg, distTransform, sureFg, sureFg8u, unknown, unknownMask);
         return markers;
     }
 
     private static Bitmap createColoredFoundation(Mat markers, Size size) {
-        Mat foundation = new Mat(size, CvType.CV_8UC4, new Scalar(0,0,0,0));
-        Random random = new Random();
-        for(int r=0; r<markers.rows(); r++) {
-            for(int c=0; c<markers.cols(); c++) {
-                int index = (int)markers.get(r,c)[0];
-                if (index > 0 && index != -1) {
-                    random.setSeed(index);
-                    int b = random.nextInt(200) + 55;
-                    int g = random.nextInt(200) + 55;
-                    int r_ = random.nextInt(200) + 55;
-                    foundation.put(r, c, new byte[]{(byte)b, (byte)g, (byte)r_, (byte)128});
+        int rows = markers.rows();
+        int cols = markers.cols();
+        int maxLabel = (int) Core.minMaxLoc(markers).maxVal;
+        byte[] palette = buildFoundationPalette(maxLabel);
+
+        // Colorize strip by strip: one bulk get of labels and one bulk put of pixels per strip.
+        Mat foundation = MatPool.obtain(size, CvType.CV_8UC4);
+        int stripRows = Math.max(1, Math.min(rows, FOUNDATION_STRIP_PIXELS / Math.max(1, cols)));
+        int[] labels = new int[stripRows * cols];
+        byte[] pixels = new byte[stripRows * cols * 4];
+        for (int top = 0; top < rows; top += stripRows) {
+            int pixelCount = Math.min(stripRows, rows - top) * cols;
+            markers.get(top, 0, labels);
+            for (int i = 0; i < pixelCount; i++) {
+                int index = labels[i];
+                int p = i * 4;
+                if (index > 0) {
+                    int c = index * 4;
+                    pixels[p] = palette[c];
+                    pixels[p + 1] = palette[c + 1];
+                    pixels[p + 2] = palette[c + 2];
+                    pixels[p + 3] = palette[c + 3];
+                } else {
+                    pixels[p] = 0;
+                    pixels[p + 1] = 0;
+                    pixels[p + 2] = 0;
+                    pixels[p + 3] = 0;
                 }
             }
+            foundation.put(top, 0, pixels);
         }
         Bitmap b = Bitmap.createBitmap((int)size.width, (int)size.height, Bitmap.Config.ARGB_8888);
         Utils.matToBitmap(foundation, b);
-        foundation.release();
+        MatPool.recycle(foundation);
         return b;
     }
 
-    // --- START OF NEW METHODS FOR METHOD 14 (AI OFFLINE SKETCH) ---
-
-    // --- FIX: This new helper method ensures all bitmaps are in the correct format ---
-    private static Bitmap convertToARGB8888(Bitmap img) {
-        if (img.getConfig() == Bitmap.Config.ARGB_8888) {
-            return img;
+    /**
+     * Builds the label-to-color table for createColoredFoundation. Each label keeps the color it
+     * always had: a Random seeded with the label index, drawing b, g and r in that order.
+     */
+    private static byte[] buildFoundationPalette(int maxLabel) {
+        byte[] palette = new byte[(Math.max(0, maxLabel) + 1) * 4];
+        Random random = new Random();
+        for (int index = 1; index <= maxLabel; index++) {
+            random.setSeed(index);
+            int b = random.nextInt(200) + 55;
+            int g = random.nextInt(200) + 55;
+            int r = random.nextInt(200) + 55;
+            int c = index * 4;
+            palette[c] = (byte) b;
+            palette[c + 1] = (byte) g;
+            palette[c + 2] = (byte) r;
+            palette[c + 3] = (byte) 128;
         }
-        Bitmap result = Bitmap.createBitmap(img.getWidth(), img.getHeight(), Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(result);
-        canvas.drawBitmap(img, 0, 0, null);
-        return result;
+        return palette;
     }
 
-    public static float[] runStylePrediction(Bitmap styleBitmap, Interpreter predictionInterpreter) {
-        // --- FIX: Ensure the style bitmap is in the correct format before processing ---
-        Bitmap processedStyleBitmap = convertToARGB8888(styleBitmap);
+    /**
+     * Segments the bitmap with a pooled selfie segmenter, or reuses the mask cached for identical
+     * pixels.
+     * @return The person confidence mask as an 8-bit Mat (0-255) at the model's output size, owned by the caller.
+     */
+    private static Mat segmentConfidenceMask(Context context, Bitmap bitmap) throws Exception {
+        long contentHash = SegmentationMaskCache.contentHash(bitmap);
+        Mat cachedMask = SegmentationMaskCache.get(contentHash, SegmenterPool.MODEL_FILE);
+        if (cachedMask != null) {
+            return cachedMask;
+        }
 
-        org.tensorflow.lite.support.image.ImageProcessor imageProcessor =
-                new org.tensorflow.lite.support.image.ImageProcessor.Builder()
-                        .add(new ResizeOp(256, 256, ResizeOp.ResizeMethod.BILINEAR))
-                        .add(new NormalizeOp(0.0f, 255.0f))
-                        .build();
-        TensorImage tensorStyleImage = new TensorImage(DataType.FLOAT32);
-        tensorStyleImage.load(processedStyleBitmap);
-        tensorStyleImage = imageProcessor.process(tensorStyleImage);
+        MPImage mpImage = new BitmapImageBuilder(bitmap).build();
+        ImageSegmenterResult segmenterResult;
+        VideoSegmentationSession session = videoSegmentation.get();
+        if (session != null) {
+            segmenterResult = session.segment(mpImage);
+        } else {
+            ImageSegmenter imageSegmenter = SegmenterPool.acquire(context);
+            try {
+                segmenterResult = SegmenterPool.segment(imageSegmenter, mpImage);
+            } finally {
+                SegmenterPool.release(imageSegmenter);
+            }
+        }
 
-        // If the original bitmap was converted, recycle the new one.
-        if (processedStyleBitmap != styleBitmap) {
-            processedStyleBitmap.recycle();
+        if (segmenterResult == null || !segmenterResult.confidenceMasks().isPresent()) {
+            throw new Exception("MediaPipe segmentation returned a null or empty result.");
         }
+        try (MPImage mask = segmenterResult.confidenceMasks().get().get(0)) {
+            ByteBuffer byteBuffer = ByteBufferExtractor.extract(mask);
+            FloatBuffer confidenceMaskBuffer = byteBuffer.asFloatBuffer();
+            confidenceMaskBuffer.rewind();
+            Mat maskMat = new Mat(mask.getHeight(), mask.getWidth(), CvType.CV_32F);
+            float[] floatArray = new float[confidenceMaskBuffer.remaining()];
+            confidenceMaskBuffer.get(floatArray);
+            maskMat.put(0, 0, floatArray);
+            Mat mask8u = new Mat();
+            maskMat.convertTo(mask8u, CvType.CV_8U, 255.0);
+            maskMat.release();
+            // Video masks go into the same cache, so re-editing a frame shows the mask the batch used.
+            SegmentationMaskCache.put(contentHash, SegmenterPool.MODEL_FILE, mask8u);
+            return mask8u;
+        }
+    }
 
-        TensorBuffer styleBottleneck = TensorBuffer.createFixedSize(new int[]{1, 1, 1, 100}, DataType.FLOAT32);
-        predictionInterpreter.run(tensorStyleImage.getBuffer(), styleBottleneck.getBuffer());
-        return styleBottleneck.getFloatArray();
+    private static Mat obtainRgbaMat(Bitmap bitmap) {
+        Mat rgbaMat = MatPool.obtain(bitmap.getHeight(), bitmap.getWidth(), CvType.CV_8UC4);
+        Utils.bitmapToMat(bitmap, rgbaMat);
+        return rgbaMat;
     }
 
-    public static Bitmap runStyleTransfer(Bitmap contentBitmap, float[] styleVector, Interpreter transferInterpreter) {
-        // --- FIX: Ensure the content bitmap is in the correct format before processing ---
-        Bitmap processedContentBitmap = convertToARGB8888(contentBitmap);
+    private static Mat obtainGrayMat(Mat rgbaMat) {
+        Mat grayMat = MatPool.obtain(rgbaMat.rows(), rgbaMat.cols(), CvType.CV_8UC1);
+        Imgproc.cvtColor(rgbaMat, grayMat, Imgproc.COLOR_RGBA2GRAY);
+        return grayMat;
+    }
 
-        org.tensorflow.lite.support.image.ImageProcessor imageProcessor =
-                new org.tensorflow.lite.support.image.ImageProcessor.Builder()
-                        .add(new ResizeOp(384, 384, ResizeOp.ResizeMethod.BILINEAR))
-                        .add(new NormalizeOp(0.0f, 255.0f))
-                        .build();
-        TensorImage tensorContentImage = new TensorImage(DataType.FLOAT32);
-        tensorContentImage.load(processedContentBitmap);
-        tensorContentImage = imageProcessor.process(tensorContentImage);
+    /**
+     * The stages of one frame. Every getter returns a pooled Mat the caller owns and must recycle.
+     * When the thread opted in with setStageCaching, a shared copy stays in StageCache, so the
+     * next method or slider move on the same frame only pays for the stages whose parameters
+     * differ; otherwise every stage is computed on demand and never copied.
+     */
+    private static final class FrameStages {
+        private final Bitmap bitmap;
+        private final String frameKey;
 
-        // If the original bitmap was converted, recycle the new one.
-        if (processedContentBitmap != contentBitmap) {
-            processedContentBitmap.recycle();
+        FrameStages(Bitmap bitmap) {
+            this.bitmap = bitmap;
+            this.frameKey = stageCaching.get() ? StageCache.frameKey(bitmap) : null;
         }
 
-        float[][][][] reshapedStyleVector = new float[1][1][1][100];
-        reshapedStyleVector[0][0][0] = styleVector;
-
-        Object[] inputs = new Object[]{tensorContentImage.getBuffer(), reshapedStyleVector};
-        TensorBuffer stylizedImageBuffer = TensorBuffer.createFixedSize(new int[]{1, 384, 384, 3}, DataType.FLOAT32);
-        transferInterpreter.runForMultipleInputsOutputs(inputs, java.util.Collections.singletonMap(0, stylizedImageBuffer.getBuffer()));
-
-        float[] stylizedImageData = stylizedImageBuffer.getFloatArray();
-        int[] pixels = new int[384 * 384];
-        for (int i = 0; i < pixels.length; ++i) {
-            int r = (int) (stylizedImageData[i * 3] * 255);
-            int g = (int) (stylizedImageData[i * 3 + 1] * 255);
-            int b = (int) (stylizedImageData[i * 3 + 2] * 255);
-            r = Math.max(0, Math.min(255, r));
-            g = Math.max(0, Math.min(255, g));
-            b = Math.max(0, Math.min(255, b));
-            pixels[i] = 0xFF000000 | (r << 16) | (g << 8) | b;
+        Size size() {
+            return new Size(bitmap.getWidth(), bitmap.getHeight());
         }
 
-        return Bitmap.createBitmap(pixels, 384, 384, Bitmap.Config.ARGB_8888);
-    }
-    // --- END OF NEW METHODS ---
-    
-    // --- NEW METHOD FOR METHOD 9 ADJUSTMENTS ---
-    public static Bitmap applyMethod9Adjustments(Bitmap bitmap, int brightness, int contrast, int saturation, int temperature) {
-        // The input values are 0-50, we need to map them to useful ranges.
-        // Center value is 25.
-        
-        // Brightness: -128 to 128. We'll map 0-50 to a reasonable range like -64 to 64.
-        float brightnessF = (brightness - 25) * 2.56f;
-
-        // Contrast: 0.0 to 2.0. We'll map 0-50 to 0.5 to 1.5.
-        float contrastF = (contrast / 25.0f);
-        if (contrastF < 1.0f) {
-            contrastF = 1.0f - (1.0f - contrastF) / 2.0f; // Slower decrease towards 0.5
+        Mat memo(String stage, StageCache.Producer producer) {
+            return frameKey != null ? StageCache.get(frameKey, stage, producer) : producer.produce();
         }
 
-        // Saturation: 0.0 to 2.0. We'll map 0-50 to 0.0 to 2.0
-        float saturationF = saturation / 25.0f;
+        Mat gray() {
+            return memo("gray", () -> {
+                Mat rgbaMat = obtainRgbaMat(bitmap);
+                Mat grayMat = obtainGrayMat(rgbaMat);
+                MatPool.recycle(rgbaMat);
+                return grayMat;
+            });
+        }
 
-        ColorMatrix colorMatrix = new ColorMatrix();
-        
-        // Apply Saturation first, as it's a base property
-        colorMatrix.setSaturation(saturationF);
+        Mat gaussian(int ksize) {
+            return memo("gauss:" + ksize, () -> {
+                Mat grayMat = gray();
+                Mat blurred = gaussianTiled(grayMat, ksize);
+                MatPool.recycle(grayMat);
+                return blurred;
+            });
+        }
 
-        // Then apply contrast and brightness
-        ColorMatrix scaleMatrix = new ColorMatrix(new float[] {
-                contrastF, 0, 0, 0, brightnessF,
-                0, contrastF, 0, 0, brightnessF,
-                0, 0, contrastF, 0, brightnessF,
-                0, 0, 0, 1, 0
-        });
-        colorMatrix.postConcat(scaleMatrix);
-        
-        // Finally, apply color temperature
-        if (temperature != 25) {
-            float tempValue = (temperature - 25); // Range -25 to 25
-            // Add red/yellow for warmer, add blue for cooler
-            float redShift = tempValue * 2.5f;
-            float blueShift = -tempValue * 2.5f;
-            
-            ColorMatrix tempMatrix = new ColorMatrix(new float[] {
-                1, 0, 0, 0, redShift,
-                0, 1, 0, 0, 0, // Green is slightly adjusted to balance yellow/cyan tints
-                0, 0, 1, 0, blueShift,
-                0, 0, 0, 1, 0
+        /** The blurred negative of the frame, the "top" layer of every pencil sketch. */
+        Mat invertedGaussian(int ksize) {
+            int level = pyramidBlurLevel(ksize);
+            if (level > 0) {
+                // Blurring commutes with inversion, so the shared gray pyramid serves here too.
+                return memo("invPyrGauss:" + ksize, () -> {
+                    Mat levelMat = pyramid(level);
+                    Mat blurred = PyramidBlur.blurFromLevel(levelMat, level, ksize, size());
+                    Core.bitwise_not(blurred, blurred);
+                    MatPool.recycle(levelMat);
+                    return blurred;
+                });
+            }
+            return memo("invGauss:" + ksize, () -> {
+                Mat inverted = gray();
+                Core.bitwise_not(inverted, inverted);
+                Mat blurred = gaussianTiled(inverted, ksize);
+                MatPool.recycle(inverted);
+                return blurred;
             });
-             colorMatrix.postConcat(tempMatrix);
         }
 
-        Paint paint = new Paint();
-        paint.setColorFilter(new ColorMatrixColorFilter(colorMatrix));
-
-        // Create a new bitmap to draw on, to avoid modifying the original one passed in
-        Bitmap resultBitmap = Bitmap.createBitmap(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
-        Canvas canvas = new Canvas(resultBitmap);
-        canvas.drawBitmap(bitmap, 0, 0, paint);
-        
-        // Since we are creating a new bitmap, we should recycle the one that was passed in,
-        // as the calling method assumes we are modifying it.
-        if(bitmap != null && !bitmap.isRecycled()){
-            bitmap.recycle();
+        /**
+         * invertedGaussian(ksize) restricted to roi. Pixels closer than ksize / 2 to an roi edge
+         * that is not a frame edge see a reflected border instead of their real neighbours.
+         * @return A pooled Mat of the roi's size.
+         */
+        Mat invertedGaussian(int ksize, Rect roi) {
+            boolean fullFrame = roi.width == bitmap.getWidth() && roi.height == bitmap.getHeight();
+            if (fullFrame || pyramidBlurLevel(ksize) > 0) {
+                // The full frame is wanted or cheap anyway, and it is what the cache holds.
+                Mat full = invertedGaussian(ksize);
+                if (fullFrame) {
+                    return full;
+                }
+                Mat view = full.submat(roi);
+                Mat cropped = MatPool.obtain(roi.height, roi.width, full.type());
+                view.copyTo(cropped);
+                view.release();
+                MatPool.recycle(full);
+                return cropped;
+            }
+
+            Mat grayMat = gray();
+            Mat grayRoi = grayMat.submat(roi);
+            Mat inverted = MatPool.obtain(roi.height, roi.width, CvType.CV_8UC1);
+            Core.bitwise_not(grayRoi, inverted);
+            Mat blurred = gaussianTiled(inverted, ksize);
+            grayRoi.release();
+            MatPool.recycle(grayMat, inverted);
+            return blurred;
+        }
+
+        private int pyramidBlurLevel(int ksize) {
+            return blurBackend.get() == BlurBackend.PYRAMID
+                    ? PyramidBlur.levelFor(ksize, bitmap.getHeight(), bitmap.getWidth()) : 0;
+        }
+
+        /** Level 0 is the grayscale frame itself; every further level halves it with pyrDown. */
+        Mat pyramid(int level) {
+            if (level <= 0) {
+                return gray();
+            }
+            return memo("pyr:" + level, () -> {
+                Mat larger = pyramid(level - 1);
+                Mat smaller = MatPool.obtain((larger.rows() + 1) / 2, (larger.cols() + 1) / 2, larger.type());
+                Imgproc.pyrDown(larger, smaller);
+                MatPool.recycle(larger);
+                return smaller;
+            });
+        }
+
+        Mat simplified() {
+            return memo("simplified", () -> {
+                Mat downscaled = pyramid(1);
+                Mat simplifiedMat = getSimplifiedImage(downscaled);
+                MatPool.recycle(downscaled);
+                return simplifiedMat;
+            });
+        }
+
+        Mat bilateral(int d) {
+            return memo("bilateral:" + d, () -> {
+                Mat grayMat = gray();
+                Mat simplifiedMat = MatPool.obtainLike(grayMat);
+                Imgproc.bilateralFilter(grayMat, simplifiedMat, d, 80, 80);
+                MatPool.recycle(grayMat);
+                return simplifiedMat;
+            });
+        }
+
+        Mat adaptiveThresholdOfBilateral(int d, int blockSize) {
+            return memo("bilateral:" + d + "/athresh:" + blockSize, () -> {
+                Mat simplifiedMat = bilateral(d);
+                Mat shapes = MatPool.obtainLike(simplifiedMat);
+                Imgproc.adaptiveThreshold(simplifiedMat, shapes, 255, Imgproc.ADAPTIVE_THRESH_MEAN_C, Imgproc.THRESH_BINARY_INV, blockSize, 2);
+                MatPool.recycle(simplifiedMat);
+                return shapes;
+            });
         }
 
-        return resultBitmap;
+        Mat cannyOfGray(int threshold1, int threshold2) {
+            return canny("gray", this::gray, threshold1, threshold2);
+        }
+
+        Mat cannyOfGaussian(int ksize, int threshold1, int threshold2) {
+            return canny("gauss:" + ksize, () -> gaussian(ksize), threshold1, threshold2);
+        }
+
+        Mat cannyOfSimplified(int threshold1, int threshold2) {
+            return canny("simplified", this::simplified, threshold1, threshold2);
+        }
+
+        /**
+         * With stage caching on, gradients and non-maximum suppression are cached per source, so
+         * another threshold pair on the same source, such as a sharpness slider move, only re-runs
+         * hysteresis. Without it the suppression would serve one threshold pair and be dropped,
+         * and Imgproc.Canny does all of it in a single pass.
+         */
+        private Mat canny(String source, StageCache.Producer sourceStage, int threshold1, int threshold2) {
+            if (frameKey == null) {
+                Mat input = sourceStage.produce();
+                Mat edges = MatPool.obtain(input.rows(), input.cols(), CvType.CV_8UC1);
+                Imgproc.Canny(input, edges, threshold1, threshold2);
+                MatPool.recycle(input);
+                return edges;
+            }
+            return memo(source + "/canny:" + threshold1 + ":" + threshold2, () -> {
+                Mat suppressed = memo(source + "/nms", () -> {
+                    Mat input = sourceStage.produce();
+                    Mat magnitude = CannyEngine.suppressedMagnitude(input);
+                    MatPool.recycle(input);
+                    return magnitude;
+                });
+                Mat edges = CannyEngine.hysteresis(suppressed, threshold1, threshold2);
+                MatPool.recycle(suppressed);
+                return edges;
+            });
+        }
+    }
+
+    // --- NEW METHOD FOR METHOD 9 ADJUSTMENTS ---
+    /**
+     * Applies the Method 9 slider adjustments (0-50, centered on 25) through AdjustmentLut.
+     * A mutable bitmap is adjusted in place and returned; an immutable one is copied first and
+     * recycled. Neutral settings return the bitmap untouched.
+     */
+    public static Bitmap applyMethod9Adjustments(Bitmap bitmap, int brightness, int contrast, int saturation, int temperature) {
+        AdjustmentLut lut = AdjustmentLut.forSettings(brightness, contrast, saturation, temperature);
+        if (lut.isIdentity()) {
+            return bitmap;
+        }
+        Bitmap target = bitmap;
+        if (!bitmap.isMutable()) {
+            target = bitmap.copy(Bitmap.Config.ARGB_8888, true);
+            bitmap.recycle();
+        }
+        lut.applyInPlace(target);
+        return target;
     }
 }
\ No newline at end of file
@@ -0,0 +1,157 @@
+package com.kop.app;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import org.opencv.android.Utils;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Finds video frames that are near duplicates of the last frame that was actually processed, so
+ * a batch can reuse that frame's output instead of running the whole method again. Frames are
+ * compared as small grayscale thumbnails, decoded with subsampling so a skipped frame is never
+ * decoded at full size.
+ *
+ * The difference is the mean absolute gray-level difference of the worst cell in a GRID x GRID
+ * grid, so motion confined to a small part of the frame is not averaged away. Comparing against
+ * the last processed frame rather than the previous one keeps slow drift from accumulating.
+ */
+public final class FrameDeltaDetector {
+
+    private static final String TAG = "FrameDeltaDetector";
+
+    /** SharedPreferences key of the threshold, in gray levels; 0 or less disables skipping. */
+    public static final String PREF_THRESHOLD = "FRAME_DELTA_THRESHOLD";
+    public static final float DEFAULT_THRESHOLD = 2.0f;
+
+    private static final int THUMBNAIL_WIDTH = 160;
+    private static final int GRID = 8;
+
+    private final float threshold;
+    private Mat reference;
+    private final List<Integer> reusedFrames = new ArrayList<>();
+
+    public FrameDeltaDetector(float threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * Compares a raw frame with the last frame that was not a near duplicate. A frame that
+     * differs enough becomes the new reference.
+     * @return true if the previous output can stand in for this frame.
+     */
+    public boolean isNearDuplicate(File rawFrame) {
+        if (threshold <= 0) {
+            return false;
+        }
+        Mat thumbnail = decodeThumbnail(rawFrame);
+        if (thumbnail == null) {
+            return false;
+        }
+        if (reference != null && reference.size().equals(thumbnail.size()) && difference(reference, thumbnail) < threshold) {
+            thumbnail.release();
+            return true;
+        }
+        if (reference != null) {
+            reference.release();
+        }
+        reference = thumbnail;
+        return false;
+    }
+
+    /** Records that the previous output was reused for this frame; safe from any worker. */
+    public synchronized void recordReuse(int frameIndex) {
+        reusedFrames.add(frameIndex);
+    }
+
+    public synchronized int getReusedCount() {
+        return reusedFrames.size();
+    }
+
+    /**
+     * @return A one-line summary, suitable for the completion dialog.
+     */
+    public synchronized String getSummary(int totalFrames) {
+        return String.format(Locale.US, "%d of %d frames were near-identical to the previous one and reused its output.",
+                reusedFrames.size(), totalFrames);
+    }
+
+    /**
+     * Writes the summary, the threshold and the reused frame indices to a text file.
+     */
+    public synchronized void writeReport(File file, int totalFrames) {
+        try (Writer out = new FileWriter(file)) {
+            out.write(getSummary(totalFrames) + "\n");
+            out.write(String.format(Locale.US, "Threshold: %.2f gray levels (worst %dx%d cell)\n", threshold, GRID, GRID));
+            out.write("Processed: " + (totalFrames - reusedFrames.size()) + "\n");
+            out.write("Reused: " + reusedFrames.size() + "\n");
+            // Workers record reuse as they finish, so the indices are sorted for the report.
+            List<Integer> sortedFrames = new ArrayList<>(reusedFrames);
+            Collections.sort(sortedFrames);
+            out.write("Reused frame indices: " + sortedFrames + "\n");
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write frame delta report " + file, e);
+        }
+    }
+
+    public void release() {
+        if (reference != null) {
+            reference.release();
+            reference = null;
+        }
+    }
+
+    private static double difference(Mat a, Mat b) {
+        Mat diff = new Mat();
+        Core.absdiff(a, b, diff);
+        Mat cells = new Mat();
+        Imgproc.resize(diff, cells, new Size(GRID, GRID), 0, 0, Imgproc.INTER_AREA);
+        double worst = Core.minMaxLoc(cells).maxVal;
+        diff.release();
+        cells.release();
+        return worst;
+    }
+
+    private static Mat decodeThumbnail(File file) {
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getAbsolutePath(), bounds);
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+            return null;
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = 1;
+        while (bounds.outWidth / (options.inSampleSize * 2) >= THUMBNAIL_WIDTH) {
+            options.inSampleSize *= 2;
+        }
+        Bitmap bitmap = BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+        if (bitmap == null) {
+            return null;
+        }
+
+        Mat rgbaMat = new Mat();
+        Utils.bitmapToMat(bitmap, rgbaMat);
+        bitmap.recycle();
+        Mat grayMat = new Mat();
+        Imgproc.cvtColor(rgbaMat, grayMat, Imgproc.COLOR_RGBA2GRAY);
+        int height = Math.max(GRID, Math.round((float) THUMBNAIL_WIDTH * grayMat.rows() / grayMat.cols()));
+        Mat thumbnail = new Mat();
+        Imgproc.resize(grayMat, thumbnail, new Size(THUMBNAIL_WIDTH, height), 0, 0, Imgproc.INTER_AREA);
+        rgbaMat.release();
+        grayMat.release();
+        return thumbnail;
+    }
+}
@@ -0,0 +1,547 @@
+package com.kop.app;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs a batch as three concurrent stages: a decode thread, one or more processing workers, and a
+ * writer thread that encodes and saves the processed frames. The stages are joined by bounded
+ * queues, so a stage that runs ahead blocks instead of piling up full-size bitmaps.
+ *
+ * Frames are decoded in order and handed to whichever worker is free, so they finish out of
+ * order. Their writes wait in a reorder buffer until every earlier frame is done, and the writer
+ * commits them in frame order, so output order and file names do not change. Workers only take
+ * frames within a window past the last committed one, which bounds the reorder buffer.
+ *
+ * Near-duplicate detection runs on the decode thread, in frame order, so a frame whose output
+ * will be reused is never decoded; neither is a frame a resumed batch already completed. A reused
+ * output is copied by the writer, in commit order, and only from a frame it wrote in this run. A commit
+ * listener hears, in order, of each frame the writer wrote in this run, which suits an append-only
+ * journal; frames that produced no output, or were completed before, are committed silently.
+ * A frame whose processing or saving fails stops the batch: it is never committed, and neither is
+ * any frame after it.
+ * Busy and blocked time is recorded per stage; the summary names the busiest stage as the
+ * bottleneck.
+ */
+public final class FramePipeline implements AutoCloseable {
+
+    private static final String TAG = "FramePipeline";
+
+    // Frames a worker may run ahead of the writer, counting the one it is processing.
+    private static final int FRAMES_IN_FLIGHT_PER_WORKER = 2;
+    // Full-size bitmaps a worker keeps alive: its input, its output and scan intermediates,
+    // plus its share of the decode queue and the reorder buffer.
+    private static final int FRAMES_PER_WORKER = 6;
+    private static final int MAX_WORKERS = 8;
+    private static final long POLL_MILLIS = 100;
+
+    /** Decodes, and prepares for processing, one frame; may return null for an unreadable frame. */
+    public interface FrameDecoder {
+        Bitmap decode(int frameIndex) throws Exception;
+    }
+
+    /** Decides, in frame order, whether a frame can reuse the previous frame's output. */
+    public interface DuplicateFilter {
+        boolean isNearDuplicate(int frameIndex);
+    }
+
+    /** Processes one frame on one of the workers, numbered from 0. */
+    public interface FrameProcessor {
+        void process(int worker, Frame frame) throws Exception;
+    }
+
+    /** Encodes and saves one processed frame, or reuses an earlier frame's output for it. */
+    public interface FrameWriter {
+        void write(int frameIndex, Bitmap bitmap) throws Exception;
+
+        /** Saves the output of an earlier frame as this frame's output. */
+        void copy(int sourceFrameIndex, int frameIndex) throws Exception;
+    }
+
+    /** Frames a resumed batch already completed; they are neither decoded nor processed. */
+    public interface CompletedFrames {
+        boolean isCompleted(int frameIndex);
+    }
+
+    /** Told, in frame order, of each frame once the writer has written its output in this run. */
+    public interface CommitListener {
+        void onCommitted(int frameIndex);
+    }
+
+    /** A decoded frame, in frame order. */
+    public static final class Frame {
+        public final int index;
+        /** The decoded frame, owned by the worker; null if unreadable or a near duplicate. */
+        public final Bitmap bitmap;
+        /** True if the previous output can stand in for this frame; bitmap is then null. */
+        public final boolean nearDuplicate;
+        private final boolean completed;
+        private final Exception error;
+
+        private Frame(int index, Bitmap bitmap, boolean nearDuplicate, boolean completed, Exception error) {
+            this.index = index;
+            this.bitmap = bitmap;
+            this.nearDuplicate = nearDuplicate;
+            this.completed = completed;
+            this.error = error;
+        }
+    }
+
+    private static final class WriteJob {
+        final int index;
+        final Bitmap bitmap;
+        final boolean recycle;
+        // The frame whose output this one copies, or -1 to write the bitmap.
+        final int sourceIndex;
+
+        WriteJob(int index, Bitmap bitmap, boolean recycle, int sourceIndex) {
+            this.index = index;
+            this.bitmap = bitmap;
+            this.recycle = recycle;
+            this.sourceIndex = sourceIndex;
+        }
+    }
+
+    private final int frameCount;
+    private final int workerCount;
+    private final int maxInFlight;
+    private final FrameDecoder decoder;
+    private final DuplicateFilter duplicates;
+    private final FrameWriter writer;
+    private final CompletedFrames completedFrames;
+    private final CommitListener commitListener;
+    private final BlockingQueue<Frame> decoded;
+    private final Thread decodeThread;
+    private final Thread writeThread;
+    private volatile boolean closed = false;
+
+    // Guards everything below; waiters are woken on every change.
+    private final Object lock = new Object();
+    private final Object takeLock = new Object();
+    private int nextTake = 0;
+    private int nextCommit = 0;
+    private final boolean[] finished;
+    // Frames whose writes all succeeded in this run.
+    private final boolean[] written;
+    // Writes of frames that are not committed yet, by frame index, in the order they were queued.
+    private final Map<Integer, List<WriteJob>> pendingWrites = new HashMap<>();
+    private boolean aborted = false;
+    private boolean writerStopped = false;
+    private Exception error;
+
+    // Stage timings, in nanoseconds. Worker timings are summed over the workers.
+    private final long startNanos = System.nanoTime();
+    private volatile long endNanos = 0;
+    private volatile long decodeBusyNanos = 0;
+    private volatile long decodeBlockedNanos = 0;
+    private volatile long writeBusyNanos = 0;
+    private volatile int skippedFrames = 0;
+    private final AtomicLong processBusyNanos = new AtomicLong();
+    private final AtomicLong processWaitingForDecodeNanos = new AtomicLong();
+    private final AtomicLong processWaitingForWriteNanos = new AtomicLong();
+
+    /**
+     * @param workerCount Processing workers that process() will run; also the number of decoded
+     *                    frames kept ready for them.
+     * @param duplicates May be null; so may completedFrames and commitListener.
+     */
+    public FramePipeline(int frameCount, int workerCount, FrameDecoder decoder, DuplicateFilter duplicates,
+                         FrameWriter writer, CompletedFrames completedFrames, CommitListener commitListener) {
+        this.frameCount = frameCount;
+        this.workerCount = Math.max(1, workerCount);
+        this.maxInFlight = this.workerCount * FRAMES_IN_FLIGHT_PER_WORKER;
+        this.decoder = decoder;
+        this.duplicates = duplicates;
+        this.writer = writer;
+        this.completedFrames = completedFrames;
+        this.commitListener = commitListener;
+        this.finished = new boolean[frameCount];
+        this.written = new boolean[frameCount];
+        decoded = new ArrayBlockingQueue<>(this.workerCount);
+        decodeThread = new Thread(this::decodeLoop, "FramePipeline-decode");
+        writeThread = new Thread(this::writeLoop, "FramePipeline-write");
+        decodeThread.start();
+        writeThread.start();
+    }
+
+    /**
+     * A worker count for this device: a core each, leaving one for the decode and write threads,
+     * and no more than a quarter of the available memory holds at FRAMES_PER_WORKER frames each.
+     * @param frameBytes The size of one decoded frame.
+     */
+    public static int defaultWorkerCount(long availableMemoryBytes, long frameBytes) {
+        int byCores = Runtime.getRuntime().availableProcessors() - 1;
+        long byMemory = availableMemoryBytes / 4 / Math.max(1, frameBytes * FRAMES_PER_WORKER);
+        return (int) Math.max(1, Math.min(MAX_WORKERS, Math.min(byCores, byMemory)));
+    }
+
+    public int getWorkerCount() {
+        return workerCount;
+    }
+
+    /**
+     * Runs every frame through the processor on the workers; worker 0 is the calling thread.
+     * A worker's thread keeps the per-thread state of its scans (pooled Mats, TFLite engines)
+     * for the whole batch. Returns once every frame is processed and committed.
+     * @throws Exception The first exception of the decoder, a worker or the writer, after the
+     * other workers have stopped.
+     */
+    public void process(FrameProcessor processor) throws Exception {
+        Thread[] helpers = new Thread[workerCount - 1];
+        for (int i = 0; i < helpers.length; i++) {
+            final int worker = i + 1;
+            helpers[i] = new Thread(() -> {
+                try {
+                    runWorker(worker, processor);
+                } finally {
+                    MatPool.clearCurrentThread();
+                }
+            }, "FramePipeline-worker-" + worker);
+            helpers[i].start();
+        }
+        runWorker(0, processor);
+        boolean interrupted = false;
+        for (Thread helper : helpers) {
+            while (true) {
+                try {
+                    helper.join();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (lock) {
+            if (error != null) {
+                throw error;
+            }
+        }
+        if (frameCount > 0) {
+            awaitCommitted(frameCount - 1);
+        }
+        synchronized (lock) {
+            if (error != null) {
+                throw error;
+            }
+        }
+    }
+
+    /**
+     * Queues a processed frame for the writer. It is written once every earlier frame has been
+     * processed, so the bitmap must not change until then; it is recycled afterwards if
+     * recycleAfterWrite is set. Once the batch has stopped, the frame is dropped instead.
+     */
+    public void write(int frameIndex, Bitmap bitmap, boolean recycleAfterWrite) {
+        queue(new WriteJob(frameIndex, bitmap, recycleAfterWrite, -1));
+    }
+
+    /**
+     * Reuses the previous frame's output for this frame, if the writer wrote it in this run; the
+     * writer copies it when this frame commits. Call once the previous frame is committed.
+     * @return true if the copy is queued; false if there is no output of this run to reuse.
+     */
+    public boolean reusePreviousOutput(int frameIndex) {
+        synchronized (lock) {
+            if (frameIndex == 0 || !written[frameIndex - 1]) {
+                return false;
+            }
+        }
+        queue(new WriteJob(frameIndex, null, false, frameIndex - 1));
+        return true;
+    }
+
+    private void queue(WriteJob job) {
+        int frameIndex = job.index;
+        synchronized (lock) {
+            if (!writerStopped) {
+                List<WriteJob> jobs = pendingWrites.get(frameIndex);
+                if (jobs == null) {
+                    jobs = new ArrayList<>(1);
+                    pendingWrites.put(frameIndex, jobs);
+                }
+                jobs.add(job);
+                return;
+            }
+        }
+        Log.w(TAG, "Dropping processed frame " + frameIndex + "; the batch has stopped.");
+        recycleIfOwned(job);
+    }
+
+    /** Waits until the given frame, and so every frame before it, has been written. */
+    public void awaitCommitted(int frameIndex) throws InterruptedException {
+        long waitStart = System.nanoTime();
+        synchronized (lock) {
+            while (nextCommit <= frameIndex && !aborted && !writerStopped) {
+                lock.wait();
+            }
+        }
+        processWaitingForWriteNanos.addAndGet(System.nanoTime() - waitStart);
+    }
+
+    /**
+     * Stops decoding, recycles frames that were decoded but not processed, and waits for every
+     * committed write to finish. Writes of frames that could not be committed are dropped.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        synchronized (lock) {
+            aborted = true;
+            lock.notifyAll();
+        }
+        decodeThread.interrupt();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                decodeThread.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        for (Frame frame; (frame = decoded.poll()) != null; ) {
+            if (frame.bitmap != null) {
+                frame.bitmap.recycle();
+            }
+        }
+        while (true) {
+            try {
+                writeThread.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        synchronized (lock) {
+            for (List<WriteJob> jobs : pendingWrites.values()) {
+                for (WriteJob job : jobs) {
+                    Log.w(TAG, "Dropping processed frame " + job.index + "; an earlier frame never finished.");
+                    recycleIfOwned(job);
+                }
+            }
+            pendingWrites.clear();
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        endNanos = System.nanoTime();
+    }
+
+    public String getStatsSummary() {
+        long end = endNanos != 0 ? endNanos : System.nanoTime();
+        double wall = Math.max(1, end - startNanos);
+        double workerWall = wall * workerCount;
+        double decodeBusy = decodeBusyNanos / wall * 100;
+        double processBusy = processBusyNanos.get() / workerWall * 100;
+        double writeBusy = writeBusyNanos / wall * 100;
+        String bottleneck = processBusy >= decodeBusy && processBusy >= writeBusy ? "process"
+                : decodeBusy >= writeBusy ? "decode" : "write";
+        return String.format(Locale.US,
+                "Frame pipeline over %.1fs with %d workers, %d frames already complete: decode busy %.0f%% (blocked on process %.0f%%), "
+                        + "process busy %.0f%% (waiting for decode %.0f%%, for write %.0f%%), write busy %.0f%%; bottleneck: %s",
+                wall / 1e9, workerCount, skippedFrames, decodeBusy, decodeBlockedNanos / wall * 100,
+                processBusy, processWaitingForDecodeNanos.get() / workerWall * 100,
+                processWaitingForWriteNanos.get() / workerWall * 100, writeBusy, bottleneck);
+    }
+
+    public void logStats() {
+        Log.d(TAG, getStatsSummary());
+    }
+
+    private void runWorker(int worker, FrameProcessor processor) {
+        try {
+            Frame frame;
+            while ((frame = take()) != null) {
+                if (frame.completed) {
+                    finish(frame.index);
+                    continue;
+                }
+                long start = System.nanoTime();
+                try {
+                    processor.process(worker, frame);
+                } finally {
+                    processBusyNanos.addAndGet(System.nanoTime() - start);
+                }
+                // Only a frame that processed normally may be committed.
+                finish(frame.index);
+            }
+        } catch (Exception e) {
+            abort(e);
+        }
+    }
+
+    /** Stops the batch, keeping the first error for process() to throw. */
+    private void abort(Exception e) {
+        synchronized (lock) {
+            if (error == null) {
+                error = e;
+            }
+            aborted = true;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Takes the next frame in order, once it is within the window past the last committed frame.
+     * @return The frame, or null once every frame has been taken or the batch has stopped.
+     */
+    private Frame take() throws Exception {
+        synchronized (takeLock) {
+            long waitStart = System.nanoTime();
+            synchronized (lock) {
+                while (!aborted && nextTake < frameCount && nextTake >= nextCommit + maxInFlight) {
+                    lock.wait();
+                }
+                processWaitingForWriteNanos.addAndGet(System.nanoTime() - waitStart);
+                if (aborted || nextTake >= frameCount) {
+                    return null;
+                }
+                nextTake++;
+            }
+            waitStart = System.nanoTime();
+            Frame frame;
+            // Polled, so a worker notices when another worker or close() stops the batch.
+            while ((frame = decoded.poll(POLL_MILLIS, TimeUnit.MILLISECONDS)) == null) {
+                synchronized (lock) {
+                    if (aborted) {
+                        return null;
+                    }
+                }
+            }
+            processWaitingForDecodeNanos.addAndGet(System.nanoTime() - waitStart);
+            if (frame.error != null) {
+                throw frame.error;
+            }
+            return frame;
+        }
+    }
+
+    private void finish(int frameIndex) {
+        synchronized (lock) {
+            finished[frameIndex] = true;
+            lock.notifyAll();
+        }
+    }
+
+    private void decodeLoop() {
+        for (int i = 0; i < frameCount && !closed; i++) {
+            long start = System.nanoTime();
+            Frame frame;
+            try {
+                // Frame 0 only becomes the reference; there is no previous output to reuse.
+                // Completed frames are still compared, so later frames see the same reference.
+                boolean nearDuplicate = duplicates != null && duplicates.isNearDuplicate(i) && i > 0;
+                if (completedFrames != null && completedFrames.isCompleted(i)) {
+                    frame = new Frame(i, null, false, true, null);
+                    skippedFrames++;
+                } else {
+                    frame = new Frame(i, nearDuplicate ? null : decoder.decode(i), nearDuplicate, false, null);
+                }
+            } catch (Exception e) {
+                frame = new Frame(i, null, false, false, e);
+            }
+            long decodedAt = System.nanoTime();
+            decodeBusyNanos += decodedAt - start;
+            try {
+                decoded.put(frame);
+            } catch (InterruptedException e) {
+                if (frame.bitmap != null) {
+                    frame.bitmap.recycle();
+                }
+                return;
+            }
+            decodeBlockedNanos += System.nanoTime() - decodedAt;
+            if (frame.error != null) {
+                return;
+            }
+        }
+    }
+
+    // Commits frames strictly in order: frame n is written only once frames 0..n-1 are.
+    private void writeLoop() {
+        try {
+            while (true) {
+                int index;
+                List<WriteJob> jobs;
+                synchronized (lock) {
+                    while (!(nextCommit < frameCount && finished[nextCommit]) && !aborted) {
+                        lock.wait();
+                    }
+                    if (!(nextCommit < frameCount && finished[nextCommit])) {
+                        return;
+                    }
+                    index = nextCommit;
+                    jobs = pendingWrites.remove(index);
+                }
+                long start = System.nanoTime();
+                if (jobs != null) {
+                    if (!runWrites(jobs)) {
+                        return;
+                    }
+                    synchronized (lock) {
+                        written[index] = true;
+                    }
+                    if (commitListener != null) {
+                        commitListener.onCommitted(index);
+                    }
+                }
+                writeBusyNanos += System.nanoTime() - start;
+                synchronized (lock) {
+                    nextCommit = index + 1;
+                    lock.notifyAll();
+                }
+            }
+        } catch (InterruptedException e) {
+            // Nothing interrupts the writer; stop as if the batch had ended.
+        } finally {
+            synchronized (lock) {
+                writerStopped = true;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Writes one frame's jobs in order. If one fails, the rest are dropped and the batch stops.
+     * @return true if every job was written.
+     */
+    private boolean runWrites(List<WriteJob> jobs) {
+        boolean written = true;
+        for (WriteJob job : jobs) {
+            if (written) {
+                try {
+                    if (job.sourceIndex >= 0) {
+                        writer.copy(job.sourceIndex, job.index);
+                    } else {
+                        writer.write(job.index, job.bitmap);
+                    }
+                } catch (Exception e) {
+                    Log.e(TAG, "Failed to save processed frame " + job.index, e);
+                    abort(e);
+                    written = false;
+                }
+            }
+            recycleIfOwned(job);
+        }
+        return written;
+    }
+
+    private static void recycleIfOwned(WriteJob job) {
+        if (job.recycle && job.bitmap != null && !job.bitmap.isRecycled()) {
+            job.bitmap.recycle();
+        }
+    }
+}
@@ -11,7 +11,11 @@ import org.opencv.core.Mat;
 import org.opencv.core.Size;
 import org.opencv.imgproc.Imgproc;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 
 /**
@@ -23,6 +27,8 @@ public class ImageProcessor {
     /**
      * Saves a bitmap to a specified file path as a PNG.
      * This method is now the sole responsibility of this class.
+     * The PNG is written to a temporary file, synced and renamed into place, so the path never
+     * holds a partly written image, even after a crash or a power loss.
      *
      * @param bmp The bitmap to save.
      * @param path The absolute path where the file will be saved.
@@ -32,15 +38,44 @@ public class ImageProcessor {
         if (bmp == null) {
             return;
         }
-        FileOutputStream out = null;
-        try {
-            out = new FileOutputStream(path);
+        File temp = new File(path + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
             // Using PNG format to preserve the sharpness of the final line art.
-            bmp.compress(Bitmap.CompressFormat.PNG, 100, out);
-        } finally {
-            if (out != null) {
-                out.close();
+            if (!bmp.compress(Bitmap.CompressFormat.PNG, 100, out)) {
+                throw new IOException("Could not encode " + path);
             }
+            out.getFD().sync();
+        } catch (Exception e) {
+            temp.delete();
+            throw e;
+        }
+        moveIntoPlace(temp, new File(path));
+    }
+
+    /**
+     * Copies a file the way saveBitmap writes one: to a temporary file, synced and renamed into
+     * place.
+     */
+    public static void copyFileDurably(File source, File dest) throws IOException {
+        File temp = new File(dest.getPath() + ".tmp");
+        try (InputStream in = new FileInputStream(source); FileOutputStream out = new FileOutputStream(temp)) {
+            byte[] buf = new byte[64 * 1024];
+            int len;
+            while ((len = in.read(buf)) > 0) {
+                out.write(buf, 0, len);
+            }
+            out.getFD().sync();
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+        moveIntoPlace(temp, dest);
+    }
+
+    private static void moveIntoPlace(File temp, File dest) throws IOException {
+        if (!temp.renameTo(dest)) {
+            temp.delete();
+            throw new IOException("Could not move " + temp + " to " + dest);
         }
     }
 
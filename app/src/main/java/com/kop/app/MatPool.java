@@ -0,0 +1,196 @@
+package com.kop.app;
+
+import android.util.Log;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A per-thread pool of OpenCV Mats, keyed by rows, columns and type.
+ * DeepScanProcessor borrows its per-frame intermediates from here and hands them back when a
+ * pass is done, so a batch of same-sized frames stops allocating native memory after the
+ * first frame. Every worker thread owns its own pool, so no locking is needed on the hot path.
+ */
+public final class MatPool {
+
+    private static final String TAG = "MatPool";
+
+    // Upper bounds for what a single thread keeps around between frames.
+    private static final int MAX_MATS_PER_KEY = 8;
+    private static final long MAX_BYTES_PER_THREAD = 256L * 1024 * 1024;
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    // Structuring elements are tiny and read-only, so one shared copy per shape is enough.
+    private static final ConcurrentHashMap<Long, Mat> kernelCache = new ConcurrentHashMap<>();
+
+    private static final class ThreadPool {
+        final HashMap<Long, ArrayDeque<Mat>> free = new HashMap<>();
+        long pooledBytes = 0;
+        long maxBytes = MAX_BYTES_PER_THREAD;
+    }
+
+    private static final ThreadLocal<ThreadPool> threadPools = new ThreadLocal<ThreadPool>() {
+        @Override
+        protected ThreadPool initialValue() {
+            return new ThreadPool();
+        }
+    };
+
+    private MatPool() {}
+
+    /**
+     * Borrows a Mat of the given geometry and type. The content is undefined, so callers must
+     * either fully overwrite it or clear it with setTo() before reading.
+     */
+    public static Mat obtain(int rows, int cols, int type) {
+        ThreadPool pool = threadPools.get();
+        ArrayDeque<Mat> bucket = pool.free.get(key(rows, cols, type));
+        if (bucket != null && !bucket.isEmpty()) {
+            Mat mat = bucket.pop();
+            pool.pooledBytes -= byteSize(mat);
+            hits.incrementAndGet();
+            return mat;
+        }
+        misses.incrementAndGet();
+        return new Mat(rows, cols, type);
+    }
+
+    public static Mat obtain(Size size, int type) {
+        return obtain((int) size.height, (int) size.width, type);
+    }
+
+    public static Mat obtainLike(Mat template) {
+        return obtain(template.rows(), template.cols(), template.type());
+    }
+
+    /**
+     * Returns Mats to the calling thread's pool. Empty Mats, sub-matrices and anything beyond
+     * the pool limits are released instead. Null entries are ignored.
+     */
+    public static void recycle(Mat... mats) {
+        ThreadPool pool = threadPools.get();
+        for (Mat mat : mats) {
+            if (mat == null) {
+                continue;
+            }
+            if (mat.empty() || mat.isSubmatrix() || !mat.isContinuous()) {
+                mat.release();
+                continue;
+            }
+            long bytes = byteSize(mat);
+            Long key = key(mat.rows(), mat.cols(), mat.type());
+            ArrayDeque<Mat> bucket = pool.free.get(key);
+            if (bucket == null) {
+                bucket = new ArrayDeque<>();
+                pool.free.put(key, bucket);
+            }
+            if (containsInstance(bucket, mat)) {
+                continue; // Already handed back; never pool the same Mat twice.
+            }
+            if (bucket.size() >= MAX_MATS_PER_KEY || pool.pooledBytes + bytes > pool.maxBytes) {
+                mat.release();
+                continue;
+            }
+            bucket.push(mat);
+            pool.pooledBytes += bytes;
+        }
+    }
+
+    /**
+     * Lowers what the calling thread keeps pooled, for threads that live as long as the app and
+     * would otherwise hold the full per-thread budget between frames. Lasts until
+     * clearCurrentThread.
+     */
+    public static void limitCurrentThread(long maxBytes) {
+        ThreadPool pool = threadPools.get();
+        pool.maxBytes = Math.min(maxBytes, MAX_BYTES_PER_THREAD);
+    }
+
+    /**
+     * Releases every Mat pooled by the calling thread. Worker threads call this when their batch
+     * is finished so the native memory does not outlive them.
+     */
+    public static void clearCurrentThread() {
+        ThreadPool pool = threadPools.get();
+        for (ArrayDeque<Mat> bucket : pool.free.values()) {
+            for (Mat mat : bucket) {
+                mat.release();
+            }
+        }
+        pool.free.clear();
+        pool.pooledBytes = 0;
+        threadPools.remove();
+    }
+
+    /**
+     * Returns a shared rectangular structuring element. The returned Mat must never be released
+     * or written to by the caller.
+     */
+    public static Mat rectKernel(int width, int height) {
+        Long key = ((long) width << 32) | (height & 0xffffffffL);
+        Mat kernel = kernelCache.get(key);
+        if (kernel == null) {
+            kernel = Imgproc.getStructuringElement(Imgproc.MORPH_RECT, new Size(width, height));
+            Mat existing = kernelCache.putIfAbsent(key, kernel);
+            if (existing != null) {
+                kernel.release();
+                kernel = existing;
+            }
+        }
+        return kernel;
+    }
+
+    public static long getHitCount() {
+        return hits.get();
+    }
+
+    public static long getMissCount() {
+        return misses.get();
+    }
+
+    public static void resetStats() {
+        hits.set(0);
+        misses.set(0);
+    }
+
+    /**
+     * @return A one-line summary of the pool counters, suitable for logging after a batch.
+     */
+    public static String getStatsSummary() {
+        long h = hits.get();
+        long m = misses.get();
+        long total = h + m;
+        float hitRate = total == 0 ? 0f : (h * 100f) / total;
+        return String.format(Locale.US, "Mat pool: %d hits, %d misses (%.1f%% hit rate)", h, m, hitRate);
+    }
+
+    public static void logStats() {
+        Log.d(TAG, getStatsSummary());
+    }
+
+    private static Long key(int rows, int cols, int type) {
+        return ((long) rows << 40) | ((long) cols << 16) | (type & 0xffff);
+    }
+
+    private static long byteSize(Mat mat) {
+        return mat.total() * mat.elemSize();
+    }
+
+    private static boolean containsInstance(ArrayDeque<Mat> bucket, Mat mat) {
+        for (Mat pooled : bucket) {
+            if (pooled == mat) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
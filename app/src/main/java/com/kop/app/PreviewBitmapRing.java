@@ -0,0 +1,75 @@
+package com.kop.app;
+
+import android.graphics.Bitmap;
+
+import java.util.Arrays;
+
+/**
+ * A small ring of reusable ARGB bitmaps for scan progress previews. Previews are only ever shown,
+ * never saved, so they are rendered at display size into the next bitmap of the ring instead of
+ * allocating a full-resolution bitmap per pass. A bitmap stays in use from obtain until its
+ * consumer hands it back with release, once it is no longer on screen; consumers must never
+ * recycle it.
+ */
+public final class PreviewBitmapRing {
+
+    // Long edge of a preview, in pixels; matches the proxy size used for slider previews.
+    public static final int PREVIEW_LONG_EDGE = 1080;
+    // One bitmap on screen, one queued for the UI thread and one being drawn into.
+    private static final int RING_SIZE = 3;
+
+    private static final Bitmap[] ring = new Bitmap[RING_SIZE];
+    private static final boolean[] inUse = new boolean[RING_SIZE];
+    private static int next = 0;
+
+    private PreviewBitmapRing() {}
+
+    /**
+     * @return The scale that fits a frame of this size into PREVIEW_LONG_EDGE, at most 1.
+     */
+    public static double scaleFor(int width, int height) {
+        int longEdge = Math.max(width, height);
+        return longEdge <= PREVIEW_LONG_EDGE ? 1.0 : (double) PREVIEW_LONG_EDGE / longEdge;
+    }
+
+    /**
+     * Returns the next bitmap of the ring that is not in use, replacing it if its size does not
+     * match, and marks it in use. If every bitmap is still in use, returns a new bitmap outside
+     * the ring, which is left to the garbage collector once released.
+     */
+    public static synchronized Bitmap obtain(int width, int height) {
+        for (int i = 0; i < RING_SIZE; i++) {
+            int slot = (next + i) % RING_SIZE;
+            if (inUse[slot]) {
+                continue;
+            }
+            Bitmap bitmap = ring[slot];
+            if (bitmap == null || bitmap.isRecycled() || bitmap.getWidth() != width || bitmap.getHeight() != height) {
+                bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                ring[slot] = bitmap;
+            }
+            inUse[slot] = true;
+            next = (slot + 1) % RING_SIZE;
+            return bitmap;
+        }
+        return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * Hands a bitmap back to the ring once it is no longer shown, or was dropped before it was.
+     * Bitmaps that did not come from the ring are ignored.
+     */
+    public static synchronized void release(Bitmap bitmap) {
+        for (int slot = 0; slot < RING_SIZE; slot++) {
+            if (ring[slot] == bitmap) {
+                inUse[slot] = false;
+            }
+        }
+    }
+
+    public static synchronized void clear() {
+        Arrays.fill(ring, null);
+        Arrays.fill(inUse, false);
+        next = 0;
+    }
+}
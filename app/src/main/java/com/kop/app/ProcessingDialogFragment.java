@@ -1,5 +1,6 @@
 package com.kop.app;
 
+import android.app.ActivityManager;
 import android.app.Dialog;
 import android.content.Context;
 import android.content.DialogInterface;
@@ -8,8 +9,13 @@ import android.content.res.AssetFileDescriptor;
 import android.content.res.AssetManager;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
 import android.graphics.drawable.BitmapDrawable;
+import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
 import android.os.Handler;
@@ -41,8 +47,6 @@ import androidx.fragment.app.DialogFragment;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
-import org.tensorflow.lite.Interpreter;
-
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -59,6 +63,7 @@ import java.util.Date;
 import java.util.List;
 import java.util.Locale;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class ProcessingDialogFragment extends DialogFragment {
 
@@ -66,6 +71,10 @@ public class ProcessingDialogFragment extends DialogFragment {
     private static final String ARG_FILE_PATH = "file_path";
     // MERGED: Argument for multiple file paths
     private static final String ARG_FILE_PATHS = "file_paths";
+    // Slider previews run on a copy of the source scaled down to this long edge.
+    private static final int PREVIEW_PROXY_LONG_EDGE = 1080;
+    // What a long-lived thread running slider previews keeps pooled in MatPool between previews.
+    private static final long PREVIEW_POOL_BYTES = 16L * 1024 * 1024;
 
     private ImageView mainDisplay;
     private ImageView overlayDisplay;
@@ -96,8 +105,26 @@ public class ProcessingDialogFragment extends DialogFragment {
     private SeekBar sliderDepth, sliderSharpness;
     private TextView tvDepthLabel, tvSharpnessLabel;
     private Bitmap sourceBitmapForTuning;
+    private Bitmap previewProxyBitmap;
+    private Bitmap adjustedPreviewBitmap;
+    private Bitmap adjustedPreviewBase;
+    private int[] adjustedPreviewSettings;
+    private boolean blurAccuracyLogged;
     private boolean isFirstFineTuneAnalysis = true;
 
+    /**
+     * Re-renders the currently displayed preview from the full-resolution source. Set while the
+     * display shows a proxy render, so Save never writes a downscaled result.
+     */
+    private interface FullResolutionRender {
+        Bitmap render();
+    }
+    private volatile FullResolutionRender fullResolutionRender;
+
+    // The bitmap waiting for the UI thread, and the one on screen; see updateMainDisplay.
+    private final AtomicReference<Bitmap> pendingMainDisplay = new AtomicReference<>();
+    private Bitmap shownMainDisplay;
+
     private LinearLayout ksizeControlsContainer;
     private SeekBar sliderKsize;
 
@@ -122,6 +149,11 @@ public class ProcessingDialogFragment extends DialogFragment {
     private ImageButton btnUpdateApiKey;
     private Switch switchEnableAi;
     private Bitmap goldStandardBitmap = null;
+    // Frame rate the current video was extracted at; video segmentation derives timestamps from it.
+    private int extractionFps = 12;
+    private VideoSegmentationSession videoSegmentation;
+    // The running batch's pipeline; saveProcessedFrame hands frames to its writer.
+    private volatile FramePipeline framePipeline;
 
     private Spinner styleSpinner;
     private LinearLayout aiStyleControlsContainer;
@@ -216,6 +248,10 @@ public class ProcessingDialogFragment extends DialogFragment {
             goldStandardBitmap.recycle();
             goldStandardBitmap = null;
         }
+        StageCache.clear();
+        SegmenterPool.shutdown();
+        SegmentationMaskCache.clearMemory();
+        PreviewBitmapRing.clear();
         if (closeListener != null) {
             closeListener.onDialogClosed();
         }
@@ -313,7 +349,10 @@ public class ProcessingDialogFragment extends DialogFragment {
                     final boolean isVideo = isVideoFile(inputFilePath) && !isZipMode && !isMultiImageMode;
 
                     if (isVideo) {
-                        extractFramesForVideo(12);
+                        // A resumed project keeps the rate its raw frames were extracted at.
+                        int extractedFps = BatchManifest.extractedFps(new File(rawFramesDir).getParentFile(),
+                                BatchManifest.inputSignature(new File(inputFilePath)));
+                        extractFramesForVideo(extractedFps > 0 ? extractedFps : 12);
                     } else if (isZipMode) {
                         extractFramesFromZip();
                     } else if (isMultiImageMode) {
@@ -325,7 +364,7 @@ public class ProcessingDialogFragment extends DialogFragment {
                     }
 
                     if (rawFrames != null && !rawFrames.isEmpty()) {
-                        sourceBitmapForTuning = decodeAndRotateBitmap(rawFrames.get(0).getAbsolutePath());
+                        setSourceBitmapForTuning(decodeAndRotateBitmap(rawFrames.get(0).getAbsolutePath()));
                         uiHandler.post(new Runnable() {
                             @Override
                             public void run() {
@@ -422,6 +461,11 @@ public class ProcessingDialogFragment extends DialogFragment {
             fpsAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
             fpsSpinner.setAdapter(fpsAdapter);
             fpsSpinner.setSelection(2); // Default to 12 FPS
+            for (int i = 0; i < fpsAdapter.getCount(); i++) {
+                if (fpsAdapter.getItem(i).toString().equals(extractionFps + " FPS")) {
+                    fpsSpinner.setSelection(i);
+                }
+            }
 
             fpsSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
                 @Override
@@ -682,6 +726,11 @@ public class ProcessingDialogFragment extends DialogFragment {
         if (sourceBitmapForTuning == null) {
             return;
         }
+        fullResolutionRender = null;
+        // Slider previews rerun the same source, so their stages are worth caching.
+        DeepScanProcessor.setStageCaching(true);
+        // Methods 2 to 10 preview on the calling thread, which for a slider is the main thread.
+        MatPool.limitCurrentThread(PREVIEW_POOL_BYTES);
 
         // Method 9 has its own preview logic now
         if (selectedMethod == 8) {
@@ -693,7 +742,7 @@ public class ProcessingDialogFragment extends DialogFragment {
             beginAutomaticAiScan(selectedMethod);
         } else if (selectedMethod == 2) {
             try {
-                beginMethod1LiveScan(sourceBitmapForTuning, 0);
+                beginMethod1LiveScan(sourceBitmapForTuning, 0, true);
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
             }
@@ -713,35 +762,56 @@ public class ProcessingDialogFragment extends DialogFragment {
         
         updateStatus("Applying adjustments...", true);
         
+        final Bitmap fullSource = sourceBitmapForTuning;
+        final int brightness = brightnessValue, contrast = contrastValue, saturation = saturationValue, temperature = temperatureValue;
+
         new Thread(new Runnable() {
             @Override
             public void run() {
-                // Apply adjustments first
-                Bitmap adjustedBitmap = DeepScanProcessor.applyMethod9Adjustments(
-                    sourceBitmapForTuning.copy(Bitmap.Config.ARGB_8888, true),
-                    brightnessValue, contrastValue, saturationValue, temperatureValue
-                );
-
-                // Then run the original method 9 scan on the adjusted bitmap
-                DeepScanProcessor.ScanListener listener = new DeepScanProcessor.ScanListener() {
-                    @Override
-                    public void onScanProgress(int pass, int totalPasses, String status, Bitmap intermediateResult) {}
-                    @Override
-                    public void onScanComplete(final DeepScanProcessor.ProcessingResult finalResult) {
-                        uiHandler.post(new Runnable() {
-                            @Override
-                            public void run() {
-                                updateMainDisplay(finalResult.resultBitmap);
-                                statusTextView.setText("Adjust sliders or Save.");
-                                btnSave.setVisibility(View.VISIBLE);
-                                progressBar.setVisibility(View.GONE);
-                                setUiEnabled(true);
-                                analysisControlsContainer.setVisibility(View.VISIBLE);
-                            }
-                        });
-                    }
-                };
-                DeepScanProcessor.processMethod9(adjustedBitmap, listener);
+                try {
+                    final Bitmap previewSource = getPreviewSource();
+                    final float previewScale = getPreviewScale();
+                    DeepScanProcessor.setStageCaching(true);
+
+                    // Apply adjustments first; the adjusted proxy is cached until a setting changes
+                    Bitmap adjustedBitmap = getAdjustedPreviewSource(previewSource, brightness, contrast, saturation, temperature);
+
+                    // Then run the original method 9 scan on the adjusted bitmap
+                    DeepScanProcessor.ScanListener listener = new DeepScanProcessor.ResultOnlyScanListener() {
+                        @Override
+                        public void onScanComplete(final DeepScanProcessor.ProcessingResult finalResult) {
+                            uiHandler.post(new Runnable() {
+                                @Override
+                                public void run() {
+                                    updateMainDisplay(finalResult.resultBitmap);
+                                    fullResolutionRender = previewSource == fullSource ? null : () -> {
+                                        Bitmap adjusted = DeepScanProcessor.applyMethod9Adjustments(
+                                            fullSource.copy(Bitmap.Config.ARGB_8888, true),
+                                            brightness, contrast, saturation, temperature
+                                        );
+                                        final Bitmap[] rendered = new Bitmap[1];
+                                        DeepScanProcessor.processMethod9(adjusted, new DeepScanProcessor.ResultOnlyScanListener() {
+                                            @Override
+                                            public void onScanComplete(DeepScanProcessor.ProcessingResult result) {
+                                                rendered[0] = result.resultBitmap;
+                                            }
+                                        });
+                                        adjusted.recycle();
+                                        return rendered[0];
+                                    };
+                                    statusTextView.setText("Adjust sliders or Save.");
+                                    btnSave.setVisibility(View.VISIBLE);
+                                    progressBar.setVisibility(View.GONE);
+                                    setUiEnabled(true);
+                                    analysisControlsContainer.setVisibility(View.VISIBLE);
+                                }
+                            });
+                        }
+                    };
+                    DeepScanProcessor.processMethod9(adjustedBitmap, previewScale, listener);
+                } finally {
+                    MatPool.clearCurrentThread();
+                }
             }
         }).start();
     }
@@ -791,8 +861,11 @@ public class ProcessingDialogFragment extends DialogFragment {
                     }
                 } catch (final Exception e) {
                     Log.e(TAG, "Analysis failed", e);
+                    closeVideoSegmentation();
                     String message = (e.getMessage() != null) ? e.getMessage() : "An unknown error occurred.";
                     showErrorDialog("Processing Error", message, true);
+                } finally {
+                    MatPool.clearCurrentThread();
                 }
             }
         }).start();
@@ -805,7 +878,7 @@ public class ProcessingDialogFragment extends DialogFragment {
                 // If re-editing, use the stored index, otherwise use the first frame (0)
                 int frameIndex = isReEditing ? reEditFrameIndex : 0;
                 if (rawFrames != null && rawFrames.size() > frameIndex) {
-                    sourceBitmapForTuning = decodeAndRotateBitmap(rawFrames.get(frameIndex).getAbsolutePath());
+                    setSourceBitmapForTuning(decodeAndRotateBitmap(rawFrames.get(frameIndex).getAbsolutePath()));
                     isFirstFineTuneAnalysis = false;
                 } else {
                     showErrorDialog("Error", "Source frame missing.", true);
@@ -825,7 +898,6 @@ public class ProcessingDialogFragment extends DialogFragment {
         final int ksize = sliderKsize.getProgress();
         final int depth = sliderDepth.getProgress();
         final int sharpness = sliderSharpness.getProgress();
-        int currentKsize = ksize;
 
         if (goldStandardBitmap != null && !goldStandardBitmap.isRecycled()) {
             goldStandardBitmap.recycle();
@@ -833,118 +905,220 @@ public class ProcessingDialogFragment extends DialogFragment {
         goldStandardBitmap = null;
 
         uiHandler.post(() -> progressBar.setVisibility(View.VISIBLE));
-        
-        // This is the correct method index check for Style Transfer (Method 14)
-        if (selectedMethod == 13) {
-            updateStatus("Preparing AI Style Transfer...", true);
-            Interpreter predictionInterpreter = null;
-            Interpreter transferInterpreter = null;
-            try {
-                Interpreter.Options options = new Interpreter.Options();
-                MappedByteBuffer predictionModel = loadModelFile("magenta_prediction.tflite");
-                predictionInterpreter = new Interpreter(predictionModel, options);
-                MappedByteBuffer transferModel = loadModelFile("magenta_transfer.tflite");
-                transferInterpreter = new Interpreter(transferModel, options);
-
-                int selectedStyleIndex = styleSpinner.getSelectedItemPosition();
-                String styleAssetName = styleAssetFiles[selectedStyleIndex];
-                Bitmap styleBitmap = loadBitmapFromAssets(styleAssetName);
-                updateStatus("Analyzing Art Style...", true);
-                float[] styleVector = DeepScanProcessor.runStylePrediction(styleBitmap, predictionInterpreter);
-                styleBitmap.recycle();
+        // Batch frames never draw an overlay, so clear what a preview left there.
+        updateOverlayDisplay(null);
+        MatPool.resetStats();
+        SegmenterPool.resetStats();
+        // Every batch frame is new, so caching its stages would only copy them.
+        DeepScanProcessor.setStageCaching(false);
+
+        // Consecutive video frames are often near-identical; those reuse the previous output.
+        final boolean isVideoProject = isVideoFile(inputFilePath) && !isZipMode && !isMultiImageMode;
+        final FrameDeltaDetector deltaDetector = isVideoProject
+                ? new FrameDeltaDetector(sharedPreferences.getFloat(FrameDeltaDetector.PREF_THRESHOLD, FrameDeltaDetector.DEFAULT_THRESHOLD))
+                : null;
+        // The MediaPipe methods segment a video's frames as one sequence, with temporal context.
+        boolean usesSegmentation = selectedMethod <= 1 || selectedMethod == 11 || selectedMethod == 12;
+        if (isVideoProject && usesSegmentation) {
+            videoSegmentation = new VideoSegmentationSession(getContext(), extractionFps);
+        }
+        final VideoSegmentationSession segmentation = videoSegmentation;
+        final Context context = getContext();
+
+        // The AI-assisted video path corrects ksize from frame to frame, so it runs on one worker.
+        final boolean usesGoldStandard = isVideoProject && switchEnableAi.isChecked() && (selectedMethod == 11 || selectedMethod == 12);
+        final int workerCount = usesGoldStandard ? 1 : batchWorkerCount(totalFrames);
+
+        // Frames are decoded in order on their own thread, processed by the workers, and written
+        // back in frame order.
+        final boolean adjustBeforeProcessing = selectedMethod == 8 || selectedMethod == 11 || selectedMethod == 12 || selectedMethod == 13;
+        final FramePipeline.FrameDecoder frameDecoder = index -> {
+            Bitmap orientedBitmap = decodeAndRotateBitmap(rawFrames.get(index).getAbsolutePath());
+            if (orientedBitmap == null || !adjustBeforeProcessing) return orientedBitmap;
+            // MERGED: Apply adjustments for specified methods before processing
+            return DeepScanProcessor.applyMethod9Adjustments(orientedBitmap, brightnessValue, contrastValue, saturationValue, temperatureValue);
+        };
+        // A VIDEO-mode session must see the frames in order, so the decode thread segments each
+        // frame into the mask cache and the workers' scans find the mask there.
+        final FramePipeline.FrameDecoder decodeStage = segmentation == null ? frameDecoder : index -> {
+            Bitmap bitmap = frameDecoder.decode(index);
+            if (bitmap != null) {
+                segmentation.setFrameIndex(index);
+                try {
+                    DeepScanProcessor.presegment(context, bitmap, segmentation);
+                } catch (Exception e) {
+                    // The scan segments the frame itself, and reports the failure if it recurs.
+                    Log.w(TAG, "Could not segment frame " + index + " ahead of its scan.", e);
+                }
+            }
+            return bitmap;
+        };
 
-                for (int i = 0; i < totalFrames; i++) {
-                    final int frameNum = i + 1;
-                    final int frameIndex = i;
-                    updateStatus("Applying style to frame " + frameNum + " of " + totalFrames, false);
-                    updateProgress(frameNum, totalFrames);
-                    updateCurrentFrameHighlight(frameIndex);
-                    Bitmap contentBitmap = decodeAndRotateBitmap(rawFrames.get(frameIndex).getAbsolutePath());
-                    if (contentBitmap == null) continue;
-                    
-                    // MERGED: Apply adjustments before style transfer
-                    Bitmap adjustedBitmap = DeepScanProcessor.applyMethod9Adjustments(contentBitmap, brightnessValue, contrastValue, saturationValue, temperatureValue);
-
-                    Bitmap stylizedBitmap = DeepScanProcessor.runStyleTransfer(adjustedBitmap, styleVector, transferInterpreter);
-                    saveProcessedFrame(stylizedBitmap, frameIndex);
-                    adjustedBitmap.recycle(); // adjustedBitmap is now the one to recycle
+        // Video projects keep a manifest, so a batch that is cut off resumes where it stopped. Zip
+        // and multi-image batches always start in a new project, with nothing to resume.
+        final BatchManifest manifest = isVideoProject ? openBatchManifest() : null;
+        if (manifest != null && manifest.getCompletedCount() > 0) {
+            updateStatus("Resuming: " + manifest.getCompletedCount() + " of " + totalFrames + " frames already done.", false);
+            if (usesGoldStandard && manifest.isCompleted(0)) {
+                // Frame 0 is not processed again, so its saved output is the Gold Standard.
+                goldStandardBitmap = BitmapFactory.decodeFile(getProcessedFrameFile(0).getAbsolutePath());
+                if (goldStandardBitmap == null) {
+                    manifest.close();
+                    throw new Exception("Could not load the Gold Standard saved by the earlier run.");
                 }
-            } finally {
-                if (predictionInterpreter != null) predictionInterpreter.close();
-                if (transferInterpreter != null) transferInterpreter.close();
             }
-        } else {
-            // --- EXISTING LOGIC FOR ALL OTHER METHODS ---
-            for (int i = 0; i < totalFrames; i++) {
-                final int frameNum = i + 1;
-                final int frameIndex = i;
+        }
 
-                updateStatus("Processing frame " + frameNum + " of " + totalFrames, false);
-                updateProgress(frameNum, totalFrames);
-                updateCurrentFrameHighlight(frameIndex);
+        final FramePipeline pipeline = new FramePipeline(totalFrames, workerCount, decodeStage,
+                deltaDetector == null ? null : index -> deltaDetector.isNearDuplicate(rawFrames.get(index)),
+                new FramePipeline.FrameWriter() {
+                    @Override
+                    public void write(int frameIndex, Bitmap bitmap) throws Exception {
+                        writeProcessedFrame(frameIndex, bitmap);
+                    }
 
-                Bitmap orientedBitmap = decodeAndRotateBitmap(rawFrames.get(frameIndex).getAbsolutePath());
-                if (orientedBitmap == null) continue;
-                
-                Bitmap bitmapToProcess = orientedBitmap;
-                // MERGED: Apply adjustments for specified methods before processing
-                if (selectedMethod == 8 || selectedMethod == 11 || selectedMethod == 12) {
-                    bitmapToProcess = DeepScanProcessor.applyMethod9Adjustments(orientedBitmap, brightnessValue, contrastValue, saturationValue, temperatureValue);
-                }
+                    @Override
+                    public void copy(int sourceFrameIndex, int frameIndex) throws Exception {
+                        ImageProcessor.copyFileDurably(getProcessedFrameFile(sourceFrameIndex), getProcessedFrameFile(frameIndex));
+                    }
+                },
+                manifest == null ? null : manifest::isCompleted,
+                manifest == null ? null : manifest::recordCommitted);
+        framePipeline = pipeline;
+        try {
+            // This is the correct method index check for Style Transfer (Method 14)
+            if (selectedMethod == 13) {
+                updateStatus("Preparing AI Style Transfer...", true);
+                // Each worker has its own engine; together they use about one interpreter thread per core.
+                final int interpreterThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / workerCount);
+                final int styleIndex = styleSpinner.getSelectedItemPosition();
+                final int styleLongEdge = sharedPreferences.getInt(StyleTransferEngine.PREF_LONG_EDGE, StyleTransferEngine.DEFAULT_LONG_EDGE);
+                final StyleTransferEngine[] engines = new StyleTransferEngine[workerCount];
+                try {
+                    updateStatus("Analyzing Art Style...", true);
+                    // The first engine predicts and caches the style, so the others only read it.
+                    engines[0] = createStyleTransferEngine(interpreterThreads);
+                    applyStyle(engines[0], styleIndex);
+                    if (totalFrames > 1) {
+                        engines[0].enableBatching();
+                    }
 
-                boolean isVideo = isVideoFile(inputFilePath) && !isZipMode && !isMultiImageMode;
-                if (isVideo && switchEnableAi.isChecked() && (selectedMethod == 11 || selectedMethod == 12)) {
-                    if (frameIndex == 0) {
-                        updateStatus("Processing frame 1 to set Gold Standard...", false);
-                        Bitmap processedFirstFrame = getAiPencilScanAsBitmap(bitmapToProcess, currentKsize);
-                        if (processedFirstFrame != null) {
-                            goldStandardBitmap = processedFirstFrame;
-                            saveProcessedFrame(goldStandardBitmap, frameIndex);
-                        } else {
-                            throw new Exception("Failed to process the first frame to create a Gold Standard.");
+                    pipeline.process((worker, frame) -> {
+                        final int frameIndex = frame.index;
+                        final int frameNum = frameIndex + 1;
+                        StyleTransferEngine engine = engines[worker];
+                        if (engine == null) {
+                            engine = createStyleTransferEngine(interpreterThreads);
+                            engines[worker] = engine;
+                            applyStyle(engine, styleIndex);
+                            engine.enableBatching();
                         }
-                    } else {
-                        CorrectedKsize correction = GeminiAiHelper.checkFrameConsistency(
-                                sharedPreferences.getString("GEMINI_API_KEY", ""),
-                                goldStandardBitmap,
-                                bitmapToProcess, // Use the adjusted bitmap for consistency check
-                                currentKsize
-                        );
-                        currentKsize = correction.ksize;
-                        if (correction.wasCorrected) {
-                            final int correctedKsize = currentKsize;
-                            uiHandler.post(() -> Toast.makeText(getContext(), "AI adjusted ksize to " + correctedKsize, Toast.LENGTH_SHORT).show());
+                        updateStatus("Applying style to frame " + frameNum + " of " + totalFrames, false);
+                        updateProgress(frameNum, totalFrames);
+                        updateCurrentFrameHighlight(frameIndex);
+                        Bitmap adjustedBitmap = frameToProcess(pipeline, frame, deltaDetector, frameDecoder);
+                        if (adjustedBitmap == null) return;
+
+                        // The engine owns and reuses its output bitmap, so it is saved without recycling.
+                        Bitmap stylizedBitmap = engine.stylizeTiled(adjustedBitmap, styleLongEdge);
+                        saveProcessedFrame(stylizedBitmap, frameIndex, false);
+                        adjustedBitmap.recycle(); // adjustedBitmap is now the one to recycle
+                    });
+                } finally {
+                    for (StyleTransferEngine engine : engines) {
+                        if (engine != null) {
+                            engine.close();
                         }
-                        beginBlockingAiGuidedScan(bitmapToProcess, frameIndex, currentKsize);
                     }
-                } else {
-                    // --- ORIGINAL, NON-AI PROCESSING PATH (UNCHANGED LOGIC, BUT USES bitmapToProcess) ---
-                    if (selectedMethod <= 1) {
-                        beginBlockingAiScan(bitmapToProcess, frameIndex);
-                    } else if (selectedMethod >= 10 && selectedMethod <= 12) {
-                        beginBlockingPencilOrNewAiScan(bitmapToProcess, frameIndex, currentKsize);
-                    } else if (selectedMethod == 2) {
-                        beginMethod1LiveScan(bitmapToProcess, frameIndex);
+                }
+            } else {
+                // --- EXISTING LOGIC FOR ALL OTHER METHODS ---
+                // Only the single-worker gold-standard path changes ksize between frames.
+                final int[] currentKsize = { ksize };
+                pipeline.process((worker, frame) -> {
+                    final int frameIndex = frame.index;
+                    final int frameNum = frameIndex + 1;
+
+                    updateStatus("Processing frame " + frameNum + " of " + totalFrames, false);
+                    updateProgress(frameNum, totalFrames);
+                    updateCurrentFrameHighlight(frameIndex);
+                    Bitmap bitmapToProcess = frameToProcess(pipeline, frame, deltaDetector, frameDecoder);
+                    if (bitmapToProcess == null) return;
+
+                    if (usesGoldStandard) {
+                        if (frameIndex == 0) {
+                            updateStatus("Processing frame 1 to set Gold Standard...", false);
+                            Bitmap processedFirstFrame = getAiPencilScanAsBitmap(bitmapToProcess, currentKsize[0]);
+                            if (processedFirstFrame != null) {
+                                goldStandardBitmap = processedFirstFrame;
+                                saveProcessedFrame(goldStandardBitmap, frameIndex);
+                            } else {
+                                throw new Exception("Failed to process the first frame to create a Gold Standard.");
+                            }
+                        } else {
+                            CorrectedKsize correction = GeminiAiHelper.checkFrameConsistency(
+                                    sharedPreferences.getString("GEMINI_API_KEY", ""),
+                                    goldStandardBitmap,
+                                    bitmapToProcess, // Use the adjusted bitmap for consistency check
+                                    currentKsize[0]
+                            );
+                            currentKsize[0] = correction.ksize;
+                            if (correction.wasCorrected) {
+                                final int correctedKsize = currentKsize[0];
+                                uiHandler.post(() -> Toast.makeText(getContext(), "AI adjusted ksize to " + correctedKsize, Toast.LENGTH_SHORT).show());
+                            }
+                            beginBlockingAiGuidedScan(bitmapToProcess, frameIndex, currentKsize[0]);
+                        }
                     } else {
-                        boolean isMultiFrameProject = isVideo || isMultiImageMode || isZipMode;
-                        boolean isStandardAuto = isMultiFrameProject && sliderAnalysisMode.getProgress() == 0;
-                        boolean isImageAutoScan = !isMultiFrameProject && switchAutomaticScan.isChecked();
-                        if (isStandardAuto || isImageAutoScan) {
-                            beginStandardScan(bitmapToProcess, frameIndex);
+                        // --- ORIGINAL, NON-AI PROCESSING PATH (UNCHANGED LOGIC, BUT USES bitmapToProcess) ---
+                        if (selectedMethod <= 1) {
+                            beginBlockingAiScan(bitmapToProcess, frameIndex);
+                        } else if (selectedMethod >= 10 && selectedMethod <= 12) {
+                            beginBlockingPencilOrNewAiScan(bitmapToProcess, frameIndex, currentKsize[0]);
+                        } else if (selectedMethod == 2) {
+                            beginMethod1LiveScan(bitmapToProcess, frameIndex, !(isVideoProject || isMultiImageMode || isZipMode));
                         } else {
-                            beginTunedScan(bitmapToProcess, frameIndex, depth, sharpness);
+                            boolean isMultiFrameProject = isVideoProject || isMultiImageMode || isZipMode;
+                            boolean isStandardAuto = isMultiFrameProject && sliderAnalysisMode.getProgress() == 0;
+                            boolean isImageAutoScan = !isMultiFrameProject && switchAutomaticScan.isChecked();
+                            if (isStandardAuto || isImageAutoScan) {
+                                beginStandardScan(bitmapToProcess, frameIndex);
+                            } else {
+                                beginTunedScan(bitmapToProcess, frameIndex, depth, sharpness);
+                            }
                         }
                     }
-                }
-                if (bitmapToProcess != orientedBitmap && !bitmapToProcess.isRecycled()) {
-                    bitmapToProcess.recycle();
-                }
-                if (orientedBitmap != null && !orientedBitmap.isRecycled()) {
-                    orientedBitmap.recycle();
-                }
+                    if (!bitmapToProcess.isRecycled()) {
+                        bitmapToProcess.recycle();
+                    }
+                });
+            }
+        } finally {
+            framePipeline = null;
+            pipeline.close();
+            if (manifest != null) {
+                manifest.close();
             }
         }
         
+        closeVideoSegmentation();
+
+        // The batch thread is about to finish, so hand its pooled Mats back to native memory.
+        MatPool.logStats();
+        SegmenterPool.logStats();
+        pipeline.logStats();
+        MatPool.clearCurrentThread();
+
+        final String deltaSummary;
+        if (deltaDetector != null) {
+            deltaDetector.writeReport(new File(new File(processedFramesDir).getParentFile(), "frame_delta_report.txt"), totalFrames);
+            deltaSummary = deltaDetector.getSummary(totalFrames);
+            Log.d(TAG, deltaSummary);
+            deltaDetector.release();
+        } else {
+            deltaSummary = null;
+        }
+
         // MERGED: Cleanup logic is now conditional
         if (!isReEditing) {
             cleanupTempFiles();
@@ -955,11 +1129,18 @@ public class ProcessingDialogFragment extends DialogFragment {
             public void run() {
                 boolean isMultiFrameProject = isVideoFile(inputFilePath) || isMultiImageMode || isZipMode;
                 if (isMultiFrameProject) {
-                    showSuccessDialog("Processing Complete", "Your files have been saved to:\n\n" + processedFramesDir);
+                    String message = "Your files have been saved to:\n\n" + processedFramesDir;
+                    if (deltaSummary != null) {
+                        message += "\n\n" + deltaSummary;
+                    }
+                    showSuccessDialog("Processing Complete", message);
                     statusTextView.setText("Processing Complete. Click a thumbnail to re-edit.");
                     btnSave.setVisibility(View.GONE);
                     btnSave.setText("Save"); // Reset text in case it was "Save Edit"
                 } else {
+                    // The display shows a display-size copy; Save reads the full-size output back.
+                    final File output = getProcessedFrameFile(0);
+                    fullResolutionRender = () -> BitmapFactory.decodeFile(output.getAbsolutePath());
                     statusTextView.setText("Automatic scan complete.");
                     btnSave.setVisibility(View.VISIBLE);
                 }
@@ -980,31 +1161,35 @@ public class ProcessingDialogFragment extends DialogFragment {
         new Thread(new Runnable() {
             @Override
             public void run() {
-                DeepScanProcessor.AiScanListener listener = new DeepScanProcessor.AiScanListener() {
-                    @Override
-                    public void onAiScanComplete(final DeepScanProcessor.ProcessingResult finalResult) {
-                        uiHandler.post(new Runnable() {
-                            @Override
-                            public void run() {
-                                if (finalResult.resultBitmap == null) {
-                                    showErrorDialog("AI Analysis Failed", "The AI model could not process the image.", false);
-                                    statusTextView.setText("AI Analysis Failed. Ready to try again.");
-                                } else {
-                                    updateMainDisplay(finalResult.resultBitmap);
-                                    statusTextView.setText("AI Analysis Complete. Save or choose another method.");
-                                    btnSave.setVisibility(View.VISIBLE);
+                try {
+                    DeepScanProcessor.AiScanListener listener = new DeepScanProcessor.AiScanListener() {
+                        @Override
+                        public void onAiScanComplete(final DeepScanProcessor.ProcessingResult finalResult) {
+                            uiHandler.post(new Runnable() {
+                                @Override
+                                public void run() {
+                                    if (finalResult.resultBitmap == null) {
+                                        showErrorDialog("AI Analysis Failed", "The AI model could not process the image.", false);
+                                        statusTextView.setText("AI Analysis Failed. Ready to try again.");
+                                    } else {
+                                        updateMainDisplay(finalResult.resultBitmap);
+                                        statusTextView.setText("AI Analysis Complete. Save or choose another method.");
+                                        btnSave.setVisibility(View.VISIBLE);
+                                    }
+                                    progressBar.setVisibility(View.GONE);
+                                    setUiEnabled(true);
+                                    analysisControlsContainer.setVisibility(View.VISIBLE);
                                 }
-                                progressBar.setVisibility(View.GONE);
-                                setUiEnabled(true);
-                                analysisControlsContainer.setVisibility(View.VISIBLE);
-                            }
-                        });
+                            });
+                        }
+                    };
+                    if (methodIndex == 1) {
+                        DeepScanProcessor.processMethod0(getContext(), sourceBitmapForTuning, listener);
+                    } else {
+                        DeepScanProcessor.processMethod01(getContext(), sourceBitmapForTuning, listener);
                     }
-                };
-                if (methodIndex == 1) {
-                    DeepScanProcessor.processMethod0(getContext(), sourceBitmapForTuning, listener);
-                } else {
-                    DeepScanProcessor.processMethod01(getContext(), sourceBitmapForTuning, listener);
+                } finally {
+                    MatPool.clearCurrentThread();
                 }
             }
         }).start();
@@ -1069,77 +1254,91 @@ public class ProcessingDialogFragment extends DialogFragment {
         }
         updateStatus("Performing AI Analysis...", true);
 
-        final int ksize = sliderKsize.getProgress();
+        final int fullKsize = sliderKsize.getProgress();
+        final Bitmap fullSource = sourceBitmapForTuning;
+        final int method = selectedMethod;
+        final int brightness = brightnessValue, contrast = contrastValue, saturation = saturationValue, temperature = temperatureValue;
 
         new Thread(new Runnable() {
             @Override
             public void run() {
-                Bitmap bitmapToProcess = sourceBitmapForTuning;
-                if (selectedMethod == 11 || selectedMethod == 12 || selectedMethod == 13) {
-                     bitmapToProcess = DeepScanProcessor.applyMethod9Adjustments(
-                        sourceBitmapForTuning.copy(Bitmap.Config.ARGB_8888, true),
-                        brightnessValue, contrastValue, saturationValue, temperatureValue
-                    );
-                }
+                try {
+                    // Style transfer downsamples to the model input anyway, so only the pencil methods use the proxy.
+                    final Bitmap previewSource = method == 13 ? fullSource : getPreviewSource();
+                    final int ksize = method == 13 ? fullKsize : DeepScanProcessor.scaleKsize(fullKsize, getPreviewScale());
+                    DeepScanProcessor.setStageCaching(true);
+                    if (method != 13) {
+                        // Slider sweeps answer every ksize from the proxy's cached pyramid; Save renders with the exact blur.
+                        DeepScanProcessor.setBlurBackend(DeepScanProcessor.BlurBackend.PYRAMID);
+                        logBlurAccuracyOnce(previewSource);
+                    }
 
-                final Bitmap finalBitmapToProcess = bitmapToProcess;
+                    Bitmap bitmapToProcess = previewSource;
+                    if (method == 11 || method == 12) {
+                        bitmapToProcess = getAdjustedPreviewSource(previewSource, brightness, contrast, saturation, temperature);
+                    } else if (method == 13 && !AdjustmentLut.forSettings(brightness, contrast, saturation, temperature).isIdentity()) {
+                        bitmapToProcess = DeepScanProcessor.applyMethod9Adjustments(
+                            previewSource.copy(Bitmap.Config.ARGB_8888, true),
+                            brightness, contrast, saturation, temperature
+                        );
+                    }
 
-                DeepScanProcessor.AiScanListener listener = new DeepScanProcessor.AiScanListener() {
-                    @Override
-                    public void onAiScanComplete(final DeepScanProcessor.ProcessingResult finalResult) {
-                        uiHandler.post(new Runnable() {
-                            @Override
-                            public void run() {
-                                if (finalResult.resultBitmap == null) {
-                                    showErrorDialog("AI Analysis Failed", "The AI model could not process the image.", false);
-                                    statusTextView.setText("AI Analysis Failed. Ready to try again.");
-                                } else {
-                                    updateMainDisplay(finalResult.resultBitmap);
-                                    statusTextView.setText("AI Analysis Complete. Adjust sliders and Analyze again, or Save.");
-                                }
-                                progressBar.setVisibility(View.GONE);
-                                setUiEnabled(true);
-                                analysisControlsContainer.setVisibility(View.VISIBLE);
-                                btnSave.setVisibility(View.VISIBLE);
+                    final Bitmap finalBitmapToProcess = bitmapToProcess;
+                    // Only the full-size style transfer copy belongs to this preview; the proxy is cached.
+                    final boolean recycleBitmapToProcess = method == 13 && bitmapToProcess != previewSource;
 
-                                if (finalBitmapToProcess != sourceBitmapForTuning) {
-                                    finalBitmapToProcess.recycle();
+                    DeepScanProcessor.AiScanListener listener = new DeepScanProcessor.AiScanListener() {
+                        @Override
+                        public void onAiScanComplete(final DeepScanProcessor.ProcessingResult finalResult) {
+                            uiHandler.post(new Runnable() {
+                                @Override
+                                public void run() {
+                                    if (finalResult.resultBitmap == null) {
+                                        showErrorDialog("AI Analysis Failed", "The AI model could not process the image.", false);
+                                        statusTextView.setText("AI Analysis Failed. Ready to try again.");
+                                    } else {
+                                        updateMainDisplay(finalResult.resultBitmap);
+                                        fullResolutionRender = previewSource == fullSource ? null
+                                                : () -> renderPencilScan(fullSource, method, fullKsize, brightness, contrast, saturation, temperature);
+                                        statusTextView.setText("AI Analysis Complete. Adjust sliders and Analyze again, or Save.");
+                                    }
+                                    progressBar.setVisibility(View.GONE);
+                                    setUiEnabled(true);
+                                    analysisControlsContainer.setVisibility(View.VISIBLE);
+                                    btnSave.setVisibility(View.VISIBLE);
+
+                                    if (recycleBitmapToProcess) {
+                                        finalBitmapToProcess.recycle();
+                                    }
                                 }
-                            }
-                        });
-                    }
-                };
+                            });
+                        }
+                    };
 
-                if (selectedMethod == 10) {
-                    DeepScanProcessor.processMethod11(finalBitmapToProcess, ksize, new DeepScanProcessor.ScanListenerWithKsize() {
-                        @Override public void onScanProgress(int pass, int totalPasses, String status, Bitmap intermediateResult) {}
-                        @Override public void onScanComplete(DeepScanProcessor.ProcessingResult finalResult) { listener.onAiScanComplete(finalResult); }
-                    });
-                } else if (selectedMethod == 11) {
-                    DeepScanProcessor.processMethod12(getContext(), finalBitmapToProcess, ksize, listener);
-                } else if (selectedMethod == 12) {
-                    DeepScanProcessor.processMethod13(getContext(), finalBitmapToProcess, ksize, listener);
-                } else if (selectedMethod == 13) {
-                    // This block handles single-frame analysis for style transfer
-                    Interpreter predictionInterpreter = null;
-                    Interpreter transferInterpreter = null;
-                    try {
-                        Interpreter.Options options = new Interpreter.Options();
-                        predictionInterpreter = new Interpreter(loadModelFile("magenta_prediction.tflite"), options);
-                        transferInterpreter = new Interpreter(loadModelFile("magenta_transfer.tflite"), options);
-                        int selectedStyleIndex = styleSpinner.getSelectedItemPosition();
-                        Bitmap styleBitmap = loadBitmapFromAssets(styleAssetFiles[selectedStyleIndex]);
-                        float[] styleVector = DeepScanProcessor.runStylePrediction(styleBitmap, predictionInterpreter);
-                        styleBitmap.recycle();
-                        Bitmap stylizedBitmap = DeepScanProcessor.runStyleTransfer(finalBitmapToProcess, styleVector, transferInterpreter);
-                        listener.onAiScanComplete(new DeepScanProcessor.ProcessingResult(stylizedBitmap, 0));
-                    } catch (IOException e) {
-                        Log.e(TAG, "Failed to run single-frame style transfer", e);
-                        listener.onAiScanComplete(new DeepScanProcessor.ProcessingResult(null, 0));
-                    } finally {
-                        if (predictionInterpreter != null) predictionInterpreter.close();
-                        if (transferInterpreter != null) transferInterpreter.close();
+                    if (method == 10) {
+                        DeepScanProcessor.processMethod11(finalBitmapToProcess, ksize, new DeepScanProcessor.ScanListenerWithKsize() {
+                            @Override public void onScanProgress(int pass, int totalPasses, String status, Bitmap intermediateResult) {}
+                            @Override public void onScanComplete(DeepScanProcessor.ProcessingResult finalResult) { listener.onAiScanComplete(finalResult); }
+                        });
+                    } else if (method == 11) {
+                        DeepScanProcessor.processMethod12(getContext(), finalBitmapToProcess, ksize, listener);
+                    } else if (method == 12) {
+                        DeepScanProcessor.processMethod13(getContext(), finalBitmapToProcess, ksize, listener);
+                    } else if (method == 13) {
+                        // This block handles single-frame analysis for style transfer
+                        try (StyleTransferEngine engine = createStyleTransferEngine()) {
+                            applyStyle(engine, styleSpinner.getSelectedItemPosition());
+                            // A single stylize call: the output bitmap outlives the engine and becomes the result.
+                            int styleLongEdge = sharedPreferences.getInt(StyleTransferEngine.PREF_LONG_EDGE, StyleTransferEngine.DEFAULT_LONG_EDGE);
+                            Bitmap stylizedBitmap = engine.stylizeTiled(finalBitmapToProcess, styleLongEdge);
+                            listener.onAiScanComplete(new DeepScanProcessor.ProcessingResult(stylizedBitmap, 0));
+                        } catch (IOException e) {
+                            Log.e(TAG, "Failed to run single-frame style transfer", e);
+                            listener.onAiScanComplete(new DeepScanProcessor.ProcessingResult(null, 0));
+                        }
                     }
+                } finally {
+                    MatPool.clearCurrentThread();
                 }
             }
         }).start();
@@ -1148,8 +1347,14 @@ public class ProcessingDialogFragment extends DialogFragment {
     // MERGED: Modified to use saveProcessedFrame
     private void beginStandardScan(Bitmap bitmap, final int frameIndex) throws InterruptedException {
         final CountDownLatch latch = new CountDownLatch(1);
+        // Only a single image is worth watching pass by pass; batches just need the final frames.
+        final boolean showProgress = !(isVideoFile(inputFilePath) || isMultiImageMode || isZipMode);
 
         DeepScanProcessor.ScanListener listener = new DeepScanProcessor.ScanListener() {
+            @Override
+            public boolean wantsIntermediateResults() {
+                return showProgress;
+            }
             @Override
             public void onScanProgress(final int pass, final int totalPasses, final String status, final Bitmap intermediateResult) {
                 updateScanStatus(status, pass, totalPasses);
@@ -1157,8 +1362,10 @@ public class ProcessingDialogFragment extends DialogFragment {
             }
             @Override
             public void onScanComplete(final DeepScanProcessor.ProcessingResult finalResult) {
+                // Count before saving, which recycles the bitmap; batches never show the count.
+                String summary = showProgress ? "Scan Complete. Found " + finalResult.getObjectsFound() + " objects." : "Scan Complete.";
                 saveProcessedFrame(finalResult.resultBitmap, frameIndex);
-                updateScanStatus("Scan Complete. Found " + finalResult.objectsFound + " objects.", -1, -1);
+                updateScanStatus(summary, -1, -1);
                 latch.countDown();
             }
         };
@@ -1197,16 +1404,26 @@ public class ProcessingDialogFragment extends DialogFragment {
             case 9: logicalMethod = 8; break;
         }
         final int finalLogicalMethod = logicalMethod;
+        final Bitmap fullSource = sourceBitmapForTuning;
+        final Bitmap previewSource = getPreviewSource();
 
-        DeepScanProcessor.ScanListener listener = new DeepScanProcessor.ScanListener() {
-            @Override
-            public void onScanProgress(int pass, int totalPasses, String status, Bitmap intermediateResult) {}
+        DeepScanProcessor.ScanListener listener = new DeepScanProcessor.ResultOnlyScanListener() {
             @Override
             public void onScanComplete(final DeepScanProcessor.ProcessingResult finalResult) {
                 updateMainDisplay(finalResult.resultBitmap);
                 uiHandler.post(new Runnable() {
                     @Override
                     public void run() {
+                        fullResolutionRender = previewSource == fullSource ? null : () -> {
+                            final Bitmap[] rendered = new Bitmap[1];
+                            DeepScanProcessor.processWithFineTuning(fullSource, finalLogicalMethod, depth, sharpness, new DeepScanProcessor.ResultOnlyScanListener() {
+                                @Override
+                                public void onScanComplete(DeepScanProcessor.ProcessingResult result) {
+                                    rendered[0] = result.resultBitmap;
+                                }
+                            });
+                            return rendered[0];
+                        };
                         if (isFirstFineTuneAnalysis) {
                             isFirstFineTuneAnalysis = false;
                         }
@@ -1219,7 +1436,7 @@ public class ProcessingDialogFragment extends DialogFragment {
                 });
             }
         };
-        DeepScanProcessor.processWithFineTuning(sourceBitmapForTuning, finalLogicalMethod, depth, sharpness, listener);
+        DeepScanProcessor.processWithFineTuning(previewSource, finalLogicalMethod, depth, sharpness, getPreviewScale(), listener);
     }
 
     // MERGED: Modified to use saveProcessedFrame
@@ -1237,9 +1454,7 @@ public class ProcessingDialogFragment extends DialogFragment {
         }
         final int finalLogicalMethod = logicalMethod;
 
-        DeepScanProcessor.ScanListener listener = new DeepScanProcessor.ScanListener() {
-            @Override
-            public void onScanProgress(int pass, int totalPasses, String status, Bitmap intermediateResult) {}
+        DeepScanProcessor.ScanListener listener = new DeepScanProcessor.ResultOnlyScanListener() {
             @Override
             public void onScanComplete(DeepScanProcessor.ProcessingResult finalResult) {
                 if (finalResult != null && finalResult.resultBitmap != null) {
@@ -1259,12 +1474,22 @@ public class ProcessingDialogFragment extends DialogFragment {
             return;
         }
         Bitmap bitmapToSave = ((BitmapDrawable) mainDisplay.getDrawable()).getBitmap();
+        final FullResolutionRender pendingRender = fullResolutionRender;
 
         if (bitmapToSave != null) {
             new Thread(new Runnable() {
                 @Override
                 public void run() {
                     try {
+                        Bitmap outputBitmap = bitmapToSave;
+                        if (pendingRender != null) {
+                            // The display shows a proxy preview; render the same settings at full resolution.
+                            Bitmap fullResolution = pendingRender.render();
+                            if (fullResolution != null) {
+                                outputBitmap = fullResolution;
+                            }
+                        }
+
                         File outFile;
                         if (isReEditing && reEditFrameIndex != -1) {
                             // Overwrite the specific processed file
@@ -1279,7 +1504,10 @@ public class ProcessingDialogFragment extends DialogFragment {
                             outFile = new File(processedFramesDir, fileName);
                         }
 
-                        ImageProcessor.saveBitmap(bitmapToSave, outFile.getAbsolutePath());
+                        ImageProcessor.saveBitmap(outputBitmap, outFile.getAbsolutePath());
+                        if (outputBitmap != bitmapToSave) {
+                            outputBitmap.recycle();
+                        }
                         // Only clean up temp files if it's NOT a multi-frame project being re-edited
                         if (!isReEditing) {
                              cleanupTempFiles();
@@ -1300,6 +1528,9 @@ public class ProcessingDialogFragment extends DialogFragment {
                     } catch (Exception e) {
                         Log.e(TAG, "Failed to save image", e);
                         uiHandler.post(() -> Toast.makeText(getContext(), "Error saving image.", Toast.LENGTH_SHORT).show());
+                    } finally {
+                        // This thread ends here, so its pooled Mats go back to native memory now.
+                        MatPool.clearCurrentThread();
                     }
                 }
             }).start();
@@ -1307,12 +1538,19 @@ public class ProcessingDialogFragment extends DialogFragment {
     }
 
     // MERGED: Modified to use saveProcessedFrame
-    private void beginMethod1LiveScan(Bitmap bitmap, final int frameIndex) throws InterruptedException {
+    private void beginMethod1LiveScan(Bitmap bitmap, final int frameIndex, final boolean showProgress) throws InterruptedException {
         final CountDownLatch latch = new CountDownLatch(1);
-        updateMainDisplay(bitmap);
-        updateOverlayDisplay(null);
+        // A batch worker recycles its input once the scan is done, so only a preview shows it.
+        if (showProgress) {
+            updateMainDisplay(bitmap);
+            updateOverlayDisplay(null);
+        }
 
         DeepScanProcessor.LiveScanListener listener = new DeepScanProcessor.LiveScanListener() {
+            @Override
+            public boolean wantsIntermediateResults() {
+                return showProgress;
+            }
             @Override
             public void onScanProgress(final int pass, final int totalPasses, final String status) {
                 updateScanStatus(status, pass, totalPasses);
@@ -1327,8 +1565,10 @@ public class ProcessingDialogFragment extends DialogFragment {
             }
             @Override
             public void onScanComplete(final DeepScanProcessor.ProcessingResult finalResult) {
+                // Count before saving, which recycles the bitmap; batches never show the count.
+                String summary = showProgress ? "Scan Complete. Found " + finalResult.getObjectsFound() + " objects." : "Scan Complete.";
                 saveProcessedFrame(finalResult.resultBitmap, frameIndex);
-                updateScanStatus("Scan Complete. Found " + finalResult.objectsFound + " objects.", -1, -1);
+                updateScanStatus(summary, -1, -1);
                 latch.countDown();
             }
         };
@@ -1349,16 +1589,29 @@ public class ProcessingDialogFragment extends DialogFragment {
     }
 
     private void extractFramesForVideo(int fps) {
+        extractionFps = fps;
         try {
             File dir = new File(rawFramesDir);
-            if (dir.exists()) {
-                deleteRecursive(dir);
+            File projectDir = dir.getParentFile();
+            String inputSignature = BatchManifest.inputSignature(new File(inputFilePath));
+            File[] frameFiles = dir.listFiles();
+            if (frameFiles != null && BatchManifest.hasExtraction(projectDir, inputSignature, fps, frameFiles.length)) {
+                // These frames were extracted at this rate already, as in a resumed project.
+                Log.d(TAG, "Keeping " + frameFiles.length + " raw frames extracted at " + fps + " FPS.");
+            } else {
+                BatchManifest.clearExtraction(projectDir);
+                if (dir.exists()) {
+                    deleteRecursive(dir);
+                }
+                dir.mkdirs();
+
+                FrameExtractor.extractFrames(getContext(), inputFilePath, rawFramesDir, fps);
+                frameFiles = new File(rawFramesDir).listFiles();
+                if (frameFiles != null) {
+                    BatchManifest.recordExtraction(projectDir, inputSignature, fps, frameFiles.length);
+                }
             }
-            dir.mkdirs();
 
-            FrameExtractor.extractFrames(getContext(), inputFilePath, rawFramesDir, fps);
-            File[] frameFiles = new File(rawFramesDir).listFiles();
-            
             if (frameFiles != null) {
                 sortFrames(frameFiles);
                 rawFrames = new ArrayList<>(Arrays.asList(frameFiles));
@@ -1412,7 +1665,15 @@ public class ProcessingDialogFragment extends DialogFragment {
             rawFramesDir = new File(projectDir, "raw_frames").getAbsolutePath();
             processedFramesDir = new File(projectDir, "processed_frames").getAbsolutePath();
         } else if (isVideoFile(inputFilePath)) {
-            File projectDir = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES), "kop/Video_Project_" + timestamp);
+            File kopDir = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES), "kop");
+            // An unfinished batch of the same video resumes in its project, keeping its completed frames.
+            File projectDir = BatchManifest.findUnfinishedProject(kopDir, "Video_Project_",
+                    BatchManifest.inputSignature(new File(inputFilePath)));
+            if (projectDir != null) {
+                Log.d(TAG, "Resuming unfinished project " + projectDir);
+            } else {
+                projectDir = new File(kopDir, "Video_Project_" + timestamp);
+            }
             projectDir.mkdirs();
             rawFramesDir = new File(projectDir, "raw_frames").getAbsolutePath();
             processedFramesDir = new File(projectDir, "processed_frames").getAbsolutePath();
@@ -1425,6 +1686,8 @@ public class ProcessingDialogFragment extends DialogFragment {
         
         new File(rawFramesDir).mkdirs();
         new File(processedFramesDir).mkdirs();
+        // Segmentation masks live next to the raw frames, so re-edits and re-runs of this project reuse them.
+        SegmentationMaskCache.setDiskDirectory(new File(new File(rawFramesDir).getParentFile(), "segmentation_masks"));
     }
     
     // MERGED: Renamed from extractOrCopyFrames to reflect its new single-purpose.
@@ -1496,7 +1759,7 @@ public class ProcessingDialogFragment extends DialogFragment {
         
         if (processedFile.exists()) {
             try {
-                sourceBitmapForTuning = decodeAndRotateBitmap(rawFrames.get(position).getAbsolutePath());
+                setSourceBitmapForTuning(decodeAndRotateBitmap(rawFrames.get(position).getAbsolutePath()));
                 Bitmap currentProcessedBitmap = BitmapFactory.decodeFile(processedFile.getAbsolutePath());
                 updateMainDisplay(currentProcessedBitmap);
 
@@ -1581,13 +1844,32 @@ public class ProcessingDialogFragment extends DialogFragment {
         });
     }
 
+    /**
+     * Shows a bitmap once the UI thread gets to it. A bitmap superseded before then is dropped, so
+     * at most one is queued, and progress previews go back to PreviewBitmapRing once they are
+     * dropped or replaced on screen.
+     */
     private void updateMainDisplay(final Bitmap bitmap) {
+        if (bitmap == null) {
+            return;
+        }
+        Bitmap superseded = pendingMainDisplay.getAndSet(bitmap);
+        if (superseded != null) {
+            PreviewBitmapRing.release(superseded);
+            return; // Its post is still queued and will show this bitmap instead.
+        }
         uiHandler.post(new Runnable() {
             @Override
             public void run() {
-                if (bitmap != null) {
-                    mainDisplay.setImageBitmap(bitmap);
+                Bitmap latest = pendingMainDisplay.getAndSet(null);
+                if (latest == null) {
+                    return;
                 }
+                mainDisplay.setImageBitmap(latest);
+                if (shownMainDisplay != null && shownMainDisplay != latest) {
+                    PreviewBitmapRing.release(shownMainDisplay);
+                }
+                shownMainDisplay = latest;
             }
         });
     }
@@ -1644,8 +1926,122 @@ public class ProcessingDialogFragment extends DialogFragment {
         });
     }
 
+    private synchronized void setSourceBitmapForTuning(Bitmap bitmap) {
+        sourceBitmapForTuning = bitmap;
+        previewProxyBitmap = null;
+        adjustedPreviewBitmap = null;
+        adjustedPreviewBase = null;
+        adjustedPreviewSettings = null;
+        fullResolutionRender = null;
+        blurAccuracyLogged = false;
+    }
+
+    /**
+     * Logs how far the pyramid blur used by the previews is from the exact Gaussian used on save,
+     * once per source. Costs several full Gaussian blurs, so it only runs when debug logging is
+     * enabled for this tag.
+     */
+    private void logBlurAccuracyOnce(Bitmap previewSource) {
+        synchronized (this) {
+            if (blurAccuracyLogged || !Log.isLoggable(TAG, Log.DEBUG)) {
+                return;
+            }
+            blurAccuracyLogged = true;
+        }
+        Log.d(TAG, DeepScanProcessor.getBlurAccuracyReport(previewSource, 5, 10, 25, 50, 75, 100));
+    }
+
+    /**
+     * @return The source scaled down to PREVIEW_PROXY_LONG_EDGE, or the source itself when it is
+     * already small enough. Created once per source and reused for every slider move.
+     */
+    private synchronized Bitmap getPreviewSource() {
+        if (sourceBitmapForTuning == null) {
+            return null;
+        }
+        if (previewProxyBitmap == null) {
+            int width = sourceBitmapForTuning.getWidth();
+            int height = sourceBitmapForTuning.getHeight();
+            int longEdge = Math.max(width, height);
+            if (longEdge <= PREVIEW_PROXY_LONG_EDGE) {
+                previewProxyBitmap = sourceBitmapForTuning;
+            } else {
+                float scale = (float) PREVIEW_PROXY_LONG_EDGE / longEdge;
+                previewProxyBitmap = Bitmap.createScaledBitmap(sourceBitmapForTuning,
+                        Math.max(1, Math.round(width * scale)), Math.max(1, Math.round(height * scale)), true);
+            }
+        }
+        return previewProxyBitmap;
+    }
+
+    /**
+     * @return The preview proxy with the Method 9 adjustments applied, or the proxy itself when the
+     * adjustments are neutral. Rebuilt only when the proxy or one of the four settings changes, so a
+     * sweep of any other slider reuses the same bitmap and keeps hitting its cached stages. A replaced
+     * bitmap is left to the GC rather than recycled, as a preview still in flight may be reading it.
+     */
+    private synchronized Bitmap getAdjustedPreviewSource(Bitmap previewSource, int brightness, int contrast, int saturation, int temperature) {
+        if (AdjustmentLut.forSettings(brightness, contrast, saturation, temperature).isIdentity()) {
+            return previewSource;
+        }
+        int[] settings = {brightness, contrast, saturation, temperature};
+        if (adjustedPreviewBitmap == null || adjustedPreviewBase != previewSource
+                || !Arrays.equals(adjustedPreviewSettings, settings)) {
+            adjustedPreviewBitmap = DeepScanProcessor.applyMethod9Adjustments(
+                previewSource.copy(Bitmap.Config.ARGB_8888, true),
+                brightness, contrast, saturation, temperature
+            );
+            adjustedPreviewBase = previewSource;
+            adjustedPreviewSettings = settings;
+        }
+        return adjustedPreviewBitmap;
+    }
+
+    private float getPreviewScale() {
+        Bitmap preview = getPreviewSource();
+        if (preview == null) {
+            return 1f;
+        }
+        return (float) preview.getWidth() / sourceBitmapForTuning.getWidth();
+    }
+
+    /** Blocking full-resolution render of Methods 11-13 for Save after a proxy preview. */
+    private Bitmap renderPencilScan(Bitmap source, int method, int ksize, int brightness, int contrast, int saturation, int temperature) {
+        Bitmap input = source;
+        if (method == 11 || method == 12) {
+            input = DeepScanProcessor.applyMethod9Adjustments(
+                source.copy(Bitmap.Config.ARGB_8888, true),
+                brightness, contrast, saturation, temperature
+            );
+        }
+        final Bitmap[] rendered = new Bitmap[1];
+        DeepScanProcessor.AiScanListener listener = new DeepScanProcessor.AiScanListener() {
+            @Override
+            public void onAiScanComplete(DeepScanProcessor.ProcessingResult finalResult) {
+                rendered[0] = finalResult.resultBitmap;
+            }
+        };
+        if (method == 10) {
+            DeepScanProcessor.processMethod11(input, ksize, new DeepScanProcessor.ScanListenerWithKsize() {
+                @Override public void onScanProgress(int pass, int totalPasses, String status, Bitmap intermediateResult) {}
+                @Override public void onScanComplete(DeepScanProcessor.ProcessingResult finalResult) { listener.onAiScanComplete(finalResult); }
+            });
+        } else if (method == 11) {
+            DeepScanProcessor.processMethod12(getContext(), input, ksize, listener);
+        } else if (method == 12) {
+            DeepScanProcessor.processMethod13(getContext(), input, ksize, listener);
+        }
+        if (input != source) {
+            input.recycle();
+        }
+        return rendered[0];
+    }
+
     private Bitmap decodeAndRotateBitmap(String filePath) throws IOException {
-        Bitmap bitmap = BitmapFactory.decodeFile(filePath);
+        // Mutable, so the Method 9 adjustments can be applied in place.
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inMutable = true;
+        Bitmap bitmap = BitmapFactory.decodeFile(filePath, options);
         if (bitmap == null) return null;
         ExifInterface exif = new ExifInterface(filePath);
         int orientation = exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_UNDEFINED);
@@ -1764,24 +2160,191 @@ public class ProcessingDialogFragment extends DialogFragment {
         return resultHolder[0];
     }
 
+    /**
+     * Processing workers for a batch, from the core count and the memory free for frames the
+     * size of the first one. Before Android 8 bitmaps live on the Java heap, so its headroom
+     * counts instead when smaller.
+     */
+    private int batchWorkerCount(int totalFrames) {
+        if (totalFrames <= 1) {
+            return 1;
+        }
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(rawFrames.get(0).getAbsolutePath(), bounds);
+        long frameBytes = (long) Math.max(1, bounds.outWidth) * Math.max(1, bounds.outHeight) * 4;
+
+        ActivityManager.MemoryInfo memoryInfo = new ActivityManager.MemoryInfo();
+        ActivityManager activityManager = (ActivityManager) getContext().getSystemService(Context.ACTIVITY_SERVICE);
+        activityManager.getMemoryInfo(memoryInfo);
+        long availableBytes = memoryInfo.availMem;
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            Runtime runtime = Runtime.getRuntime();
+            availableBytes = Math.min(availableBytes, runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory()));
+        }
+
+        int workers = Math.min(totalFrames, FramePipeline.defaultWorkerCount(availableBytes, frameBytes));
+        Log.d(TAG, "Processing " + totalFrames + " frames on " + workers + " workers.");
+        return workers;
+    }
+
+    /**
+     * Opens the manifest of this project for a batch with the current method and settings. If
+     * the project already holds a batch with other settings, the batch moves to a new project.
+     */
+    private BatchManifest openBatchManifest() throws IOException {
+        String inputSignature = BatchManifest.inputSignature(new File(inputFilePath));
+        String jobSignature = batchJobSignature();
+        File projectDir = new File(processedFramesDir).getParentFile();
+        if (BatchManifest.holdsOtherBatch(projectDir, inputSignature, jobSignature, rawFrames.size())) {
+            projectDir = startNewProject(projectDir);
+        }
+        File[] outputs = new File[rawFrames.size()];
+        for (int i = 0; i < outputs.length; i++) {
+            outputs[i] = getProcessedFrameFile(i);
+        }
+        return BatchManifest.open(projectDir, inputSignature, jobSignature, rawFrames, outputs);
+    }
+
+    /**
+     * Moves this dialog to a new project next to the given one, named the same way with the
+     * current time, and copies the raw frames over. The given project is left as it is.
+     * @return The new project directory.
+     */
+    private File startNewProject(File projectDir) throws IOException {
+        String name = projectDir.getName();
+        String prefix = name.substring(0, name.indexOf("Project_") + "Project_".length());
+        String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date());
+        File newProjectDir = new File(projectDir.getParentFile(), prefix + timestamp);
+        for (int n = 2; newProjectDir.exists(); n++) {
+            newProjectDir = new File(projectDir.getParentFile(), prefix + timestamp + "_" + n);
+        }
+        Log.d(TAG, projectDir + " holds a batch with other settings; starting " + newProjectDir);
+        updateStatus("Settings changed; copying frames to a new project...", true);
+
+        File newRawDir = new File(newProjectDir, new File(rawFramesDir).getName());
+        File newProcessedDir = new File(newProjectDir, new File(processedFramesDir).getName());
+        newRawDir.mkdirs();
+        newProcessedDir.mkdirs();
+        List<File> copiedFrames = new ArrayList<>(rawFrames.size());
+        for (File rawFrame : rawFrames) {
+            File copy = new File(newRawDir, rawFrame.getName());
+            copyFile(rawFrame, copy);
+            copiedFrames.add(copy);
+        }
+        rawFrames = copiedFrames;
+        // Only video projects keep a manifest, so the copies are this video's extraction.
+        BatchManifest.recordExtraction(newProjectDir, BatchManifest.inputSignature(new File(inputFilePath)),
+                extractionFps, copiedFrames.size());
+        rawFramesDir = newRawDir.getAbsolutePath();
+        processedFramesDir = newProcessedDir.getAbsolutePath();
+        SegmentationMaskCache.setDiskDirectory(new File(newProjectDir, "segmentation_masks"));
+        return newProjectDir;
+    }
+
+    /**
+     * Everything that decides a batch's output: the method and its settings. A batch with a
+     * different signature processes every frame again.
+     */
+    private String batchJobSignature() {
+        return String.format(Locale.US,
+                "method=%d;ksize=%d;depth=%d;sharpness=%d;adjust=%d,%d,%d,%d;mode=%d;auto=%b;ai=%b;style=%d,%d;delta=%.2f",
+                selectedMethod, sliderKsize.getProgress(), sliderDepth.getProgress(), sliderSharpness.getProgress(),
+                brightnessValue, contrastValue, saturationValue, temperatureValue,
+                sliderAnalysisMode.getProgress(), switchAutomaticScan.isChecked(), switchEnableAi.isChecked(),
+                styleSpinner.getSelectedItemPosition(),
+                sharedPreferences.getInt(StyleTransferEngine.PREF_LONG_EDGE, StyleTransferEngine.DEFAULT_LONG_EDGE),
+                sharedPreferences.getFloat(FrameDeltaDetector.PREF_THRESHOLD, FrameDeltaDetector.DEFAULT_THRESHOLD));
+    }
+
+    /** Ends the batch's video segmentation session, if any. Call on the batch thread. */
+    private void closeVideoSegmentation() {
+        DeepScanProcessor.setVideoSegmentation(null);
+        if (videoSegmentation != null) {
+            videoSegmentation.close();
+            videoSegmentation = null;
+        }
+    }
+
+    /**
+     * The bitmap a worker processes for a pipeline frame. A near duplicate reuses the previous
+     * frame's output and, like an unreadable frame, yields null; if there is no output to reuse
+     * it is decoded here instead.
+     */
+    private Bitmap frameToProcess(FramePipeline pipeline, FramePipeline.Frame frame, FrameDeltaDetector detector, FramePipeline.FrameDecoder decoder) throws Exception {
+        if (!frame.nearDuplicate) {
+            return frame.bitmap;
+        }
+        if (reusePreviousOutput(pipeline, detector, frame.index)) {
+            return null;
+        }
+        return decoder.decode(frame.index);
+    }
+
+    /**
+     * Has the writer copy the previous frame's output for a near-duplicate frame, once it has
+     * committed the previous frame. Only an output the writer saved in this run is reused.
+     * @return true if the frame needs no processing.
+     */
+    private boolean reusePreviousOutput(FramePipeline pipeline, FrameDeltaDetector detector, int frameIndex) throws InterruptedException {
+        pipeline.awaitCommitted(frameIndex - 1);
+        if (!pipeline.reusePreviousOutput(frameIndex)) {
+            return false;
+        }
+        detector.recordReuse(frameIndex);
+        return true;
+    }
+
+    private File getProcessedFrameFile(int frameIndex) {
+        // MERGED: Logic to generate consistent filenames
+        return new File(processedFramesDir, String.format("processed_%05d.png", frameIndex));
+    }
+
     private void saveProcessedFrame(Bitmap bitmap, int frameIndex) {
+        saveProcessedFrame(bitmap, frameIndex, true);
+    }
+
+    private void saveProcessedFrame(Bitmap bitmap, int frameIndex, boolean recycleAfterSave) {
         if (bitmap != null) {
-            updateMainDisplay(bitmap);
-            // MERGED: Logic to generate consistent filenames
-            String outPath = new File(processedFramesDir, String.format("processed_%05d.png", frameIndex)).getAbsolutePath();
+            // The writer or the frame's owner may recycle or redraw the frame while it is on
+            // screen, so the display gets a copy of its own.
+            updateMainDisplay(displayCopy(bitmap));
+            boolean recycle = recycleAfterSave && bitmap != goldStandardBitmap;
+            FramePipeline pipeline = framePipeline;
+            if (pipeline != null) {
+                // During a batch the writer thread saves it. A bitmap its owner goes on drawing
+                // into is handed over as a copy; the gold standard is only ever read.
+                boolean handOver = recycleAfterSave || bitmap == goldStandardBitmap;
+                Bitmap toWrite = handOver ? bitmap : bitmap.copy(Bitmap.Config.ARGB_8888, false);
+                pipeline.write(frameIndex, toWrite, recycle || !handOver);
+                return;
+            }
             try {
-                ImageProcessor.saveBitmap(bitmap, outPath);
+                writeProcessedFrame(frameIndex, bitmap);
             } catch (Exception e) {
                 Log.e(TAG, "Failed to save AI processed frame.", e);
             }
-            if (bitmap != goldStandardBitmap) {
-                if(!bitmap.isRecycled()){
-                    bitmap.recycle();
-                }
+            if (recycle && !bitmap.isRecycled()) {
+                bitmap.recycle();
             }
         }
     }
 
+    /** A display-size copy of a processed frame, drawn into a PreviewBitmapRing bitmap. */
+    private static Bitmap displayCopy(Bitmap frame) {
+        double scale = PreviewBitmapRing.scaleFor(frame.getWidth(), frame.getHeight());
+        int width = Math.max(1, (int) Math.round(frame.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(frame.getHeight() * scale));
+        Bitmap copy = PreviewBitmapRing.obtain(width, height);
+        copy.eraseColor(Color.TRANSPARENT);
+        new Canvas(copy).drawBitmap(frame, null, new Rect(0, 0, width, height), new Paint(Paint.FILTER_BITMAP_FLAG));
+        return copy;
+    }
+
+    private void writeProcessedFrame(int frameIndex, Bitmap bitmap) throws Exception {
+        ImageProcessor.saveBitmap(bitmap, getProcessedFrameFile(frameIndex).getAbsolutePath());
+    }
+
     private void beginBlockingAiGuidedScan(Bitmap bitmap, final int frameIndex, final int ksize) throws InterruptedException {
         try {
             updateStatus("Frame " + (frameIndex + 1) + ": AI analyzing subject...", false);
@@ -1857,6 +2420,39 @@ public class ProcessingDialogFragment extends DialogFragment {
         return resultHolder[0];
     }
 
+    private StyleTransferEngine createStyleTransferEngine() throws IOException {
+        return createStyleTransferEngine(Runtime.getRuntime().availableProcessors());
+    }
+
+    private StyleTransferEngine createStyleTransferEngine(int maxThreads) throws IOException {
+        return new StyleTransferEngine(() -> loadModelFile(StyleVectorCache.PREDICTION_MODEL_ASSET),
+                loadModelFile("magenta_transfer.tflite"), maxThreads);
+    }
+
+    /**
+     * Gives the engine the vector of a bundled style, from the on-disk cache when possible. On a
+     * miss the prediction model is loaded anyway, so every bundled style that is not cached yet
+     * is predicted and cached in the same pass.
+     */
+    private void applyStyle(StyleTransferEngine engine, int styleIndex) throws IOException {
+        Context context = getContext();
+        float[] styleVector = StyleVectorCache.get(context, StyleVectorCache.keyForAsset(styleAssetFiles[styleIndex]));
+        if (styleVector == null) {
+            for (int i = 0; i < styleAssetFiles.length; i++) {
+                String key = StyleVectorCache.keyForAsset(styleAssetFiles[i]);
+                if (i != styleIndex && StyleVectorCache.get(context, key) != null) continue;
+                Bitmap styleBitmap = loadBitmapFromAssets(styleAssetFiles[i]);
+                float[] predicted = engine.predictStyle(styleBitmap);
+                styleBitmap.recycle();
+                StyleVectorCache.put(context, key, predicted);
+                if (i == styleIndex) {
+                    styleVector = predicted;
+                }
+            }
+        }
+        engine.setStyle(styleVector);
+    }
+
     private MappedByteBuffer loadModelFile(String modelFileName) throws IOException {
         AssetFileDescriptor fileDescriptor = getContext().getAssets().openFd(modelFileName);
         FileInputStream inputStream = new FileInputStream(fileDescriptor.getFileDescriptor());
@@ -0,0 +1,89 @@
+package com.kop.app;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Approximates a large Gaussian blur from a Gaussian pyramid. Each pyrDown level already is a
+ * 5x5 Gaussian blur followed by decimation, so a blur of any size can be split into the variance
+ * the pyramid has accumulated plus a small residual Gaussian applied at the coarse level, which
+ * is then interpolated back to full size. The pyramid is built once per frame, after which the
+ * cost of any kernel size is roughly that of a 5x5 blur on the level instead of a ksize x ksize
+ * blur on the full frame.
+ */
+public final class PyramidBlur {
+
+    // The residual blur must stay wide enough, measured in level pixels, for bilinear
+    // interpolation back to full size to be visually smooth.
+    private static final double MIN_RESIDUAL_SIGMA = 2.0;
+    // Levels smaller than this no longer describe the frame usefully.
+    private static final int MIN_LEVEL_SIZE = 16;
+
+    private PyramidBlur() {}
+
+    /**
+     * @return The sigma OpenCV's GaussianBlur derives from a kernel size when sigma is 0.
+     */
+    public static double sigmaForKsize(int ksize) {
+        return 0.3 * ((ksize - 1) * 0.5 - 1) + 0.8;
+    }
+
+    /**
+     * @return The pyramid level a blur of this kernel size is evaluated at, or 0 when the kernel
+     * is too small for the pyramid to save anything and the exact Gaussian should be used.
+     */
+    public static int levelFor(int ksize, int rows, int cols) {
+        double variance = square(sigmaForKsize(ksize));
+        int level = 0;
+        while (true) {
+            int next = level + 1;
+            if ((rows >> next) < MIN_LEVEL_SIZE || (cols >> next) < MIN_LEVEL_SIZE
+                    || residualSigma(variance, next) < MIN_RESIDUAL_SIGMA) {
+                return level;
+            }
+            level = next;
+        }
+    }
+
+    /**
+     * Finishes the blur from a pyramid level and brings it back to full size.
+     * @param levelMat Level {@code level} of the pyramid of the frame to blur.
+     * @return A pooled Mat of the given size, owned by the caller.
+     */
+    public static Mat blurFromLevel(Mat levelMat, int level, int ksize, Size fullSize) {
+        double sigma = residualSigma(square(sigmaForKsize(ksize)), level);
+        Mat blurred = MatPool.obtainLike(levelMat);
+        Imgproc.GaussianBlur(levelMat, blurred, new Size(0, 0), sigma, sigma, Core.BORDER_REPLICATE);
+
+        // pyrDown keeps every second pixel, so level pixel i sits exactly on source pixel
+        // i * 2^level. resize() assumes pixel-centre alignment instead and would shift the result
+        // by half a level pixel per level, so the mapping is given explicitly.
+        double scale = 1.0 / (1 << level);
+        Mat inverseMap = new Mat(2, 3, CvType.CV_64F);
+        inverseMap.put(0, 0, scale, 0, 0, 0, scale, 0);
+        Mat result = MatPool.obtain((int) fullSize.height, (int) fullSize.width, levelMat.type());
+        Imgproc.warpAffine(blurred, result, inverseMap, fullSize,
+                Imgproc.INTER_LINEAR | Imgproc.WARP_INVERSE_MAP, Core.BORDER_REPLICATE, new Scalar(0));
+
+        inverseMap.release();
+        MatPool.recycle(blurred);
+        return result;
+    }
+
+    /**
+     * The pyramid kernel (1 4 6 4 1)/16 has variance 1, in the pixels of the level it runs on.
+     * Level L has therefore accumulated (4^L - 1) / 3 of variance in source pixels.
+     */
+    private static double residualSigma(double variance, int level) {
+        double pyramidVariance = ((1L << (2 * level)) - 1) / 3.0;
+        return Math.sqrt(Math.max(0, variance - pyramidVariance)) / (1 << level);
+    }
+
+    private static double square(double value) {
+        return value * value;
+    }
+}
@@ -0,0 +1,211 @@
+package com.kop.app;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Caches segmentation confidence masks by frame content, so re-editing a frame, switching between
+ * the AI methods or re-running a batch never segments the same pixels twice. Masks are 8-bit and
+ * kept at the model's output size: a bounded in-memory LRU in front of deflate-compressed files
+ * in the current project's directory.
+ */
+public final class SegmentationMaskCache {
+
+    private static final String TAG = "SegMaskCache";
+
+    private static final int FILE_MAGIC = 0x4B4D534B; // "KMSK"
+    private static final long MAX_MEMORY_BYTES = 16L * 1024 * 1024;
+    private static final int MAX_REMEMBERED_HASHES = 64;
+    private static final int HASH_STRIP_PIXELS = 1 << 18;
+
+    private static final LinkedHashMap<String, Mat> memory = new LinkedHashMap<>(32, 0.75f, true);
+    private static long memoryBytes = 0;
+    private static File diskDirectory;
+
+    // Hashing a 12 MP frame is not free, so the hash of a bitmap that has not changed is reused.
+    private static final LinkedHashMap<String, Long> hashesByFrame = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_REMEMBERED_HASHES;
+        }
+    };
+
+    private SegmentationMaskCache() {}
+
+    /**
+     * Sets where masks are persisted; null keeps them in memory only.
+     */
+    public static synchronized void setDiskDirectory(File directory) {
+        diskDirectory = directory;
+        if (directory != null && !directory.exists() && !directory.mkdirs()) {
+            Log.w(TAG, "Could not create mask cache directory " + directory);
+        }
+    }
+
+    /**
+     * @return A 64-bit FNV-1a hash of the bitmap's dimensions and pixels.
+     */
+    public static long contentHash(Bitmap bitmap) {
+        String frameKey = StageCache.frameKey(bitmap);
+        synchronized (SegmentationMaskCache.class) {
+            Long known = hashesByFrame.get(frameKey);
+            if (known != null) {
+                return known;
+            }
+        }
+
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        long hash = 0xcbf29ce484222325L;
+        hash = (hash ^ width) * 0x100000001b3L;
+        hash = (hash ^ height) * 0x100000001b3L;
+        int stripRows = Math.max(1, HASH_STRIP_PIXELS / width);
+        int[] pixels = new int[stripRows * width];
+        for (int top = 0; top < height; top += stripRows) {
+            int rows = Math.min(stripRows, height - top);
+            bitmap.getPixels(pixels, 0, width, 0, top, width, rows);
+            int count = rows * width;
+            for (int i = 0; i < count; i++) {
+                hash = (hash ^ pixels[i]) * 0x100000001b3L;
+            }
+        }
+
+        synchronized (SegmentationMaskCache.class) {
+            hashesByFrame.put(frameKey, hash);
+        }
+        return hash;
+    }
+
+    /**
+     * @return A copy of the cached mask, owned by the caller, or null on a miss.
+     */
+    public static Mat get(long contentHash, String modelId) {
+        String key = key(contentHash, modelId);
+        synchronized (SegmentationMaskCache.class) {
+            Mat cached = memory.get(key);
+            if (cached != null) {
+                return cached.clone();
+            }
+        }
+
+        Mat loaded = readFromDisk(key);
+        if (loaded != null) {
+            remember(key, loaded);
+        }
+        return loaded;
+    }
+
+    /**
+     * Stores an 8-bit mask. The cache keeps its own copy; the caller still owns the given Mat.
+     */
+    public static void put(long contentHash, String modelId, Mat mask8u) {
+        if (mask8u.type() != CvType.CV_8UC1 || mask8u.empty()) {
+            return;
+        }
+        String key = key(contentHash, modelId);
+        remember(key, mask8u);
+        writeToDisk(key, mask8u);
+    }
+
+    public static synchronized void clearMemory() {
+        for (Mat mat : memory.values()) {
+            mat.release();
+        }
+        memory.clear();
+        memoryBytes = 0;
+        hashesByFrame.clear();
+    }
+
+    private static String key(long contentHash, String modelId) {
+        return String.format(Locale.US, "%016x_%s", contentHash, modelId.replaceAll("[^A-Za-z0-9._-]", "_"));
+    }
+
+    private static synchronized void remember(String key, Mat mask) {
+        Mat copy = mask.clone();
+        Mat previous = memory.put(key, copy);
+        if (previous != null) {
+            memoryBytes -= previous.total();
+            previous.release();
+        }
+        memoryBytes += copy.total();
+        Iterator<Mat> it = memory.values().iterator();
+        while (memoryBytes > MAX_MEMORY_BYTES && it.hasNext()) {
+            Mat eldest = it.next();
+            memoryBytes -= eldest.total();
+            eldest.release();
+            it.remove();
+        }
+    }
+
+    private static synchronized File fileFor(String key) {
+        return diskDirectory == null ? null : new File(diskDirectory, key + ".mask");
+    }
+
+    private static Mat readFromDisk(String key) {
+        File file = fileFor(key);
+        if (file == null || !file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FILE_MAGIC) {
+                return null;
+            }
+            int rows = in.readInt();
+            int cols = in.readInt();
+            byte[] data = new byte[rows * cols];
+            new DataInputStream(new InflaterInputStream(in)).readFully(data);
+            Mat mask = new Mat(rows, cols, CvType.CV_8UC1);
+            mask.put(0, 0, data);
+            return mask;
+        } catch (IOException e) {
+            Log.w(TAG, "Discarding unreadable mask " + file.getName(), e);
+            file.delete();
+            return null;
+        }
+    }
+
+    private static void writeToDisk(String key, Mat mask) {
+        File file = fileFor(key);
+        if (file == null) {
+            return;
+        }
+        byte[] data = new byte[(int) mask.total()];
+        mask.get(0, 0, data);
+        // Write to a temp file and rename, so a crash never leaves a truncated mask behind.
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                out.writeInt(FILE_MAGIC);
+                out.writeInt(mask.rows());
+                out.writeInt(mask.cols());
+                DeflaterOutputStream deflater = new DeflaterOutputStream(out);
+                deflater.write(data);
+                deflater.finish();
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("rename failed");
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not persist mask " + file.getName(), e);
+            temp.delete();
+        }
+    }
+}
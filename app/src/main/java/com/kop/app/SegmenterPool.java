@@ -0,0 +1,160 @@
+package com.kop.app;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.google.mediapipe.framework.image.MPImage;
+import com.google.mediapipe.tasks.core.BaseOptions;
+import com.google.mediapipe.tasks.vision.core.RunningMode;
+import com.google.mediapipe.tasks.vision.imagesegmenter.ImageSegmenter;
+import com.google.mediapipe.tasks.vision.imagesegmenter.ImageSegmenter.ImageSegmenterOptions;
+import com.google.mediapipe.tasks.vision.imagesegmenter.ImageSegmenterResult;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps selfie-segmentation models loaded between frames. Loading the TFLite model costs far more
+ * than running it, so segmenters are created lazily, leased to one thread at a time (an
+ * ImageSegmenter is not thread-safe) and returned to an idle queue instead of being closed.
+ * The pool only ever holds as many instances as there were threads segmenting at once.
+ */
+public final class SegmenterPool {
+
+    private static final String TAG = "SegmenterPool";
+    public static final String MODEL_FILE = "selfie_segmenter.tflite";
+
+    private static final ArrayDeque<ImageSegmenter> idle = new ArrayDeque<>();
+    private static final Set<ImageSegmenter> leased = new HashSet<>();
+    // Segmenters that were leased out during shutdown(); closed as soon as they come back.
+    private static final Set<ImageSegmenter> retired = new HashSet<>();
+
+    private static final AtomicLong modelLoads = new AtomicLong();
+    private static final AtomicLong modelLoadNanos = new AtomicLong();
+    private static final AtomicLong inferences = new AtomicLong();
+    private static final AtomicLong inferenceNanos = new AtomicLong();
+
+    private SegmenterPool() {}
+
+    /**
+     * Leases a segmenter to the calling thread, loading a new one only if none is idle. Every
+     * acquire must be paired with a release, normally in a finally block.
+     */
+    public static ImageSegmenter acquire(Context context) {
+        synchronized (SegmenterPool.class) {
+            ImageSegmenter segmenter = idle.poll();
+            if (segmenter != null) {
+                leased.add(segmenter);
+                return segmenter;
+            }
+        }
+
+        ImageSegmenter segmenter = createSegmenter(context, RunningMode.IMAGE);
+        synchronized (SegmenterPool.class) {
+            leased.add(segmenter);
+        }
+        return segmenter;
+    }
+
+    /**
+     * Creates a segmenter in VIDEO running mode, which carries state from frame to frame. It is
+     * tied to one frame sequence, so it is never pooled; the caller closes it.
+     */
+    public static ImageSegmenter createVideoSegmenter(Context context) {
+        return createSegmenter(context, RunningMode.VIDEO);
+    }
+
+    public static void release(ImageSegmenter segmenter) {
+        if (segmenter == null) {
+            return;
+        }
+        synchronized (SegmenterPool.class) {
+            leased.remove(segmenter);
+            if (!retired.remove(segmenter)) {
+                idle.push(segmenter);
+                return;
+            }
+        }
+        segmenter.close();
+    }
+
+    /**
+     * Runs one inference and records how long it took.
+     */
+    public static ImageSegmenterResult segment(ImageSegmenter segmenter, MPImage image) {
+        long start = System.nanoTime();
+        ImageSegmenterResult result = segmenter.segment(image);
+        inferences.incrementAndGet();
+        inferenceNanos.addAndGet(System.nanoTime() - start);
+        return result;
+    }
+
+    /**
+     * Runs one VIDEO-mode inference and records how long it took. Timestamps must increase.
+     */
+    public static ImageSegmenterResult segmentForVideo(ImageSegmenter segmenter, MPImage image, long timestampMs) {
+        long start = System.nanoTime();
+        ImageSegmenterResult result = segmenter.segmentForVideo(image, timestampMs);
+        inferences.incrementAndGet();
+        inferenceNanos.addAndGet(System.nanoTime() - start);
+        return result;
+    }
+
+    /**
+     * Closes every idle segmenter. Segmenters still leased out are closed when they are released.
+     * The pool stays usable; the next acquire simply loads the model again.
+     */
+    public static void shutdown() {
+        ArrayDeque<ImageSegmenter> toClose;
+        synchronized (SegmenterPool.class) {
+            toClose = new ArrayDeque<>(idle);
+            idle.clear();
+            retired.addAll(leased);
+        }
+        for (ImageSegmenter segmenter : toClose) {
+            segmenter.close();
+        }
+    }
+
+    private static ImageSegmenter createSegmenter(Context context, RunningMode runningMode) {
+        long start = System.nanoTime();
+        ImageSegmenterOptions options = ImageSegmenterOptions.builder()
+                .setBaseOptions(BaseOptions.builder().setModelAssetPath(MODEL_FILE).build())
+                .setRunningMode(runningMode)
+                .setOutputConfidenceMasks(true)
+                .build();
+        ImageSegmenter segmenter = ImageSegmenter.createFromOptions(context.getApplicationContext(), options);
+        long elapsed = System.nanoTime() - start;
+        modelLoads.incrementAndGet();
+        modelLoadNanos.addAndGet(elapsed);
+        Log.d(TAG, String.format(Locale.US, "Loaded %s (%s) in %.1f ms", MODEL_FILE, runningMode, elapsed / 1e6));
+        return segmenter;
+    }
+
+    public static void resetStats() {
+        modelLoads.set(0);
+        modelLoadNanos.set(0);
+        inferences.set(0);
+        inferenceNanos.set(0);
+    }
+
+    /**
+     * @return Model-load versus inference timings, suitable for logging after a batch.
+     */
+    public static String getStatsSummary() {
+        long loads = modelLoads.get();
+        long runs = inferences.get();
+        double loadMs = modelLoadNanos.get() / 1e6;
+        double inferenceMs = inferenceNanos.get() / 1e6;
+        return String.format(Locale.US,
+                "Segmenter pool: %d model loads (%.1f ms total), %d inferences (%.1f ms total, %.1f ms avg)",
+                loads, loadMs, runs, inferenceMs, runs == 0 ? 0.0 : inferenceMs / runs);
+    }
+
+    public static void logStats() {
+        Log.d(TAG, getStatsSummary());
+    }
+}
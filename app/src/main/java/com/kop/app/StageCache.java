@@ -0,0 +1,140 @@
+package com.kop.app;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import org.opencv.core.Mat;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A process-wide LRU of intermediate processing stages (grayscale, blurs, pyramid levels, edge
+ * maps), keyed by frame and by stage parameters. Switching methods or moving a slider on the same
+ * frame only recomputes the stages whose parameters actually changed.
+ *
+ * Only scans on threads that opted in through DeepScanProcessor.setStageCaching use it, which
+ * the interactive previews do and batches do not.
+ *
+ * The cache owns its stored Mats. Callers always get a pooled copy they own and must recycle, so
+ * cached data can never be modified or released from the outside.
+ */
+public final class StageCache {
+
+    private static final String TAG = "StageCache";
+
+    private static final long DEFAULT_MAX_BYTES = 96L * 1024 * 1024;
+
+    /**
+     * Computes a stage on a cache miss. The returned Mat belongs to the caller; the cache stores
+     * its own copy.
+     */
+    public interface Producer {
+        Mat produce();
+    }
+
+    private static final LinkedHashMap<String, Mat> entries = new LinkedHashMap<>(32, 0.75f, true);
+    private static long cachedBytes = 0;
+    private static long maxBytes = DEFAULT_MAX_BYTES;
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    private StageCache() {}
+
+    /**
+     * Builds the identity of a frame. Android hands out bitmap generation ids from a global
+     * counter and bumps them whenever the pixels change, so a modified or different bitmap never
+     * maps onto stale stages.
+     */
+    public static String frameKey(Bitmap bitmap) {
+        return Integer.toHexString(System.identityHashCode(bitmap)) + ":" + bitmap.getGenerationId()
+                + ":" + bitmap.getWidth() + "x" + bitmap.getHeight();
+    }
+
+    /**
+     * Returns the given stage of a frame, computing it with the producer if it is not cached.
+     * @return A pooled Mat owned by the caller.
+     */
+    public static Mat get(String frameKey, String stage, Producer producer) {
+        String key = frameKey + "|" + stage;
+        Mat copy = lookup(key);
+        if (copy != null) {
+            hits.incrementAndGet();
+            return copy;
+        }
+        misses.incrementAndGet();
+        Mat computed = producer.produce();
+        store(key, computed);
+        return computed;
+    }
+
+    public static synchronized void clear() {
+        for (Mat mat : entries.values()) {
+            mat.release();
+        }
+        entries.clear();
+        cachedBytes = 0;
+    }
+
+    public static synchronized void setMaxBytes(long bytes) {
+        maxBytes = Math.max(0, bytes);
+        trimToSize();
+    }
+
+    public static void resetStats() {
+        hits.set(0);
+        misses.set(0);
+    }
+
+    /**
+     * @return A one-line summary of the cache counters, suitable for logging after a batch.
+     */
+    public static synchronized String getStatsSummary() {
+        return String.format(Locale.US, "Stage cache: %d hits, %d misses, %d entries, %.1f MB",
+                hits.get(), misses.get(), entries.size(), cachedBytes / (1024f * 1024f));
+    }
+
+    public static void logStats() {
+        Log.d(TAG, getStatsSummary());
+    }
+
+    private static synchronized Mat lookup(String key) {
+        Mat cached = entries.get(key);
+        if (cached == null) {
+            return null;
+        }
+        Mat copy = MatPool.obtainLike(cached);
+        cached.copyTo(copy);
+        return copy;
+    }
+
+    private static synchronized void store(String key, Mat computed) {
+        long bytes = computed.total() * computed.elemSize();
+        if (computed.empty() || bytes > maxBytes) {
+            return;
+        }
+        Mat stored = new Mat();
+        computed.copyTo(stored);
+        Mat previous = entries.put(key, stored);
+        if (previous != null) {
+            cachedBytes -= previous.total() * previous.elemSize();
+            previous.release();
+        }
+        cachedBytes += bytes;
+        trimToSize();
+    }
+
+    private static void trimToSize() {
+        Iterator<Map.Entry<String, Mat>> it = entries.entrySet().iterator();
+        while (cachedBytes > maxBytes && it.hasNext()) {
+            Mat eldest = it.next().getValue();
+            cachedBytes -= eldest.total() * eldest.elemSize();
+            eldest.release();
+            it.remove();
+        }
+    }
+}
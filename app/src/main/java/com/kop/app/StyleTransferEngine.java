@@ -0,0 +1,460 @@
+package com.kop.app;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.util.Log;
+
+import org.tensorflow.lite.Interpreter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Runs the Magenta arbitrary style transfer models (Method 14) with every buffer allocated once.
+ * Input pixels are scaled into reused bitmaps and written straight into direct tensor buffers,
+ * and the stylized output is written into a reused bitmap, so stylizing a frame allocates nothing.
+ * The interpreters run multi-threaded on the XNNPACK CPU delegate. The prediction model is only
+ * loaded the first time a style has to be predicted, since style vectors are usually cached.
+ *
+ * Frames larger than the model's 384px input can be stylized in tiles: overlapping tiles of the
+ * resized frame go through the same input buffer, and their outputs are feathered together in a
+ * band of TILE rows that is flushed to the output as the tiles move down. Apart from the output
+ * and its resized input, memory does not grow with the frame size. In a batch, the transfer
+ * interpreter can be resized to run several tiles per call; see enableBatching.
+ *
+ * An engine is not thread-safe; each batch or preview uses its own.
+ */
+public final class StyleTransferEngine implements AutoCloseable {
+
+    private static final String TAG = "StyleTransferEngine";
+
+    public static final int STYLE_SIZE = 256;
+    public static final int CONTENT_SIZE = 384;
+    public static final int STYLE_VECTOR_LENGTH = 100;
+    /** SharedPreferences key of the tiled output's long edge; CONTENT_SIZE or less disables tiling. */
+    public static final String PREF_LONG_EDGE = "STYLE_TRANSFER_LONG_EDGE";
+    public static final int DEFAULT_LONG_EDGE = 1536;
+    // Neighbouring tiles share this many pixels, blended with linear ramps.
+    private static final int TILE_OVERLAP = 64;
+    // Batch sizes tried by the startup benchmark, smallest first.
+    private static final int[] BATCH_SIZE_CANDIDATES = {1, 2, 4};
+    private static final int BENCHMARK_RUNS = 2;
+    // Interpreter threads beyond this stop paying off for models this size.
+    private static final int MAX_THREADS = 4;
+
+    /** Supplies a model only when it is first needed. */
+    public interface ModelLoader {
+        ByteBuffer load() throws IOException;
+    }
+
+    private final ModelLoader predictionModelLoader;
+    private final Interpreter.Options options;
+    private Interpreter predictionInterpreter;
+    private final Interpreter transferInterpreter;
+
+    private final ByteBuffer styleInput = allocateFloats(STYLE_SIZE * STYLE_SIZE * 3);
+    private final ByteBuffer styleVector = allocateFloats(STYLE_VECTOR_LENGTH);
+    // Float views of the direct buffers, created with them; they index absolutely.
+    private final FloatBuffer styleInputFloats = styleInput.asFloatBuffer();
+    private final FloatBuffer styleVectorFloats = styleVector.asFloatBuffer();
+    // The transfer buffers hold batchSize tiles, and the style vector once per tile.
+    private int batchSize;
+    private ByteBuffer contentInput;
+    private ByteBuffer transferStyle;
+    private ByteBuffer stylizedOutput;
+    private FloatBuffer contentInputFloats;
+    private FloatBuffer transferStyleFloats;
+    private FloatBuffer stylizedOutputFloats;
+    private final Object[] transferInputs = new Object[2];
+    private final Map<Integer, Object> transferOutputs = new HashMap<>();
+    private boolean batchingEnabled = false;
+    // Milliseconds per interpreter call at each candidate batch size, or MAX_VALUE if the model
+    // cannot take it. Measured once per process; null until then.
+    private static double[] batchRunMillis;
+
+    private final int[] pixels = new int[CONTENT_SIZE * CONTENT_SIZE];
+    private final Paint scalePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Canvas scaleCanvas = new Canvas();
+    private final Rect scaleRect = new Rect();
+    private final Bitmap scaledContent = Bitmap.createBitmap(CONTENT_SIZE, CONTENT_SIZE, Bitmap.Config.ARGB_8888);
+    private final Bitmap stylizedBitmap = Bitmap.createBitmap(CONTENT_SIZE, CONTENT_SIZE, Bitmap.Config.ARGB_8888);
+
+    // Tiled mode. The feather weight of a tile pixel is ramp[x] * ramp[y].
+    private final float[] ramp = new float[CONTENT_SIZE];
+    private Bitmap tiledContent;
+    private Bitmap tiledBitmap;
+    // RGB premultiplied by weight, and the weight, of the CONTENT_SIZE output rows in progress.
+    private float[] bandColor;
+    private float[] bandWeight;
+    private int[] rowPixels;
+    private int bandTop;
+    private final int[] slotLeft = new int[BATCH_SIZE_CANDIDATES[BATCH_SIZE_CANDIDATES.length - 1]];
+    private final int[] slotTop = new int[slotLeft.length];
+
+    public StyleTransferEngine(ModelLoader predictionModelLoader, ByteBuffer transferModel) {
+        this(predictionModelLoader, transferModel, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param maxThreads Interpreter threads to use at most, for engines that run side by side
+     *                   and share the cores.
+     */
+    public StyleTransferEngine(ModelLoader predictionModelLoader, ByteBuffer transferModel, int maxThreads) {
+        int threads = Math.max(1, Math.min(MAX_THREADS, maxThreads));
+        this.predictionModelLoader = predictionModelLoader;
+        this.options = new Interpreter.Options()
+                .setNumThreads(threads)
+                .setUseXNNPACK(true);
+        transferInterpreter = new Interpreter(transferModel, options);
+        allocateTransferBuffers(1);
+        for (int i = 0; i < CONTENT_SIZE; i++) {
+            int distanceToEdge = Math.min(i, CONTENT_SIZE - 1 - i);
+            ramp[i] = Math.min(1f, (distanceToEdge + 1f) / (TILE_OVERLAP + 1f));
+        }
+        Log.d(TAG, "Style transfer engine ready with " + threads + " threads (XNNPACK).");
+    }
+
+    /**
+     * Predicts the style vector of a style image and makes it the style of later stylize calls.
+     * @return A copy of the style vector.
+     */
+    public float[] predictStyle(Bitmap styleBitmap) throws IOException {
+        if (predictionInterpreter == null) {
+            predictionInterpreter = new Interpreter(predictionModelLoader.load(), options);
+        }
+        Bitmap scaledStyle = Bitmap.createBitmap(STYLE_SIZE, STYLE_SIZE, Bitmap.Config.ARGB_8888);
+        int[] stylePixels = new int[STYLE_SIZE * STYLE_SIZE];
+        scaleInto(styleBitmap, scaledStyle);
+        scaledStyle.getPixels(stylePixels, 0, STYLE_SIZE, 0, 0, STYLE_SIZE, STYLE_SIZE);
+        loadPixels(stylePixels, styleInputFloats, 0);
+        scaledStyle.recycle();
+
+        styleInput.rewind();
+        styleVector.rewind();
+        predictionInterpreter.run(styleInput, styleVector);
+
+        float[] vector = new float[STYLE_VECTOR_LENGTH];
+        styleVectorFloats.rewind();
+        styleVectorFloats.get(vector);
+        copyStyleToBatch();
+        return vector;
+    }
+
+    /** Makes a previously predicted style vector the style of later stylize calls. */
+    public void setStyle(float[] vector) {
+        styleVectorFloats.rewind();
+        styleVectorFloats.put(vector, 0, STYLE_VECTOR_LENGTH);
+        copyStyleToBatch();
+    }
+
+    /**
+     * Lets stylizeTiled run several tiles per interpreter call. The batch size is the one that
+     * stylizes the frame's tiles fastest, counting the unused slots of a last partial batch, by a
+     * short benchmark of the transfer model run once per process. It stays 1 if the model cannot
+     * take a larger batch. Only worth it for batches: the benchmark costs a few transfer runs.
+     */
+    public void enableBatching() {
+        batchingEnabled = true;
+    }
+
+    /**
+     * Stylizes a content image with the current style.
+     * @return The engine's CONTENT_SIZE x CONTENT_SIZE output bitmap. It is overwritten by the
+     * next call and must not be recycled, but stays valid after the engine is closed.
+     */
+    public Bitmap stylize(Bitmap contentBitmap) {
+        if (batchSize != 1) {
+            resizeTransfer(1);
+        }
+        scaleInto(contentBitmap, scaledContent);
+        scaledContent.getPixels(pixels, 0, CONTENT_SIZE, 0, 0, CONTENT_SIZE, CONTENT_SIZE);
+        loadPixels(pixels, contentInputFloats, 0);
+        runTransfer();
+
+        for (int i = 0; i < pixels.length; ++i) {
+            int r = clamp((int) (stylizedOutputFloats.get(i * 3) * 255));
+            int g = clamp((int) (stylizedOutputFloats.get(i * 3 + 1) * 255));
+            int b = clamp((int) (stylizedOutputFloats.get(i * 3 + 2) * 255));
+            pixels[i] = 0xFF000000 | (r << 16) | (g << 8) | b;
+        }
+        stylizedBitmap.setPixels(pixels, 0, CONTENT_SIZE, 0, 0, CONTENT_SIZE, CONTENT_SIZE);
+        return stylizedBitmap;
+    }
+
+    /**
+     * Stylizes a content image in overlapping tiles, at the content's size capped to maxLongEdge.
+     * Each side is at least CONTENT_SIZE, so very elongated frames are slightly stretched.
+     * @return The engine's tiled output bitmap, which follows the same rules as stylize's, or
+     * stylize's own output when maxLongEdge leaves no room for more than one tile.
+     */
+    public Bitmap stylizeTiled(Bitmap contentBitmap, int maxLongEdge) {
+        int contentWidth = contentBitmap.getWidth();
+        int contentHeight = contentBitmap.getHeight();
+        int longEdge = Math.min(maxLongEdge, Math.max(contentWidth, contentHeight));
+        if (longEdge <= CONTENT_SIZE) {
+            return stylize(contentBitmap);
+        }
+        double scale = (double) longEdge / Math.max(contentWidth, contentHeight);
+        int width = Math.max(CONTENT_SIZE, (int) Math.round(contentWidth * scale));
+        int height = Math.max(CONTENT_SIZE, (int) Math.round(contentHeight * scale));
+
+        tiledContent = reuseOrCreate(tiledContent, width, height);
+        tiledBitmap = reuseOrCreate(tiledBitmap, width, height);
+        if (bandWeight == null || bandWeight.length != CONTENT_SIZE * width) {
+            bandColor = new float[CONTENT_SIZE * width * 3];
+            bandWeight = new float[CONTENT_SIZE * width];
+            rowPixels = new int[width];
+        }
+        scaleInto(contentBitmap, tiledContent);
+
+        int[] columns = tileOrigins(width);
+        int[] rows = tileOrigins(height);
+        if (batchingEnabled) {
+            useBatchSize(columns.length * rows.length);
+        }
+        bandTop = 0;
+        int slot = 0;
+        for (int top : rows) {
+            for (int left : columns) {
+                tiledContent.getPixels(pixels, 0, CONTENT_SIZE, left, top, CONTENT_SIZE, CONTENT_SIZE);
+                loadPixels(pixels, contentInputFloats, slot * CONTENT_SIZE * CONTENT_SIZE * 3);
+                slotLeft[slot] = left;
+                slotTop[slot] = top;
+                if (++slot == batchSize) {
+                    runTransfer();
+                    accumulateBatch(slot, width);
+                    slot = 0;
+                }
+            }
+        }
+        // A last partial batch runs at full size; useBatchSize counted its unused slots.
+        if (slot > 0) {
+            runTransfer();
+            accumulateBatch(slot, width);
+        }
+        flushBand(bandTop, height - bandTop, width);
+        return tiledBitmap;
+    }
+
+    @Override
+    public void close() {
+        if (predictionInterpreter != null) {
+            predictionInterpreter.close();
+        }
+        transferInterpreter.close();
+        scaledContent.recycle();
+        if (tiledContent != null) {
+            tiledContent.recycle();
+        }
+    }
+
+    private void runTransfer() {
+        contentInput.rewind();
+        transferStyle.rewind();
+        stylizedOutput.rewind();
+        transferInterpreter.runForMultipleInputsOutputs(transferInputs, transferOutputs);
+    }
+
+    private void accumulateBatch(int tileCount, int width) {
+        for (int slot = 0; slot < tileCount; slot++) {
+            // Tiles arrive top to bottom, so no later tile reaches above this one.
+            if (slotTop[slot] > bandTop) {
+                flushBand(bandTop, slotTop[slot] - bandTop, width);
+                bandTop = slotTop[slot];
+            }
+            accumulateTile(slot, slotLeft[slot], width);
+        }
+    }
+
+    // Adds a tile's model output, weighted by the feather ramps, to the band at its column.
+    private void accumulateTile(int slot, int left, int width) {
+        int slotOffset = slot * CONTENT_SIZE * CONTENT_SIZE;
+        for (int y = 0; y < CONTENT_SIZE; y++) {
+            float rowWeight = ramp[y];
+            int bandIndex = y * width + left;
+            int tileIndex = slotOffset + y * CONTENT_SIZE;
+            for (int x = 0; x < CONTENT_SIZE; x++, bandIndex++, tileIndex++) {
+                float weight = rowWeight * ramp[x];
+                bandColor[bandIndex * 3] += stylizedOutputFloats.get(tileIndex * 3) * weight;
+                bandColor[bandIndex * 3 + 1] += stylizedOutputFloats.get(tileIndex * 3 + 1) * weight;
+                bandColor[bandIndex * 3 + 2] += stylizedOutputFloats.get(tileIndex * 3 + 2) * weight;
+                bandWeight[bandIndex] += weight;
+            }
+        }
+    }
+
+    // Writes the first rowCount band rows to the output at outputTop and shifts the rest up.
+    private void flushBand(int outputTop, int rowCount, int width) {
+        if (rowCount <= 0) {
+            return;
+        }
+        for (int y = 0; y < rowCount; y++) {
+            int bandIndex = y * width;
+            for (int x = 0; x < width; x++, bandIndex++) {
+                float scale = 255f / bandWeight[bandIndex];
+                int r = clamp((int) (bandColor[bandIndex * 3] * scale));
+                int g = clamp((int) (bandColor[bandIndex * 3 + 1] * scale));
+                int b = clamp((int) (bandColor[bandIndex * 3 + 2] * scale));
+                rowPixels[x] = 0xFF000000 | (r << 16) | (g << 8) | b;
+            }
+            tiledBitmap.setPixels(rowPixels, 0, width, 0, outputTop + y, width, 1);
+        }
+        int keptPixels = (CONTENT_SIZE - rowCount) * width;
+        int flushedPixels = rowCount * width;
+        if (keptPixels > 0) {
+            System.arraycopy(bandColor, flushedPixels * 3, bandColor, 0, keptPixels * 3);
+            System.arraycopy(bandWeight, flushedPixels, bandWeight, 0, keptPixels);
+        }
+        Arrays.fill(bandColor, keptPixels * 3, bandColor.length, 0f);
+        Arrays.fill(bandWeight, keptPixels, bandWeight.length, 0f);
+    }
+
+    // Resizes the transfer interpreter to the batch size that runs tileCount tiles fastest.
+    private void useBatchSize(int tileCount) {
+        double[] runMillis;
+        synchronized (StyleTransferEngine.class) {
+            if (batchRunMillis == null) {
+                batchRunMillis = measureBatchRunMillis();
+            }
+            runMillis = batchRunMillis;
+        }
+        int size = fastestBatchSize(tileCount, runMillis);
+        if (size != batchSize && !resizeTransfer(size)) {
+            resizeTransfer(1);
+        }
+    }
+
+    /**
+     * @return The candidate batch size with the least total run time for tileCount tiles, where
+     * a last partial batch costs a full run.
+     */
+    static int fastestBatchSize(int tileCount, double[] runMillis) {
+        int fastest = 1;
+        double fastestMillis = Double.MAX_VALUE;
+        for (int i = 0; i < BATCH_SIZE_CANDIDATES.length; i++) {
+            int candidate = BATCH_SIZE_CANDIDATES[i];
+            if (candidate > tileCount || runMillis[i] == Double.MAX_VALUE) {
+                break;
+            }
+            int runs = (tileCount + candidate - 1) / candidate;
+            double millis = runs * runMillis[i];
+            if (millis < fastestMillis) {
+                fastestMillis = millis;
+                fastest = candidate;
+            }
+        }
+        return fastest;
+    }
+
+    private double[] measureBatchRunMillis() {
+        double[] runMillis = new double[BATCH_SIZE_CANDIDATES.length];
+        Arrays.fill(runMillis, Double.MAX_VALUE);
+        StringBuilder report = new StringBuilder("Transfer batch benchmark (ms per tile):");
+        for (int i = 0; i < BATCH_SIZE_CANDIDATES.length; i++) {
+            int candidate = BATCH_SIZE_CANDIDATES[i];
+            if (!resizeTransfer(candidate)) {
+                break;
+            }
+            runTransfer(); // Warm-up; the first run after a resize also prepares the delegate.
+            long start = System.nanoTime();
+            for (int run = 0; run < BENCHMARK_RUNS; run++) {
+                runTransfer();
+            }
+            runMillis[i] = (System.nanoTime() - start) / 1e6 / BENCHMARK_RUNS;
+            report.append(String.format(Locale.US, " %d=%.1f", candidate, runMillis[i] / candidate));
+        }
+        Log.d(TAG, report.toString());
+        return runMillis;
+    }
+
+    /** @return false if the model cannot run at this batch size. */
+    private boolean resizeTransfer(int size) {
+        try {
+            transferInterpreter.resizeInput(0, new int[]{size, CONTENT_SIZE, CONTENT_SIZE, 3});
+            transferInterpreter.resizeInput(1, new int[]{size, 1, 1, STYLE_VECTOR_LENGTH});
+            transferInterpreter.allocateTensors();
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Transfer model cannot run a batch of " + size, e);
+            // The interpreter no longer matches the buffers; the next resize must not be skipped.
+            batchSize = 0;
+            return false;
+        }
+        allocateTransferBuffers(size);
+        return true;
+    }
+
+    private void allocateTransferBuffers(int size) {
+        batchSize = size;
+        contentInput = allocateFloats(size * CONTENT_SIZE * CONTENT_SIZE * 3);
+        transferStyle = allocateFloats(size * STYLE_VECTOR_LENGTH);
+        stylizedOutput = allocateFloats(size * CONTENT_SIZE * CONTENT_SIZE * 3);
+        contentInputFloats = contentInput.asFloatBuffer();
+        transferStyleFloats = transferStyle.asFloatBuffer();
+        stylizedOutputFloats = stylizedOutput.asFloatBuffer();
+        transferInputs[0] = contentInput;
+        transferInputs[1] = transferStyle;
+        transferOutputs.put(0, stylizedOutput);
+        copyStyleToBatch();
+    }
+
+    private void copyStyleToBatch() {
+        for (int slot = 0; slot < batchSize; slot++) {
+            for (int i = 0; i < STYLE_VECTOR_LENGTH; i++) {
+                transferStyleFloats.put(slot * STYLE_VECTOR_LENGTH + i, styleVectorFloats.get(i));
+            }
+        }
+    }
+
+    // Tile origins along one side: evenly spread, overlapping by at least TILE_OVERLAP, with the
+    // last tile flush with the far edge.
+    static int[] tileOrigins(int length) {
+        int count = 1 + (int) Math.ceil((double) (length - CONTENT_SIZE) / (CONTENT_SIZE - TILE_OVERLAP));
+        int[] origins = new int[count];
+        for (int i = 1; i < count; i++) {
+            origins[i] = (int) Math.round((double) i * (length - CONTENT_SIZE) / (count - 1));
+        }
+        return origins;
+    }
+
+    private static Bitmap reuseOrCreate(Bitmap bitmap, int width, int height) {
+        if (bitmap != null && !bitmap.isRecycled() && bitmap.getWidth() == width && bitmap.getHeight() == height) {
+            return bitmap;
+        }
+        return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    // Bilinear scaling, as the TFLite support library's ResizeOp does, into an ARGB_8888 target
+    // whatever the config of the source.
+    private void scaleInto(Bitmap source, Bitmap target) {
+        scaleCanvas.setBitmap(target);
+        scaleRect.set(0, 0, target.getWidth(), target.getHeight());
+        scaleCanvas.drawBitmap(source, null, scaleRect, scalePaint);
+        scaleCanvas.setBitmap(null);
+    }
+
+    // Writes RGB normalized to [0, 1], the layout and range both models expect.
+    private static void loadPixels(int[] pixelBuffer, FloatBuffer floats, int offset) {
+        for (int i = 0; i < pixelBuffer.length; i++) {
+            int pixel = pixelBuffer[i];
+            floats.put(offset + i * 3, ((pixel >> 16) & 0xFF) / 255.0f);
+            floats.put(offset + i * 3 + 1, ((pixel >> 8) & 0xFF) / 255.0f);
+            floats.put(offset + i * 3 + 2, (pixel & 0xFF) / 255.0f);
+        }
+    }
+
+    private static ByteBuffer allocateFloats(int count) {
+        return ByteBuffer.allocateDirect(count * 4).order(ByteOrder.nativeOrder());
+    }
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+}
@@ -0,0 +1,123 @@
+package com.kop.app;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * Caches Method 14 style vectors on disk, so a style image only goes through the prediction model
+ * once. Vectors live in the app's files directory, keyed by the style image and by the CRC of the
+ * prediction model, so a changed model never reuses vectors predicted by the old one.
+ */
+public final class StyleVectorCache {
+
+    private static final String TAG = "StyleVectorCache";
+
+    public static final String PREDICTION_MODEL_ASSET = "magenta_prediction.tflite";
+
+    private static final String DIRECTORY_NAME = "style_vectors";
+    private static final int FILE_MAGIC = 0x4B535456; // "KSTV"
+    private static final int READ_BUFFER_BYTES = 64 * 1024;
+
+    private static String modelHash;
+
+    private StyleVectorCache() {}
+
+    /** Key of a style image bundled in the app's assets. */
+    public static String keyForAsset(String assetName) {
+        return "asset_" + assetName.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    /**
+     * @return The cached vector, or null if this style was never predicted with the current model.
+     */
+    public static float[] get(Context context, String styleKey) {
+        File file = fileFor(context, styleKey);
+        if (file == null || !file.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FILE_MAGIC) {
+                return null;
+            }
+            float[] vector = new float[in.readInt()];
+            for (int i = 0; i < vector.length; i++) {
+                vector[i] = in.readFloat();
+            }
+            return vector;
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read style vector " + file, e);
+            return null;
+        }
+    }
+
+    public static void put(Context context, String styleKey, float[] vector) {
+        File file = fileFor(context, styleKey);
+        if (file == null) {
+            return;
+        }
+        // Written under a temporary name and renamed, so a cut-off write is never read back.
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(vector.length);
+            for (float value : vector) {
+                out.writeFloat(value);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write style vector " + file, e);
+            temp.delete();
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            Log.w(TAG, "Could not store style vector " + file);
+            temp.delete();
+        }
+    }
+
+    private static File fileFor(Context context, String styleKey) {
+        String hash = getModelHash(context);
+        if (hash == null) {
+            return null;
+        }
+        File directory = new File(context.getFilesDir(), DIRECTORY_NAME);
+        if (!directory.exists() && !directory.mkdirs()) {
+            Log.w(TAG, "Could not create style vector directory " + directory);
+            return null;
+        }
+        return new File(directory, styleKey + "-" + hash + ".vec");
+    }
+
+    // Hashing the model reads it once per process, which is still far cheaper than loading it.
+    private static synchronized String getModelHash(Context context) {
+        if (modelHash == null) {
+            try (InputStream in = context.getAssets().open(PREDICTION_MODEL_ASSET)) {
+                modelHash = crcOf(in);
+            } catch (IOException e) {
+                Log.w(TAG, "Could not hash " + PREDICTION_MODEL_ASSET + "; style vectors are not cached.", e);
+            }
+        }
+        return modelHash;
+    }
+
+    private static String crcOf(InputStream in) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[READ_BUFFER_BYTES];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            crc.update(buffer, 0, read);
+        }
+        return String.format(Locale.US, "%08x", crc.getValue());
+    }
+}
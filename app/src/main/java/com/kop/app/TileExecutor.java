@@ -0,0 +1,133 @@
+package com.kop.app;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a per-pixel-neighbourhood filter chain over large frames as overlapping tiles on a shared
+ * fork-join pool. Each tile is processed together with a halo of surrounding pixels, and only
+ * its core is copied into the result, so filters whose reach fits inside the halo stitch without
+ * seams. Small frames are processed in one piece on the calling thread.
+ *
+ * Tile functions take their Mats from MatPool like everything else, but the fork-join threads
+ * live as long as the app, so each one keeps only a small budget pooled: enough for a tile's
+ * intermediates to be reused from tile to tile and frame to frame, rather than MatPool's full
+ * per-thread budget of native memory.
+ */
+public final class TileExecutor {
+
+    // Core tile edge, before the halo is added.
+    private static final int TILE_SIZE = 512;
+    // Frames below this size are not worth the split and stitch overhead.
+    private static final long MIN_TILED_PIXELS = 4L * 1024 * 1024;
+
+    // What each pool thread keeps in MatPool; a haloed tile's Mats are a few megabytes at most.
+    private static final long POOL_THREAD_BYTES = 16L * 1024 * 1024;
+
+    private static final int PARALLELISM = Math.max(1, Runtime.getRuntime().availableProcessors());
+    private static final ForkJoinPool pool = newPool(PARALLELISM);
+
+    /**
+     * A filter chain applied to one tile. The inputs are haloed windows of the source Mats and
+     * must not be written to. The returned Mat must have the same size as the inputs; the
+     * executor recycles it once its core has been copied out.
+     */
+    public interface TileFunction {
+        Mat apply(Mat[] tiles);
+    }
+
+    private TileExecutor() {}
+
+    public static boolean shouldTile(Mat mat) {
+        return PARALLELISM > 1 && mat.total() >= MIN_TILED_PIXELS;
+    }
+
+    /**
+     * Applies the function to the inputs, which must all share the same size.
+     * @param halo How far, in pixels, one output pixel can depend on its neighbours.
+     * @param outType The type of the Mat the function returns.
+     * @return A pooled Mat owned by the caller.
+     */
+    public static Mat map(int halo, int outType, TileFunction function, Mat... inputs) {
+        if (!shouldTile(inputs[0])) {
+            return function.apply(inputs);
+        }
+        return map(pool, halo, outType, function, inputs);
+    }
+
+    /** Applies the function tile by tile on the given pool, whatever the frame size. */
+    static Mat map(ForkJoinPool tilePool, int halo, int outType, TileFunction function, Mat... inputs) {
+        Mat first = inputs[0];
+        final Mat dst = MatPool.obtain(first.rows(), first.cols(), outType);
+        List<Callable<Void>> jobs = new ArrayList<>();
+        for (int y = 0; y < first.rows(); y += TILE_SIZE) {
+            for (int x = 0; x < first.cols(); x += TILE_SIZE) {
+                final Rect core = new Rect(x, y, Math.min(TILE_SIZE, first.cols() - x), Math.min(TILE_SIZE, first.rows() - y));
+                jobs.add(() -> {
+                    runTile(core, halo, function, inputs, dst);
+                    return null;
+                });
+            }
+        }
+
+        try {
+            for (Future<Void> future : tilePool.invokeAll(jobs)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            MatPool.recycle(dst);
+            throw new IllegalStateException("Tiled processing was interrupted", e);
+        } catch (ExecutionException e) {
+            MatPool.recycle(dst);
+            throw new IllegalStateException("Tiled processing failed", e.getCause());
+        }
+        return dst;
+    }
+
+    /** A fork-join pool whose threads keep at most POOL_THREAD_BYTES pooled in MatPool. */
+    static ForkJoinPool newPool(int parallelism) {
+        return new ForkJoinPool(parallelism, tilePool -> new ForkJoinWorkerThread(tilePool) {
+            @Override
+            protected void onStart() {
+                super.onStart();
+                MatPool.limitCurrentThread(POOL_THREAD_BYTES);
+            }
+        }, null, false);
+    }
+
+    private static void runTile(Rect core, int halo, TileFunction function, Mat[] inputs, Mat dst) {
+        int rows = inputs[0].rows();
+        int cols = inputs[0].cols();
+        int left = Math.max(0, core.x - halo);
+        int top = Math.max(0, core.y - halo);
+        int right = Math.min(cols, core.x + core.width + halo);
+        int bottom = Math.min(rows, core.y + core.height + halo);
+        Rect outer = new Rect(left, top, right - left, bottom - top);
+
+        Mat[] tiles = new Mat[inputs.length];
+        for (int i = 0; i < inputs.length; i++) {
+            tiles[i] = inputs[i].submat(outer);
+        }
+        Mat result = function.apply(tiles);
+
+        Mat resultCore = result.submat(new Rect(core.x - left, core.y - top, core.width, core.height));
+        Mat dstCore = dst.submat(core);
+        resultCore.copyTo(dstCore);
+
+        resultCore.release();
+        dstCore.release();
+        for (Mat tile : tiles) {
+            tile.release();
+        }
+        MatPool.recycle(result);
+    }
+}
@@ -0,0 +1,46 @@
+package com.kop.app;
+
+import android.content.Context;
+
+import com.google.mediapipe.framework.image.MPImage;
+import com.google.mediapipe.tasks.vision.imagesegmenter.ImageSegmenter;
+import com.google.mediapipe.tasks.vision.imagesegmenter.ImageSegmenterResult;
+
+/**
+ * Segments the frames of one extracted video with a single VIDEO-mode segmenter, so MediaPipe can
+ * use the previous frames as temporal context instead of segmenting every frame from scratch.
+ * Frame timestamps are derived from the extraction frame rate. Frames must be segmented in
+ * increasing frame order; skipped frames simply leave a gap in the timeline.
+ */
+public final class VideoSegmentationSession implements AutoCloseable {
+
+    private final ImageSegmenter segmenter;
+    private final float fps;
+    private int frameIndex = 0;
+    private long lastTimestampMs = -1;
+
+    public VideoSegmentationSession(Context context, float fps) {
+        this.segmenter = SegmenterPool.createVideoSegmenter(context);
+        this.fps = fps > 0 ? fps : 1f;
+    }
+
+    /** Sets the index, in the extracted sequence, of the frame that is segmented next. */
+    public synchronized void setFrameIndex(int frameIndex) {
+        this.frameIndex = frameIndex;
+    }
+
+    public synchronized ImageSegmenterResult segment(MPImage image) {
+        long timestampMs = Math.round(frameIndex * 1000.0 / fps);
+        // MediaPipe rejects timestamps that do not increase, e.g. when a frame is segmented twice.
+        if (timestampMs <= lastTimestampMs) {
+            timestampMs = lastTimestampMs + 1;
+        }
+        lastTimestampMs = timestampMs;
+        return SegmenterPool.segmentForVideo(segmenter, image, timestampMs);
+    }
+
+    @Override
+    public synchronized void close() {
+        segmenter.close();
+    }
+}
@@ -0,0 +1,86 @@
+package com.kop.app;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class AdjustmentLutTest {
+
+    @Test
+    public void centeredSettingsAreIdentity() {
+        AdjustmentLut lut = AdjustmentLut.forSettings(25, 25, 25, 25);
+        assertTrue(lut.isIdentity());
+
+        int[] pixels = randomPixels(new Random(1), 4096);
+        int[] adjusted = pixels.clone();
+        lut.apply(adjusted, adjusted.length);
+        for (int i = 0; i < pixels.length; i++) {
+            assertEquals(pixels[i], adjusted[i]);
+        }
+    }
+
+    @Test
+    public void anyOffCenterSliderIsNotIdentity() {
+        assertFalse(AdjustmentLut.forSettings(26, 25, 25, 25).isIdentity());
+        assertFalse(AdjustmentLut.forSettings(25, 24, 25, 25).isIdentity());
+        assertFalse(AdjustmentLut.forSettings(25, 25, 30, 25).isIdentity());
+        assertFalse(AdjustmentLut.forSettings(25, 25, 25, 0).isIdentity());
+    }
+
+    @Test
+    public void tablesAreReusedForTheSameSettings() {
+        AdjustmentLut lut = AdjustmentLut.forSettings(10, 40, 20, 30);
+        assertSame(lut, AdjustmentLut.forSettings(10, 40, 20, 30));
+    }
+
+    /**
+     * Each table entry is rounded, and so is their sum. The ColorMatrix comparison runs on a
+     * device, in ProcessingBenchmark.
+     */
+    @Test
+    public void channelsRoundToTheNearestLevel() {
+        // Brightness 26 adds 2.56.
+        assertEquals(0xFF030303, adjust(0xFF000000, 26, 25, 25, 25));
+        assertEquals(0xFF676767, adjust(0xFF646464, 26, 25, 25, 25));
+        // Contrast 24 scales by 0.98: 100 -> 98, 255 -> 249.9.
+        assertEquals(0xFF62FA62, adjust(0xFF64FF64, 25, 24, 25, 25));
+        // Temperature 26 adds 2.5 to red and takes it from blue; halves round up, alpha is kept.
+        assertEquals(0x80030064, adjust(0x80000066, 25, 25, 25, 26));
+        // Out-of-range results clamp.
+        assertEquals(0xFFFFFFFF, adjust(0xFFFFFFFF, 50, 50, 25, 25));
+        assertEquals(0xFF000000, adjust(0xFF000000, 0, 25, 25, 25));
+    }
+
+    @Test
+    public void onlyTheFirstCountPixelsChange() {
+        int[] pixels = randomPixels(new Random(3), 100);
+        int[] adjusted = pixels.clone();
+        AdjustmentLut.forSettings(50, 50, 0, 50).apply(adjusted, 60);
+        for (int i = 60; i < pixels.length; i++) {
+            assertEquals(pixels[i], adjusted[i]);
+        }
+    }
+
+    private static int adjust(int pixel, int brightness, int contrast, int saturation, int temperature) {
+        int[] pixels = {pixel};
+        AdjustmentLut.forSettings(brightness, contrast, saturation, temperature).apply(pixels, 1);
+        return pixels[0];
+    }
+
+    private static int[] randomPixels(Random random, int count) {
+        int[] pixels = new int[count];
+        for (int i = 0; i < count; i++) {
+            pixels[i] = random.nextInt();
+        }
+        // The extremes of every channel.
+        pixels[0] = 0xFF000000;
+        pixels[1] = 0xFFFFFFFF;
+        pixels[2] = 0x80FF0000;
+        return pixels;
+    }
+}
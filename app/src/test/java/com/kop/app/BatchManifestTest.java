@@ -0,0 +1,295 @@
+package com.kop.app;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BatchManifestTest {
+
+    private static final int FRAMES = 5;
+    private static final String INPUT = "/videos/clip.mp4|1000|42";
+    private static final String JOB = "method=4;ksize=3";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File projectDir;
+    private List<File> rawFrames;
+    private File[] outputs;
+
+    @Before
+    public void createProject() throws IOException {
+        projectDir = folder.newFolder("Video_Project_20240101_120000");
+        File rawDir = new File(projectDir, "raw_frames");
+        File processedDir = new File(projectDir, "processed_frames");
+        rawDir.mkdirs();
+        processedDir.mkdirs();
+        rawFrames = new ArrayList<>();
+        outputs = new File[FRAMES];
+        for (int i = 0; i < FRAMES; i++) {
+            File rawFrame = new File(rawDir, String.format("raw_%05d.png", i));
+            writeBytes(rawFrame, 100 + i);
+            rawFrames.add(rawFrame);
+            outputs[i] = new File(processedDir, String.format("processed_%05d.png", i));
+        }
+    }
+
+    @Test
+    public void newProjectHasNoCompletedFrames() {
+        BatchManifest manifest = open(JOB);
+        assertEquals(0, manifest.getCompletedCount());
+        for (int i = 0; i < FRAMES; i++) {
+            assertFalse(manifest.isCompleted(i));
+        }
+        manifest.close();
+        assertTrue(new File(projectDir, "batch_manifest.txt").isFile());
+    }
+
+    @Test
+    public void resumeSkipsJournaledFrames() throws IOException {
+        commitFrames(0, 1, 2);
+
+        BatchManifest resumed = open(JOB);
+        assertEquals(3, resumed.getCompletedCount());
+        assertTrue(resumed.isCompleted(0));
+        assertTrue(resumed.isCompleted(1));
+        assertTrue(resumed.isCompleted(2));
+        assertFalse(resumed.isCompleted(3));
+        assertFalse(resumed.isCompleted(4));
+        resumed.close();
+    }
+
+    @Test
+    public void resumedFramesAreNotJournaledTwice() throws IOException {
+        commitFrames(0, 1);
+        BatchManifest resumed = open(JOB);
+        resumed.recordCommitted(0);
+        writeBytes(outputs[2], 30);
+        resumed.recordCommitted(2);
+        resumed.close();
+
+        assertEquals(3, journalLines().size());
+        BatchManifest again = open(JOB);
+        assertEquals(3, again.getCompletedCount());
+        again.close();
+    }
+
+    @Test
+    public void frameWithoutOutputIsNotJournaled() throws IOException {
+        BatchManifest manifest = open(JOB);
+        manifest.recordCommitted(0);
+        manifest.close();
+
+        assertEquals(0, journalLines().size());
+    }
+
+    @Test
+    public void tornJournalLineIsIgnored() throws IOException {
+        commitFrames(0, 1);
+        writeBytes(outputs[2], 30);
+        try (Writer journal = new FileWriter(new File(projectDir, "batch_journal.txt"), true)) {
+            // A crash cut this entry off before its size.
+            journal.write("2|raw_00002.png:102|");
+        }
+
+        BatchManifest resumed = open(JOB);
+        assertEquals(2, resumed.getCompletedCount());
+        assertFalse(resumed.isCompleted(2));
+        resumed.close();
+    }
+
+    @Test
+    public void garbledJournalLinesAreIgnored() throws IOException {
+        commitFrames(0);
+        try (Writer journal = new FileWriter(new File(projectDir, "batch_journal.txt"), true)) {
+            journal.write("\n");
+            journal.write("x|raw_00001.png:101|30\n");
+            journal.write("1|raw_00001.png:101\n");
+            journal.write("1|raw_00001.png:101|-5\n");
+        }
+
+        BatchManifest resumed = open(JOB);
+        assertEquals(1, resumed.getCompletedCount());
+        assertTrue(resumed.isCompleted(0));
+        resumed.close();
+    }
+
+    @Test
+    public void changedOutputIsProcessedAgainButKept() throws IOException {
+        commitFrames(0, 1);
+        writeBytes(outputs[1], 7);
+
+        BatchManifest resumed = open(JOB);
+        assertTrue(resumed.isCompleted(0));
+        assertFalse(resumed.isCompleted(1));
+        resumed.close();
+        assertEquals(7, outputs[1].length());
+    }
+
+    @Test
+    public void changedRawFrameIsProcessedAgain() throws IOException {
+        commitFrames(0, 1);
+        writeBytes(rawFrames.get(1), 500);
+
+        BatchManifest resumed = open(JOB);
+        assertTrue(resumed.isCompleted(0));
+        assertFalse(resumed.isCompleted(1));
+        resumed.close();
+    }
+
+    @Test
+    public void reextractedRawFrameOfTheSameSizeIsProcessedAgain() throws IOException {
+        commitFrames(0, 1);
+        File rawFrame = rawFrames.get(1);
+        writeBytes(rawFrame, 101);
+        assertTrue(rawFrame.setLastModified(rawFrame.lastModified() - 60_000));
+
+        BatchManifest resumed = open(JOB);
+        assertTrue(resumed.isCompleted(0));
+        assertFalse(resumed.isCompleted(1));
+        resumed.close();
+    }
+
+    @Test
+    public void keepsOnlyAFinishedExtractionOfTheSameInputAndRate() {
+        assertEquals(-1, BatchManifest.extractedFps(projectDir, INPUT));
+        assertFalse(BatchManifest.hasExtraction(projectDir, INPUT, 12, FRAMES));
+
+        BatchManifest.recordExtraction(projectDir, INPUT, 12, FRAMES);
+        assertEquals(12, BatchManifest.extractedFps(projectDir, INPUT));
+        assertTrue(BatchManifest.hasExtraction(projectDir, INPUT, 12, FRAMES));
+        assertFalse(BatchManifest.hasExtraction(projectDir, INPUT, 24, FRAMES));
+        assertFalse(BatchManifest.hasExtraction(projectDir, INPUT, 12, FRAMES - 1));
+        assertEquals(-1, BatchManifest.extractedFps(projectDir, "/videos/other.mp4|1000|42"));
+
+        BatchManifest.clearExtraction(projectDir);
+        assertEquals(-1, BatchManifest.extractedFps(projectDir, INPUT));
+    }
+
+    @Test
+    public void leftoverTempOutputsOfIncompleteFramesAreDeleted() throws IOException {
+        commitFrames(0);
+        File completedTemp = new File(outputs[0].getPath() + ".tmp");
+        File incompleteTemp = new File(outputs[1].getPath() + ".tmp");
+        writeBytes(completedTemp, 3);
+        writeBytes(incompleteTemp, 3);
+
+        BatchManifest resumed = open(JOB);
+        resumed.close();
+        assertTrue(completedTemp.isFile());
+        assertFalse(incompleteTemp.exists());
+        assertTrue(outputs[0].isFile());
+    }
+
+    @Test
+    public void otherJobNeedsItsOwnProject() throws IOException {
+        commitFrames(0, 1);
+
+        assertFalse(BatchManifest.holdsOtherBatch(projectDir, INPUT, JOB, FRAMES));
+        assertTrue(BatchManifest.holdsOtherBatch(projectDir, INPUT, "method=5;ksize=3", FRAMES));
+        assertTrue(BatchManifest.holdsOtherBatch(projectDir, INPUT, JOB, FRAMES + 1));
+        assertTrue(BatchManifest.holdsOtherBatch(projectDir, "/videos/other.mp4|1000|42", JOB, FRAMES));
+        try {
+            open("method=5;ksize=3");
+            fail("opened a project that holds another batch");
+        } catch (IllegalStateException expected) {
+            // The earlier batch's outputs and journal stay as they were.
+        }
+        assertTrue(outputs[0].isFile());
+        assertTrue(outputs[1].isFile());
+        assertEquals(2, journalLines().size());
+    }
+
+    @Test
+    public void emptyDirectoryHoldsNoOtherBatch() {
+        assertFalse(BatchManifest.holdsOtherBatch(projectDir, INPUT, JOB, FRAMES));
+    }
+
+    @Test
+    public void findsNewestUnfinishedProjectOfTheInput() throws IOException {
+        File kopDir = projectDir.getParentFile();
+        commitFrames(0, 1);
+
+        File newer = projectIn(kopDir, "Video_Project_20240102_090000", INPUT, 2);
+        // Newer still, but finished, for another input, or not a video project.
+        projectIn(kopDir, "Video_Project_20240103_090000", INPUT, FRAMES);
+        projectIn(kopDir, "Video_Project_20240104_090000", "/videos/other.mp4|1|1", 0);
+        projectIn(kopDir, "Project_20240105_090000", INPUT, 0);
+
+        assertEquals(newer, BatchManifest.findUnfinishedProject(kopDir, "Video_Project_", INPUT));
+        assertNull(BatchManifest.findUnfinishedProject(kopDir, "Video_Project_", "/videos/none.mp4|1|1"));
+    }
+
+    private BatchManifest open(String job) {
+        return BatchManifest.open(projectDir, INPUT, job, rawFrames, outputs);
+    }
+
+    /** Writes the outputs of the given frames and journals them, as a batch would. */
+    private void commitFrames(int... frames) throws IOException {
+        BatchManifest manifest = open(JOB);
+        for (int frame : frames) {
+            writeBytes(outputs[frame], 20 + frame);
+            manifest.recordCommitted(frame);
+        }
+        manifest.close();
+    }
+
+    /** A copy of this test's project under another name, with the first committedFrames done. */
+    private File projectIn(File parentDir, String name, String input, int committedFrames) throws IOException {
+        File dir = new File(parentDir, name);
+        File rawDir = new File(dir, "raw_frames");
+        File processedDir = new File(dir, "processed_frames");
+        rawDir.mkdirs();
+        processedDir.mkdirs();
+        List<File> frames = new ArrayList<>();
+        File[] frameOutputs = new File[FRAMES];
+        for (int i = 0; i < FRAMES; i++) {
+            File rawFrame = new File(rawDir, rawFrames.get(i).getName());
+            writeBytes(rawFrame, 100 + i);
+            frames.add(rawFrame);
+            frameOutputs[i] = new File(processedDir, outputs[i].getName());
+        }
+        BatchManifest manifest = BatchManifest.open(dir, input, JOB, frames, frameOutputs);
+        for (int i = 0; i < committedFrames; i++) {
+            writeBytes(frameOutputs[i], 20 + i);
+            manifest.recordCommitted(i);
+        }
+        manifest.close();
+        return dir;
+    }
+
+    private List<String> journalLines() throws IOException {
+        File journal = new File(projectDir, "batch_journal.txt");
+        List<String> lines = new ArrayList<>();
+        if (journal.isFile()) {
+            for (String line : new String(Files.readAllBytes(journal.toPath()), "UTF-8").split("\n")) {
+                if (!line.isEmpty()) {
+                    lines.add(line);
+                }
+            }
+        }
+        return lines;
+    }
+
+    private static void writeBytes(File file, int length) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[length]);
+        }
+    }
+}
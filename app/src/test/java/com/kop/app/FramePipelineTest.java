@@ -0,0 +1,224 @@
+package com.kop.app;
+
+import android.graphics.Bitmap;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FramePipelineTest {
+
+    private static final int FRAMES = 40;
+    private static final int WORKERS = 4;
+
+    private final List<Integer> written = Collections.synchronizedList(new ArrayList<>());
+    private final List<Integer> committed = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> copies = Collections.synchronizedList(new ArrayList<>());
+
+    @Test
+    public void commitsInFrameOrderWhenWorkersFinishOutOfOrder() throws Exception {
+        FramePipeline pipeline = newPipeline(FRAMES, WORKERS, null, null);
+        try {
+            pipeline.process((worker, frame) -> {
+                // Later frames of each group finish first.
+                Thread.sleep((WORKERS - frame.index % WORKERS) * 3L);
+                pipeline.write(frame.index, null, false);
+            });
+        } finally {
+            pipeline.close();
+        }
+        assertEquals(range(0, FRAMES), written);
+        assertEquals(range(0, FRAMES), committed);
+    }
+
+    @Test
+    public void commitsEveryWriteOfAFrameBeforeTheNextFrame() throws Exception {
+        FramePipeline pipeline = newPipeline(8, WORKERS, null, null);
+        try {
+            pipeline.process((worker, frame) -> {
+                pipeline.write(frame.index, null, false);
+                Thread.sleep((8 - frame.index) * 2L);
+                pipeline.write(frame.index, null, false);
+            });
+        } finally {
+            pipeline.close();
+        }
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            expected.add(i);
+            expected.add(i);
+        }
+        assertEquals(expected, written);
+        assertEquals(range(0, 8), committed);
+    }
+
+    @Test
+    public void completedFramesAreCommittedWithoutProcessing() throws Exception {
+        List<Integer> processed = Collections.synchronizedList(new ArrayList<>());
+        FramePipeline pipeline = newPipeline(10, WORKERS, index -> index < 3 || index == 6, null);
+        try {
+            pipeline.process((worker, frame) -> {
+                processed.add(frame.index);
+                pipeline.write(frame.index, null, false);
+            });
+        } finally {
+            pipeline.close();
+        }
+        Collections.sort(processed);
+        assertEquals(listOf(3, 4, 5, 7, 8, 9), processed);
+        assertEquals(listOf(3, 4, 5, 7, 8, 9), written);
+        // The listener only hears of frames written in this run.
+        assertEquals(listOf(3, 4, 5, 7, 8, 9), committed);
+    }
+
+    @Test
+    public void reusesOnlyOutputsWrittenInThisRun() throws Exception {
+        List<Integer> refused = Collections.synchronizedList(new ArrayList<>());
+        FramePipeline pipeline = newPipeline(8, WORKERS, index -> index == 5, null);
+        try {
+            pipeline.process((worker, frame) -> {
+                // Frame 2 writes nothing, as for an unreadable frame; frame 5 was completed earlier.
+                if (frame.index == 2) {
+                    return;
+                }
+                if (frame.index == 1 || frame.index == 3 || frame.index == 4 || frame.index == 6) {
+                    pipeline.awaitCommitted(frame.index - 1);
+                    if (pipeline.reusePreviousOutput(frame.index)) {
+                        return;
+                    }
+                    refused.add(frame.index);
+                }
+                pipeline.write(frame.index, null, false);
+            });
+        } finally {
+            pipeline.close();
+        }
+        assertEquals(Arrays.asList("0>1", "3>4"), copies);
+        assertEquals(listOf(3, 6), refused);
+        assertEquals(listOf(0, 3, 6, 7), written);
+        // Frame 2 wrote nothing, so no journal may vouch for its output.
+        assertEquals(listOf(0, 1, 3, 4, 6, 7), committed);
+    }
+
+    @Test
+    public void processorFailureStopsTheBatchBeforeThatFrame() throws Exception {
+        IllegalStateException failure = new IllegalStateException("frame 12 failed");
+        FramePipeline pipeline = newPipeline(FRAMES, WORKERS, null, null);
+        try {
+            pipeline.process((worker, frame) -> {
+                if (frame.index == 12) {
+                    throw failure;
+                }
+                pipeline.write(frame.index, null, false);
+            });
+            fail("process() returned despite a failed frame");
+        } catch (IllegalStateException e) {
+            assertSame(failure, e);
+        } finally {
+            pipeline.close();
+        }
+        assertIsPrefixBefore(12, committed);
+        assertIsPrefixBefore(12, written);
+    }
+
+    @Test
+    public void writeFailureIsNeverCommitted() throws Exception {
+        IOException failure = new IOException("disk full");
+        FramePipeline pipeline = newPipeline(FRAMES, WORKERS, null, index -> {
+            if (index == 7) {
+                throw failure;
+            }
+        });
+        try {
+            pipeline.process((worker, frame) -> pipeline.write(frame.index, null, false));
+            fail("process() returned despite a failed write");
+        } catch (IOException e) {
+            assertSame(failure, e);
+        } finally {
+            pipeline.close();
+        }
+        assertEquals(range(0, 7), committed);
+        // The failed write was attempted; nothing after it was.
+        assertEquals(range(0, 8), written);
+    }
+
+    @Test
+    public void decodeFailureStopsTheBatch() throws Exception {
+        IOException failure = new IOException("corrupt frame");
+        List<Integer> processed = Collections.synchronizedList(new ArrayList<>());
+        FramePipeline pipeline = new FramePipeline(FRAMES, WORKERS, index -> {
+            if (index == 5) {
+                throw failure;
+            }
+            return null;
+        }, null, recordingWriter(null), null, committed::add);
+        try {
+            pipeline.process((worker, frame) -> {
+                processed.add(frame.index);
+                pipeline.write(frame.index, null, false);
+            });
+            fail("process() returned despite a failed decode");
+        } catch (IOException e) {
+            assertSame(failure, e);
+        } finally {
+            pipeline.close();
+        }
+        assertFalse(processed.contains(5));
+        assertIsPrefixBefore(5, committed);
+    }
+
+    private interface WriteCheck {
+        void check(int frameIndex) throws Exception;
+    }
+
+    private FramePipeline newPipeline(int frameCount, int workerCount, FramePipeline.CompletedFrames completed, WriteCheck writeCheck) {
+        return new FramePipeline(frameCount, workerCount, index -> null, null, recordingWriter(writeCheck), completed, committed::add);
+    }
+
+    /** Records each write in written, after writeCheck may fail it, and each copy in copies. */
+    private FramePipeline.FrameWriter recordingWriter(WriteCheck writeCheck) {
+        return new FramePipeline.FrameWriter() {
+            @Override
+            public void write(int frameIndex, Bitmap bitmap) throws Exception {
+                written.add(frameIndex);
+                if (writeCheck != null) {
+                    writeCheck.check(frameIndex);
+                }
+            }
+
+            @Override
+            public void copy(int sourceFrameIndex, int frameIndex) {
+                copies.add(sourceFrameIndex + ">" + frameIndex);
+            }
+        };
+    }
+
+    private static void assertIsPrefixBefore(int failedFrame, List<Integer> frames) {
+        assertTrue("frames at or after " + failedFrame + " got through: " + frames, frames.size() <= failedFrame);
+        assertEquals(range(0, frames.size()), frames);
+    }
+
+    private static List<Integer> range(int from, int to) {
+        List<Integer> values = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            values.add(i);
+        }
+        return values;
+    }
+
+    private static List<Integer> listOf(Integer... values) {
+        List<Integer> list = new ArrayList<>();
+        Collections.addAll(list, values);
+        return list;
+    }
+}
@@ -0,0 +1,79 @@
+package com.kop.app;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StyleTransferEngineTest {
+
+    private static final int TILE = StyleTransferEngine.CONTENT_SIZE;
+    // StyleTransferEngine.TILE_OVERLAP.
+    private static final int MIN_OVERLAP = 64;
+
+    @Test
+    public void oneTileCoversAnEdgeOfExactlyOneTile() {
+        assertArrayEquals(new int[]{0}, StyleTransferEngine.tileOrigins(TILE));
+    }
+
+    @Test
+    public void twoTilesAreFlushWithBothEdges() {
+        assertArrayEquals(new int[]{0, 1}, StyleTransferEngine.tileOrigins(TILE + 1));
+        int longest = 2 * TILE - MIN_OVERLAP;
+        assertArrayEquals(new int[]{0, longest - TILE}, StyleTransferEngine.tileOrigins(longest));
+        assertEquals(3, StyleTransferEngine.tileOrigins(longest + 1).length);
+    }
+
+    @Test
+    public void tilesCoverEveryLengthWithTheMinimumOverlap() {
+        for (int length = TILE; length <= 4096; length++) {
+            int[] origins = StyleTransferEngine.tileOrigins(length);
+            assertEquals("first tile at " + length, 0, origins[0]);
+            assertEquals("last tile at " + length, length - TILE, origins[origins.length - 1]);
+            for (int i = 1; i < origins.length; i++) {
+                int step = origins[i] - origins[i - 1];
+                assertTrue("tiles " + (i - 1) + " and " + i + " at " + length + " overlap by " + (TILE - step),
+                        step > 0 && TILE - step >= MIN_OVERLAP);
+            }
+            if (origins.length > 2) {
+                // No fewer tiles would do.
+                int fewerSteps = origins.length - 2;
+                assertTrue("more tiles than needed at " + length,
+                        (double) (length - TILE) / fewerSteps > TILE - MIN_OVERLAP);
+            }
+        }
+    }
+
+    @Test
+    public void tilesAreEvenlySpread() {
+        int[] origins = StyleTransferEngine.tileOrigins(1536);
+        for (int i = 2; i < origins.length; i++) {
+            int difference = (origins[i] - origins[i - 1]) - (origins[1] - origins[0]);
+            assertTrue(Math.abs(difference) <= 1);
+        }
+    }
+
+    // Milliseconds per call at batch sizes 1, 2 and 4.
+    private static final double[] RUN_MILLIS = {100, 150, 250};
+
+    @Test
+    public void aSingleTileRunsAlone() {
+        assertEquals(1, StyleTransferEngine.fastestBatchSize(1, RUN_MILLIS));
+    }
+
+    @Test
+    public void batchSizeFitsTheFramesTileCount() {
+        assertEquals(4, StyleTransferEngine.fastestBatchSize(8, RUN_MILLIS));
+        // No batch of 4 for 3 tiles; two pairs, one half stale, still beat three singles.
+        assertEquals(2, StyleTransferEngine.fastestBatchSize(3, new double[]{100, 120, 200}));
+        // Three pairs (450ms) beat two batches of 4 that are three eighths stale (500ms).
+        assertEquals(2, StyleTransferEngine.fastestBatchSize(5, RUN_MILLIS));
+    }
+
+    @Test
+    public void unsupportedBatchSizesAreSkipped() {
+        double[] onlySingles = {100, Double.MAX_VALUE, Double.MAX_VALUE};
+        assertEquals(1, StyleTransferEngine.fastestBatchSize(8, onlySingles));
+    }
+}